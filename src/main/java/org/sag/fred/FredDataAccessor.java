@@ -1,5 +1,6 @@
 package org.sag.fred;
 
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
@@ -8,6 +9,7 @@ import java.util.Map;
 import java.util.Set;
 
 import org.sag.acminer.ACMinerDataAccessor;
+import org.sag.acminer.database.excludedelements.IExcludedElementsDatabase;
 import org.sag.acminer.phases.bindergroups.BinderGroupsDatabase;
 import org.sag.acminer.phases.entrypoints.EntryPoint;
 import org.sag.acminer.phases.entrypoints.EntryPointsDatabase;
@@ -19,6 +21,11 @@ import org.sag.soot.xstream.SootMethodContainer;
 import org.sag.fred.database.androidapi.IAndroidAPIDatabase;
 import org.sag.fred.database.filemethods.IFileMethodsDatabase;
 import org.sag.fred.database.messagehandlers.IMessageHandlerDatabase;
+import org.sag.fred.phases.CallGraphSnapshot;
+import org.sag.fred.phases.ExclusionView;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
 import soot.SootClass;
 import soot.SootMethod;
@@ -29,6 +36,12 @@ public class FredDataAccessor extends ACMinerDataAccessor implements IFredDataAc
 	protected volatile IAndroidAPIDatabase androidAPIDatabase;
 	protected volatile IFileMethodsDatabase fileMethodsDatabase;
 	protected volatile IMessageHandlerDatabase messageHandlerDatabase;
+	
+	private final Object exclusionLock = new Object();
+	private final Cache<EntryPoint,ExclusionView> exclusionViews = CacheBuilder.newBuilder().softValues().build();
+	private CallGraphSnapshot exclusionSnapshot;
+	private IExcludedElementsDatabase exclusionDB;
+	private BitSet excludedMethods;
 
 	public FredDataAccessor(Config config) {
 		super(config);
@@ -158,6 +171,7 @@ public class FredDataAccessor extends ACMinerDataAccessor implements IFredDataAc
 	
 	@Override
 	protected void resetAllSootDataLocked(boolean resetSootInstance) {
+		clearExclusionViews();
 		getAndroidAPIDB().clearSootResolvedData();
 		getFileMethodsDB().clearSootResolvedData();
 		getMessageHandlerDB().clearSootResolvedData();
@@ -166,6 +180,7 @@ public class FredDataAccessor extends ACMinerDataAccessor implements IFredDataAc
 	
 	@Override
 	protected void resetAllDatabasesAndDataLocked() {
+		clearExclusionViews();
 		androidAPIDatabase = IAndroidAPIDatabase.Factory.getNew(true);
 		fileMethodsDatabase = IFileMethodsDatabase.Factory.getNew(true);
 		messageHandlerDatabase = IMessageHandlerDatabase.Factory.getNew(true);
@@ -196,6 +211,44 @@ public class FredDataAccessor extends ACMinerDataAccessor implements IFredDataAc
 		return SortingMethods.sortMapKey(ret, SootSort.scComp);
 	}
 	
+	//Start exclusion views
+	
+	/** Returns the cached exclusion view of the entry point over the snapshot. The base bitmap of the methods excluded by
+	 * the database is computed once per snapshot and excluded elements database and shared by all views. Views are
+	 * softly referenced and rebuilt if they were reclaimed or were built for a different snapshot.
+	 */
+	@Override
+	public ExclusionView getExclusionView(EntryPoint ep, CallGraphSnapshot cg) {
+		IExcludedElementsDatabase excludeDB = getExcludedElementsDB();
+		BitSet excluded;
+		synchronized(exclusionLock) {
+			if(exclusionSnapshot != cg || exclusionDB != excludeDB) {
+				exclusionViews.invalidateAll();
+				exclusionSnapshot = cg;
+				exclusionDB = excludeDB;
+				excludedMethods = ExclusionView.computeExcluded(cg, excludeDB);
+			}
+			excluded = excludedMethods;
+		}
+		ExclusionView ret = exclusionViews.getIfPresent(ep);
+		if(ret == null || ret.getSnapshot() != cg) {
+			ret = new ExclusionView(cg, excluded, excludeDB.createNewExcludeHandler(ep));
+			exclusionViews.put(ep, ret);
+		}
+		return ret;
+	}
+	
+	private void clearExclusionViews() {
+		synchronized(exclusionLock) {
+			exclusionViews.invalidateAll();
+			exclusionSnapshot = null;
+			exclusionDB = null;
+			excludedMethods = null;
+		}
+	}
+	
+	//End exclusion views
+	
 	//Start android api database
 	
 	@Override
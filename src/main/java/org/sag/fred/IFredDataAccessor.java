@@ -1,9 +1,12 @@
 package org.sag.fred;
 
 import org.sag.acminer.IACMinerDataAccessor;
+import org.sag.acminer.phases.entrypoints.EntryPoint;
 import org.sag.fred.database.androidapi.IAndroidAPIDatabase;
 import org.sag.fred.database.filemethods.IFileMethodsDatabase;
 import org.sag.fred.database.messagehandlers.IMessageHandlerDatabase;
+import org.sag.fred.phases.CallGraphSnapshot;
+import org.sag.fred.phases.ExclusionView;
 
 public interface IFredDataAccessor extends IACMinerDataAccessor {
 
@@ -18,5 +21,7 @@ public interface IFredDataAccessor extends IACMinerDataAccessor {
 	IMessageHandlerDatabase getMessageHandlerDB();
 
 	void setMessageHandlerDB(IMessageHandlerDatabase db);
+	
+	ExclusionView getExclusionView(EntryPoint ep, CallGraphSnapshot cg);
 
 }
\ No newline at end of file
@@ -76,6 +76,9 @@ public class EmptyFilePathsDatabase implements IFilePathsDatabase {
 
 	@Override
 	public void addAll(Map<EntryPoint, List<Pair<PHPart, Part>>> data) {}
+	
+	@Override
+	public void addAll(Map<EntryPoint, List<Pair<PHPart, Part>>> data, Map<EntryPoint, Set<PHPart>> truncated) {}
 
 	@Override
 	public Set<EntryPointContainer> getOutputData() {
@@ -87,6 +90,11 @@ public class EmptyFilePathsDatabase implements IFilePathsDatabase {
 		return Collections.emptyMap();
 	}
 	
+	@Override
+	public Map<EntryPoint, Set<PHPart>> getTruncated() {
+		return Collections.emptyMap();
+	}
+	
 	@Override
 	public EmptyFilePathsDatabase readXML(String filePath, Path path) throws Exception {
 		return XStreamInOut.readXML(this, filePath, path);
@@ -17,6 +17,7 @@ import org.sag.soot.xstream.SootClassContainer;
 import org.sag.soot.xstream.SootMethodContainer;
 import org.sag.fred.database.filepaths.parts.PHPart;
 import org.sag.fred.database.filepaths.parts.Part;
+import org.sag.fred.database.filepaths.parts.PartInterner;
 
 import soot.SootClass;
 import soot.SootMethod;
@@ -45,12 +46,17 @@ public final class EntryPointContainer implements XStreamInOutInterface, Compara
 	private EntryPointContainer() { sorted = false; }
 	
 	public EntryPointContainer(EntryPoint ep, List<Pair<PHPart,Part>> data) {
+		this(ep, data, Collections.<PHPart>emptySet());
+	}
+	
+	/** The seeds in truncated are those whose extraction exceeded its budget. */
+	public EntryPointContainer(EntryPoint ep, List<Pair<PHPart,Part>> data, Set<PHPart> truncated) {
 		this.entryPoint = ep.getEntryPoint() == null ? null : SootMethodContainer.makeSootMethodContainer(ep.getEntryPoint());
 		this.stub = ep.getStub() == null ? null : SootClassContainer.makeSootClassContainer(ep.getStub());
 		if(data != null && !data.isEmpty()) {
 			this.paths = new ArrayList<>();
 			for(Pair<PHPart,Part> p : data) {
-				paths.add(new PathContainer(p.getFirst(), p.getSecond()));
+				paths.add(new PathContainer(p.getFirst(), p.getSecond(), truncated.contains(p.getFirst())));
 			}
 			Collections.sort(paths);
 		}
@@ -151,6 +157,19 @@ public final class EntryPointContainer implements XStreamInOutInterface, Compara
 		return ret;
 	}
 	
+	/** Returns the seeds whose extraction exceeded its budget. */
+	public Set<PHPart> getTruncated() {
+		Set<PHPart> ret = new LinkedHashSet<>();
+		if(paths != null && !paths.isEmpty()) {
+			sortPaths();
+			for(PathContainer p : paths) {
+				if(p.isTruncated())
+					ret.add(p.getSeedPart());
+			}
+		}
+		return ret;
+	}
+	
 	public Set<Part> getPaths() {
 		Set<Part> ret = new LinkedHashSet<>();
 		if(paths != null && !paths.isEmpty()) {
@@ -162,6 +181,15 @@ public final class EntryPointContainer implements XStreamInOutInterface, Compara
 		return ret;
 	}
 	
+	/** Replaces the parts of all paths with their canonical instances so equal subtrees are shared. */
+	protected void internParts(PartInterner interner) {
+		if(paths != null) {
+			for(PathContainer p : paths) {
+				p.internParts(interner);
+			}
+		}
+	}
+	
 	protected void sortPaths() {
 		if(paths != null && !paths.isEmpty()) {
 			if(!sorted) {
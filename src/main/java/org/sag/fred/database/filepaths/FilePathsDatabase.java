@@ -20,6 +20,7 @@ import org.sag.common.tuple.Pair;
 import org.sag.common.xstream.XStreamInOut;
 import org.sag.fred.database.filepaths.parts.PHPart;
 import org.sag.fred.database.filepaths.parts.Part;
+import org.sag.fred.database.filepaths.parts.PartInterner;
 
 import com.thoughtworks.xstream.XStream;
 import com.thoughtworks.xstream.annotations.XStreamAlias;
@@ -35,17 +36,23 @@ public class FilePathsDatabase extends FileHashDatabase implements IFilePathsDat
 	@XStreamOmitField
 	private volatile Map<EntryPoint,List<Pair<PHPart,Part>>> entryPointToPaths;
 	@XStreamOmitField
+	private volatile Map<EntryPoint,Set<PHPart>> entryPointToTruncated;
+	@XStreamOmitField
 	private final ReadWriteLock rwlock;
 	@XStreamOmitField
 	private volatile boolean sorted;
+	@XStreamOmitField
+	private volatile PartInterner interner;
 	
 	protected FilePathsDatabase(boolean newDB) {
 		if(newDB) {
 			entryPointToPaths = new LinkedHashMap<>();
+			entryPointToTruncated = new LinkedHashMap<>();
 			data = new LinkedHashSet<>();
 			sorted = true;
 		} else {
 			entryPointToPaths = null;
+			entryPointToTruncated = null;
 			data = null;
 			sorted = false;
 		}
@@ -57,12 +64,23 @@ public class FilePathsDatabase extends FileHashDatabase implements IFilePathsDat
 		rwlock.writeLock().lock();
 		try {
 			sortDataWLocked();
+			//Share the equal subtrees of the paths read in
+			PartInterner interner = getInternerWLocked();
+			for(EntryPointContainer ep : data) {
+				ep.internParts(interner);
+			}
 		} finally {
 			rwlock.writeLock().unlock();
 		}
 		return this;
 	}
 	
+	private PartInterner getInternerWLocked() {
+		if(interner == null)
+			interner = new PartInterner();
+		return interner;
+	}
+	
 	protected Object writeReplace() throws ObjectStreamException {
 		rwlock.writeLock().lock();
 		try {
@@ -99,10 +117,14 @@ public class FilePathsDatabase extends FileHashDatabase implements IFilePathsDat
 	
 	@Override
 	public void clearSootResolvedData() {
-		if(entryPointToPaths != null) {
+		if(entryPointToPaths != null || interner != null) {
 			rwlock.writeLock().lock();
 			try {
 				entryPointToPaths = null;
+				entryPointToTruncated = null;
+				//Canonical leaves may hold on to resolved Soot objects so parts added after the reset get new ones
+				if(interner != null)
+					interner.clear();
 			} finally {
 				rwlock.writeLock().unlock();
 			}
@@ -124,9 +146,14 @@ public class FilePathsDatabase extends FileHashDatabase implements IFilePathsDat
 	private void loadSootResolvedDataWLocked() {
 		if(entryPointToPaths == null) {
 			entryPointToPaths = new LinkedHashMap<>();
+			entryPointToTruncated = new LinkedHashMap<>();
 			sortDataWLocked();
 			for(EntryPointContainer ep : data) {
-				entryPointToPaths.put(ep.getSootEntryPoint(), ep.getData());
+				EntryPoint sootEp = ep.getSootEntryPoint();
+				entryPointToPaths.put(sootEp, ep.getData());
+				Set<PHPart> truncated = ep.getTruncated();
+				if(!truncated.isEmpty())
+					entryPointToTruncated.put(sootEp, truncated);
 			}
 		}
 	}
@@ -191,7 +218,7 @@ public class FilePathsDatabase extends FileHashDatabase implements IFilePathsDat
 	public void add(EntryPoint ep, List<Pair<PHPart, Part>> paths) {
 		rwlock.writeLock().lock();
 		try {
-			addInner(ep, paths);
+			addInner(ep, paths, Collections.<PHPart>emptySet());
 		} finally {
 			rwlock.writeLock().unlock();
 		}
@@ -199,21 +226,36 @@ public class FilePathsDatabase extends FileHashDatabase implements IFilePathsDat
 	
 	@Override
 	public void addAll(Map<EntryPoint,List<Pair<PHPart,Part>>> data) {
+		addAll(data, Collections.<EntryPoint,Set<PHPart>>emptyMap());
+	}
+	
+	@Override
+	public void addAll(Map<EntryPoint,List<Pair<PHPart,Part>>> data, Map<EntryPoint,Set<PHPart>> truncated) {
 		Objects.requireNonNull(data);
+		Objects.requireNonNull(truncated);
 		rwlock.writeLock().lock();
 		try {
 			for(EntryPoint ep : data.keySet()) {
-				addInner(ep, data.get(ep));
+				Set<PHPart> temp = truncated.get(ep);
+				addInner(ep, data.get(ep), temp == null ? Collections.<PHPart>emptySet() : temp);
 			}
 		} finally {
 			rwlock.writeLock().unlock();
 		}
 	}
 	
-	private void addInner(EntryPoint ep, List<Pair<PHPart, Part>> paths) {
+	private void addInner(EntryPoint ep, List<Pair<PHPart, Part>> paths, Set<PHPart> truncated) {
 		Objects.requireNonNull(ep);
-		data.add(new EntryPointContainer(ep, paths));
+		PartInterner interner = getInternerWLocked();
+		List<Pair<PHPart,Part>> interned = new ArrayList<>(paths.size());
+		for(Pair<PHPart,Part> p : paths) {
+			interned.add(new Pair<>(interner.internLeaf(p.getFirst()), interner.intern(p.getSecond())));
+		}
+		paths = interned;
+		data.add(new EntryPointContainer(ep, paths, truncated));
 		entryPointToPaths.put(ep, paths);
+		if(!truncated.isEmpty())
+			entryPointToTruncated.put(ep, new LinkedHashSet<>(truncated));
 		sorted = false;
 	}
 	
@@ -245,6 +287,21 @@ public class FilePathsDatabase extends FileHashDatabase implements IFilePathsDat
 		return ret;
 	}
 	
+	@Override
+	public Map<EntryPoint,Set<PHPart>> getTruncated() {
+		Map<EntryPoint,Set<PHPart>> ret = new LinkedHashMap<>();
+		rwlock.readLock().lock();
+		try {
+			loadSootResolvedDataRLocked();
+			for(EntryPoint ep : entryPointToTruncated.keySet()) {
+				ret.put(ep, new LinkedHashSet<>(entryPointToTruncated.get(ep)));
+			}
+		} finally {
+			rwlock.readLock().unlock();
+		}
+		return ret;
+	}
+	
 	@Override
 	public void writeXML(String filePath, Path path) throws Exception {
 		rwlock.writeLock().lock();
@@ -32,11 +32,16 @@ public interface IFilePathsDatabase extends XStreamInOutInterface {
 	void add(EntryPoint ep, List<Pair<PHPart, Part>> paths);
 
 	void addAll(Map<EntryPoint, List<Pair<PHPart, Part>>> data);
+	
+	/** Adds the data marking the seeds in truncated as those whose extraction exceeded its budget. */
+	void addAll(Map<EntryPoint, List<Pair<PHPart, Part>>> data, Map<EntryPoint, Set<PHPart>> truncated);
 
 	Set<EntryPointContainer> getOutputData();
 
 	Map<EntryPoint, List<Pair<PHPart, Part>>> getData();
 	
+	Map<EntryPoint, Set<PHPart>> getTruncated();
+	
 	List<FileHash> getFileHashList();
 	void setFileHashList(FileHashList fhl);
 	
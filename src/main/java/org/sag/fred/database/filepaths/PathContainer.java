@@ -10,6 +10,7 @@ import org.sag.common.xstream.XStreamInOut;
 import org.sag.common.xstream.XStreamInOut.XStreamInOutInterface;
 import org.sag.fred.database.filepaths.parts.PHPart;
 import org.sag.fred.database.filepaths.parts.Part;
+import org.sag.fred.database.filepaths.parts.PartInterner;
 
 import com.thoughtworks.xstream.XStream;
 import com.thoughtworks.xstream.annotations.XStreamAlias;
@@ -24,13 +25,22 @@ public final class PathContainer implements XStreamInOutInterface, Comparable<Pa
 	@XStreamAlias("PathPart")
 	private Part pathPart;
 	
+	//True if the extraction of the seed exceeded its budget so some of the path is unresolved
+	@XStreamAlias("Truncated")
+	private boolean truncated;
+	
 	private PathContainer() {}
 	
 	public PathContainer(PHPart seedPart, Part pathPart) {
+		this(seedPart, pathPart, false);
+	}
+	
+	public PathContainer(PHPart seedPart, Part pathPart, boolean truncated) {
 		Objects.requireNonNull(seedPart);
 		Objects.requireNonNull(pathPart);
 		this.seedPart = seedPart;
 		this.pathPart = pathPart;
+		this.truncated = truncated;
 	}
 	
 	@Override
@@ -40,7 +50,7 @@ public final class PathContainer implements XStreamInOutInterface, Comparable<Pa
 		if(o == null || getClass() != o.getClass())
 			return false;
 		PathContainer other = (PathContainer)o;
-		return Objects.equals(seedPart, other.seedPart) && Objects.equals(pathPart, other.pathPart);
+		return Objects.equals(seedPart, other.seedPart) && Objects.equals(pathPart, other.pathPart) && truncated == other.truncated;
 	}
 	
 	@Override
@@ -48,6 +58,7 @@ public final class PathContainer implements XStreamInOutInterface, Comparable<Pa
 		int hash = 17;
 		hash = 31 * hash + Objects.hashCode(seedPart);
 		hash = 31 * hash + Objects.hashCode(pathPart);
+		hash = 31 * hash + (truncated ? 1 : 0);
 		return hash;
 	}
 	
@@ -58,7 +69,7 @@ public final class PathContainer implements XStreamInOutInterface, Comparable<Pa
 	
 	public String toString(String spacer) {
 		StringBuilder sb = new StringBuilder();
-		sb.append(spacer).append(seedPart.toString()).append("\n");
+		sb.append(spacer).append(seedPart.toString()).append(truncated ? " (Truncated)" : "").append("\n");
 		sb.append(spacer).append(pathPart.toString()).append("\n");
 		return sb.toString();
 	}
@@ -76,6 +87,16 @@ public final class PathContainer implements XStreamInOutInterface, Comparable<Pa
 		return pathPart;
 	}
 	
+	public boolean isTruncated() {
+		return truncated;
+	}
+	
+	/** Replaces the seed and path parts with their canonical instances. */
+	void internParts(PartInterner interner) {
+		seedPart = interner.internLeaf(seedPart);
+		pathPart = interner.intern(pathPart);
+	}
+	
 	@Override
 	public void writeXML(String filePath, Path path) throws Exception {
 		XStreamInOut.writeXML(this, filePath, path);
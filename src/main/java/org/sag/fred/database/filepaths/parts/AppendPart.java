@@ -30,6 +30,8 @@ public class AppendPart extends AbstractCollection<Part> implements BranchPart {
 	private volatile ArrayList<Node> children;
 	@XStreamOmitField
 	private volatile ArrayList<Part> contents;
+	@XStreamOmitField
+	private volatile PartCache cache;
 	
 	public AppendPart() {
 		children = new ArrayList<>();
@@ -60,8 +62,24 @@ public class AppendPart extends AbstractCollection<Part> implements BranchPart {
 		}
 	}
 	
+	//For use by the PartInterner after it has replaced the parts of the children with equal parts
+	void refreshContents() {
+		ArrayList<Part> ret = new ArrayList<>(children.size());
+		for(Node n : children) {
+			ret.add(n.getPart());
+		}
+		contents = ret;
+	}
+	
+	//For use by the PartInterner once this part is canonical after which its values are cached
+	void freeze() {
+		if(cache == null)
+			cache = new PartCache();
+	}
+	
 	public boolean add(Part p) {
 		Objects.requireNonNull(p);
+		PartCache.checkNotFrozen(cache);
 		return contents.add(p) && children.add(new Node(p));
 	}
 	
@@ -87,6 +105,7 @@ public class AppendPart extends AbstractCollection<Part> implements BranchPart {
 			
 			@Override
 			public void remove() {
+				PartCache.checkNotFrozen(cache);
 				contents.remove(i);
 				children.remove(i);
 			}
@@ -111,16 +130,61 @@ public class AppendPart extends AbstractCollection<Part> implements BranchPart {
 		if(o == null || getClass() != o.getClass())
 			return false;
 		AppendPart other = (AppendPart)o;
+		//Only canonical parts have their hash cached so it is a cheap first check for them alone
+		if(cache != null && other.cache != null && hashCode() != other.hashCode())
+			return false;
 		return contents.equals(other.contents);
 	}
 	
 	@Override
 	public int hashCode() {
-		return contents.hashCode();
+		PartCache cache = this.cache;
+		if(cache == null)
+			return contents.hashCode();
+		if(!cache.hasHash())
+			cache.setHash(contents.hashCode());
+		return cache.getHash();
 	}
 	
 	@Override
 	public String toRegexString() {
+		return getString(PartCache.regex);
+	}
+	
+	@Override
+	public String toSuperSimpleString() {
+		return getString(PartCache.superSimple);
+	}
+	
+	@Override
+	public String toSimpleString() {
+		return getString(PartCache.simple);
+	}
+	
+	@Override
+	public String toString() {
+		return getString(PartCache.string);
+	}
+	
+	private String getString(int kind) {
+		PartCache cache = this.cache;
+		String ret = cache == null ? null : cache.getString(kind);
+		if(ret == null) {
+			if(kind == PartCache.regex)
+				ret = computeRegexString();
+			else if(kind == PartCache.superSimple)
+				ret = computeSuperSimpleString();
+			else if(kind == PartCache.simple)
+				ret = computeSimpleString();
+			else
+				ret = computeString();
+			if(cache != null)
+				cache.setString(kind, ret);
+		}
+		return ret;
+	}
+	
+	private String computeRegexString() {
 		StringBuilder sb = new StringBuilder();
 		for(Part p : this) {
 			//Skip LoopPart because they are not supported in the regex construction
@@ -131,8 +195,7 @@ public class AppendPart extends AbstractCollection<Part> implements BranchPart {
 		return sb.toString();
 	}
 
-	@Override
-	public String toSuperSimpleString() {
+	private String computeSuperSimpleString() {
 		StringBuilder sb = new StringBuilder();
 		sb.append("{");
 		boolean first = true;
@@ -147,8 +210,7 @@ public class AppendPart extends AbstractCollection<Part> implements BranchPart {
 		return sb.toString();
 	}
 
-	@Override
-	public String toSimpleString() {
+	private String computeSimpleString() {
 		StringBuilder sb = new StringBuilder();
 		sb.append("{");
 		boolean first = true;
@@ -163,8 +225,7 @@ public class AppendPart extends AbstractCollection<Part> implements BranchPart {
 		return sb.toString();
 	}
 	
-	@Override
-	public String toString() {
+	private String computeString() {
 		StringBuilder sb = new StringBuilder();
 		sb.append("{");
 		boolean first = true;
@@ -205,6 +266,16 @@ public class AppendPart extends AbstractCollection<Part> implements BranchPart {
 		return new ArrayList<>(children);
 	}
 	
+	@Override
+	public int getChildCount() {
+		return children.size();
+	}
+	
+	@Override
+	public Node getChildNode(int index) {
+		return children.get(index);
+	}
+	
 	@Override
 	public boolean swapChild(Node child, Part newChild) {
 		Objects.requireNonNull(child);
@@ -218,8 +289,10 @@ public class AppendPart extends AbstractCollection<Part> implements BranchPart {
 		Objects.requireNonNull(newChild);
 		int index = children.indexOf(child);
 		if(index >= 0) {
+			PartCache.checkNotFrozen(cache);
 			children.set(index, newChild);
 			contents.set(index, newChild.getPart());
+			return true;
 		}
 		return false;
 	}
@@ -229,6 +302,7 @@ public class AppendPart extends AbstractCollection<Part> implements BranchPart {
 		Objects.requireNonNull(child);
 		int index = children.indexOf(child);
 		if(index >= 0) {
+			PartCache.checkNotFrozen(cache);
 			children.remove(index);
 			contents.remove(index);
 			return true;
@@ -243,6 +317,7 @@ public class AppendPart extends AbstractCollection<Part> implements BranchPart {
 		if(childNode.getPart() instanceof AppendPart) {
 			int index = children.indexOf(childNode);
 			if(index >= 0) {
+				PartCache.checkNotFrozen(cache);
 				AppendPart child = (AppendPart)childNode.getPart();
 				children.addAll(index, child.getChildNodes());
 				contents.addAll(index, child.getChildren());
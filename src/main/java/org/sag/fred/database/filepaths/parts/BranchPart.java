@@ -17,6 +17,16 @@ public interface BranchPart extends Part {
 	
 	public List<Node> getChildNodes();
 	
+	/** The number of children. Unlike {@link #getChildNodes()} this does not copy the children. */
+	default int getChildCount() {
+		return getChildNodes().size();
+	}
+	
+	/** Returns the node of the child at index. Unlike {@link #getChildNodes()} this does not copy the children. */
+	default Node getChildNode(int index) {
+		return getChildNodes().get(index);
+	}
+	
 	/** Replaces the part at index with newChild.*/
 	public boolean swapChild(Node child, Node newChild);
 	
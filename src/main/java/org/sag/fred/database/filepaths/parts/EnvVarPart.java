@@ -17,6 +17,8 @@ public class EnvVarPart implements BranchPart, AnyPart {
 	
 	@XStreamAlias("Child")
 	private volatile Node child;
+	@XStreamOmitField
+	private volatile PartCache cache;
 	
 	public static final String indStr = "ENVVAR";
 	private static final String anyStr = sepStr + indStr + sepStr;
@@ -29,6 +31,12 @@ public class EnvVarPart implements BranchPart, AnyPart {
 		this.child = null;
 	}
 	
+	//For use by the PartInterner once this part is canonical after which its values are cached
+	void freeze() {
+		if(cache == null)
+			cache = new PartCache();
+	}
+	
 	@Override
 	public boolean equals(Object o) {
 		if(this == o)
@@ -41,7 +49,26 @@ public class EnvVarPart implements BranchPart, AnyPart {
 	
 	@Override
 	public int hashCode() {
-		return Objects.hashCode(getChild());
+		PartCache cache = this.cache;
+		if(cache == null)
+			return Objects.hashCode(getChild());
+		if(!cache.hasHash())
+			cache.setHash(Objects.hashCode(getChild()));
+		return cache.getHash();
+	}
+	
+	private String getString(int kind) {
+		PartCache cache = this.cache;
+		String ret = cache == null ? null : cache.getString(kind);
+		if(ret == null) {
+			if(kind == PartCache.simple)
+				ret = computeSimpleString();
+			else
+				ret = computeString();
+			if(cache != null)
+				cache.setString(kind, ret);
+		}
+		return ret;
 	}
 	
 	@Override
@@ -56,6 +83,10 @@ public class EnvVarPart implements BranchPart, AnyPart {
 	
 	@Override
 	public String toSimpleString() {
+		return getString(PartCache.simple);
+	}
+	
+	private String computeSimpleString() {
 		StringBuilder sb = new StringBuilder();
 		Part p = getChild();
 		sb.append(indStr).append("[");
@@ -68,6 +99,10 @@ public class EnvVarPart implements BranchPart, AnyPart {
 	
 	@Override
 	public String toString() {
+		return getString(PartCache.string);
+	}
+	
+	private String computeString() {
 		StringBuilder sb = new StringBuilder();
 		Part p = getChild();
 		sb.append(indStr).append("[");
@@ -114,6 +149,19 @@ public class EnvVarPart implements BranchPart, AnyPart {
 		return Collections.singletonList(child);
 	}
 	
+	@Override
+	public int getChildCount() {
+		return child == null ? 0 : 1;
+	}
+	
+	@Override
+	public Node getChildNode(int index) {
+		Node ret = child;
+		if(index != 0 || ret == null)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + (ret == null ? 0 : 1));
+		return ret;
+	}
+	
 	@Override
 	public boolean swapChild(Node child, Part newChild) {
 		Objects.requireNonNull(child);
@@ -126,6 +174,7 @@ public class EnvVarPart implements BranchPart, AnyPart {
 		Objects.requireNonNull(child);
 		Objects.requireNonNull(newChild);
 		if(child.equals(this.child)) {
+			PartCache.checkNotFrozen(cache);
 			this.child = newChild;
 			return true;
 		}
@@ -136,6 +185,7 @@ public class EnvVarPart implements BranchPart, AnyPart {
 	public boolean removeChild(Node child) {
 		Objects.requireNonNull(child);
 		if(child.equals(this.child)) {
+			PartCache.checkNotFrozen(cache);
 			this.child = null;
 			return true;
 		}
@@ -110,6 +110,19 @@ public class LoopPart implements BranchPart {
 		return Collections.singletonList(start);
 	}
 	
+	@Override
+	public int getChildCount() {
+		return start == null ? 0 : 1;
+	}
+	
+	@Override
+	public Node getChildNode(int index) {
+		Node ret = start;
+		if(index != 0 || ret == null)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + (ret == null ? 0 : 1));
+		return ret;
+	}
+	
 	@Override
 	public boolean swapChild(Node child, Part newChild) {
 		Objects.requireNonNull(child);
@@ -31,6 +31,8 @@ public class OrPart extends AbstractCollection<Part> implements BranchPart {
 	private volatile ArrayList<Node> children;
 	@XStreamOmitField
 	private volatile Set<Part> contents;
+	@XStreamOmitField
+	private volatile PartCache cache;
 	
 	public OrPart() {
 		children = new ArrayList<>();
@@ -52,18 +54,33 @@ public class OrPart extends AbstractCollection<Part> implements BranchPart {
 	//Can't do readResolve because then XStream would try to resolve contents before all parts are read in
 	//resulting in null pointer exceptions in the hashCode method. Recursive references in HashSets are not
 	//supported in readResolve and in HashSets stored in the XML.
+	//The set is filled before it is published so a shared OrPart can be read from multiple threads
 	private Set<Part> getContents() {
-		if(contents == null) {
-			contents = new HashSet<>();
+		Set<Part> ret = contents;
+		if(ret == null) {
+			ret = new HashSet<>();
 			for(Node n : children) {
-				contents.add(n.getPart());
+				ret.add(n.getPart());
 			}
+			contents = ret;
 		}
-		return contents;
+		return ret;
+	}
+	
+	//For use by the PartInterner after it has replaced the parts of the children with equal parts
+	void clearContents() {
+		contents = null;
+	}
+	
+	//For use by the PartInterner once this part is canonical after which its values are cached
+	void freeze() {
+		if(cache == null)
+			cache = new PartCache();
 	}
 	
 	public boolean add(Part p) {
 		Objects.requireNonNull(p);
+		PartCache.checkNotFrozen(cache);
 		if(getContents().add(p)) {
 			return children.add(new Node(p));
 		}
@@ -94,6 +111,7 @@ public class OrPart extends AbstractCollection<Part> implements BranchPart {
 			
 			@Override
 			public void remove() {
+				PartCache.checkNotFrozen(cache);
 				it.remove();
 				getContents().remove(cur.getPart());
 			}
@@ -118,16 +136,61 @@ public class OrPart extends AbstractCollection<Part> implements BranchPart {
 		if(o == null || getClass() != o.getClass())
 			return false;
 		OrPart other = (OrPart)o;
+		//Only canonical parts have their hash cached so it is a cheap first check for them alone
+		if(cache != null && other.cache != null && hashCode() != other.hashCode())
+			return false;
 		return getContents().equals(other.getContents());
 	}
 	
 	@Override
 	public int hashCode() {
-		return getContents().hashCode();
+		PartCache cache = this.cache;
+		if(cache == null)
+			return getContents().hashCode();
+		if(!cache.hasHash())
+			cache.setHash(getContents().hashCode());
+		return cache.getHash();
 	}
-
+	
 	@Override
 	public String toRegexString() {
+		return getString(PartCache.regex);
+	}
+	
+	@Override
+	public String toSuperSimpleString() {
+		return getString(PartCache.superSimple);
+	}
+	
+	@Override
+	public String toSimpleString() {
+		return getString(PartCache.simple);
+	}
+	
+	@Override
+	public String toString() {
+		return getString(PartCache.string);
+	}
+	
+	private String getString(int kind) {
+		PartCache cache = this.cache;
+		String ret = cache == null ? null : cache.getString(kind);
+		if(ret == null) {
+			if(kind == PartCache.regex)
+				ret = computeRegexString();
+			else if(kind == PartCache.superSimple)
+				ret = computeSuperSimpleString();
+			else if(kind == PartCache.simple)
+				ret = computeSimpleString();
+			else
+				ret = computeString();
+			if(cache != null)
+				cache.setString(kind, ret);
+		}
+		return ret;
+	}
+
+	private String computeRegexString() {
 		Set<String> strs = new HashSet<>();
 		for(Part p : this) {
 			//Skip LoopPart because they are not supported in the regex construction
@@ -152,8 +215,7 @@ public class OrPart extends AbstractCollection<Part> implements BranchPart {
 		return sb.toString();
 	}
 
-	@Override
-	public String toSuperSimpleString() {
+	private String computeSuperSimpleString() {
 		Set<String> strs = new HashSet<>();
 		for(Part p : this) {
 			strs.add(p.toSuperSimpleString());
@@ -173,8 +235,7 @@ public class OrPart extends AbstractCollection<Part> implements BranchPart {
 		return sb.toString();
 	}
 
-	@Override
-	public String toSimpleString() {
+	private String computeSimpleString() {
 		Set<String> strs = new HashSet<>();
 		for(Part p : this) {
 			strs.add(p.toSimpleString());
@@ -194,8 +255,7 @@ public class OrPart extends AbstractCollection<Part> implements BranchPart {
 		return sb.toString();
 	}
 	
-	@Override
-	public String toString() {
+	private String computeString() {
 		Set<String> strs = new HashSet<>();
 		for(Part p : this) {
 			strs.add(p.toString());
@@ -247,6 +307,16 @@ public class OrPart extends AbstractCollection<Part> implements BranchPart {
 		return new ArrayList<>(children);
 	}
 	
+	@Override
+	public int getChildCount() {
+		return children.size();
+	}
+	
+	@Override
+	public Node getChildNode(int index) {
+		return children.get(index);
+	}
+	
 	@Override
 	public boolean swapChild(Node child, Part newChild) {
 		Objects.requireNonNull(child);
@@ -260,6 +330,7 @@ public class OrPart extends AbstractCollection<Part> implements BranchPart {
 		Objects.requireNonNull(newChild);
 		int index = children.indexOf(child);
 		if(index >= 0) {
+			PartCache.checkNotFrozen(cache);
 			if(getContents().add(newChild.getPart())) {
 				children.set(index, newChild);
 				getContents().remove(child.getPart());
@@ -274,11 +345,14 @@ public class OrPart extends AbstractCollection<Part> implements BranchPart {
 	@Override
 	public boolean removeChild(Node child) {
 		Objects.requireNonNull(child);
-		boolean removed = children.remove(child);
-		if(removed) {
+		int index = children.indexOf(child);
+		if(index >= 0) {
+			PartCache.checkNotFrozen(cache);
+			children.remove(index);
 			getContents().remove(child.getPart());
+			return true;
 		}
-		return removed;
+		return false;
 	}
 	
 	@Override
@@ -287,6 +361,7 @@ public class OrPart extends AbstractCollection<Part> implements BranchPart {
 		if(childNode.getPart() instanceof OrPart) {
 			int index = children.indexOf(childNode);
 			if(index >= 0) {
+				PartCache.checkNotFrozen(cache);
 				OrPart child = (OrPart)childNode.getPart();
 				List<Node> toInsert = new ArrayList<>();
 				for(Node n : child.getChildNodes()) {
@@ -17,6 +17,8 @@ public class ParentPart implements BranchPart {
 	
 	@XStreamAlias("Child")
 	private volatile Node child;
+	@XStreamOmitField
+	private volatile PartCache cache;
 	
 	public static final String indStr = "PARENT";
 	
@@ -28,6 +30,12 @@ public class ParentPart implements BranchPart {
 		this.child = null;
 	}
 	
+	//For use by the PartInterner once this part is canonical after which its values are cached
+	void freeze() {
+		if(cache == null)
+			cache = new PartCache();
+	}
+	
 	@Override
 	public boolean equals(Object o) {
 		if(this == o)
@@ -40,12 +48,39 @@ public class ParentPart implements BranchPart {
 	
 	@Override
 	public int hashCode() {
-		return Objects.hashCode(getChild());
+		PartCache cache = this.cache;
+		if(cache == null)
+			return Objects.hashCode(getChild());
+		if(!cache.hasHash())
+			cache.setHash(Objects.hashCode(getChild()));
+		return cache.getHash();
+	}
+	
+	private String getString(int kind) {
+		PartCache cache = this.cache;
+		String ret = cache == null ? null : cache.getString(kind);
+		if(ret == null) {
+			if(kind == PartCache.regex)
+				ret = computeRegexString();
+			else if(kind == PartCache.superSimple)
+				ret = computeSuperSimpleString();
+			else if(kind == PartCache.simple)
+				ret = computeSimpleString();
+			else
+				ret = computeString();
+			if(cache != null)
+				cache.setString(kind, ret);
+		}
+		return ret;
 	}
 	
 	//TODO Attempt to actually normalize things
 	@Override
 	public String toRegexString() {
+		return getString(PartCache.regex);
+	}
+	
+	private String computeRegexString() {
 		Part p = getChild();
 		if(p == null || p instanceof LoopPart)
 			return "";
@@ -56,6 +91,10 @@ public class ParentPart implements BranchPart {
 	//TODO Attempt to actually normalize things
 	@Override
 	public String toSuperSimpleString() {
+		return getString(PartCache.superSimple);
+	}
+	
+	private String computeSuperSimpleString() {
 		StringBuilder sb = new StringBuilder();
 		Part p = getChild();
 		sb.append(indStr).append("[");
@@ -69,6 +108,10 @@ public class ParentPart implements BranchPart {
 	//TODO Attempt to actually normalize things
 	@Override
 	public String toSimpleString() {
+		return getString(PartCache.simple);
+	}
+	
+	private String computeSimpleString() {
 		StringBuilder sb = new StringBuilder();
 		Part p = getChild();
 		sb.append(indStr).append("[");
@@ -82,6 +125,10 @@ public class ParentPart implements BranchPart {
 	//TODO Attempt to actually normalize things
 	@Override
 	public String toString() {
+		return getString(PartCache.string);
+	}
+	
+	private String computeString() {
 		StringBuilder sb = new StringBuilder();
 		Part p = getChild();
 		sb.append(indStr).append("[");
@@ -128,6 +175,19 @@ public class ParentPart implements BranchPart {
 		return Collections.singletonList(child);
 	}
 	
+	@Override
+	public int getChildCount() {
+		return child == null ? 0 : 1;
+	}
+	
+	@Override
+	public Node getChildNode(int index) {
+		Node ret = child;
+		if(index != 0 || ret == null)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + (ret == null ? 0 : 1));
+		return ret;
+	}
+	
 	@Override
 	public boolean swapChild(Node child, Part newChild) {
 		Objects.requireNonNull(child);
@@ -140,6 +200,7 @@ public class ParentPart implements BranchPart {
 		Objects.requireNonNull(child);
 		Objects.requireNonNull(newChild);
 		if(child.equals(this.child)) {
+			PartCache.checkNotFrozen(cache);
 			this.child = newChild;
 			return true;
 		}
@@ -150,6 +211,7 @@ public class ParentPart implements BranchPart {
 	public boolean removeChild(Node child) {
 		Objects.requireNonNull(child);
 		if(child.equals(this.child)) {
+			PartCache.checkNotFrozen(cache);
 			this.child = null;
 			return true;
 		}
@@ -1,16 +1,17 @@
 package org.sag.fred.database.filepaths.parts;
 
 import java.nio.file.Path;
-import java.util.ArrayDeque;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Set;
+import java.util.function.Predicate;
 
 import org.sag.common.tuple.Pair;
 import org.sag.common.xstream.XStreamInOut.XStreamInOutInterface;
@@ -95,6 +96,11 @@ public interface Part extends XStreamInOutInterface {
 			return part;
 		}
 		
+		//Only for use by the PartInterner which replaces the part with an equal part
+		void setPart(Part part) {
+			this.part = part;
+		}
+		
 		public String toString() {
 			return Objects.toString(part);
 		}
@@ -195,139 +201,314 @@ public interface Part extends XStreamInOutInterface {
 		
 	}
 	
-	public static class PartIterator implements Iterator<Pair<Part,Node>> {
+	/** Visits the nodes of a Part. The parent is null and the index is -1 for the root, otherwise the index is the
+	 * position of the node in the children of the parent.
+	 */
+	public interface Visitor {
+		void visit(Part parent, Node node, int index);
+	}
+	
+	/** Visits the nodes in depth first pre-order (i.e. a parent before its children) without entering LoopParts. */
+	default void visitPreOrder(Visitor visitor) {
+		Cursor c = Cursor.preOrder(true, false, false).reset(this);
+		while(c.next())
+			visitor.visit(c.getParent(), c.getNode(), c.getIndex());
+	}
+	
+	/** Visits the nodes in post-order (i.e. the children before their parent) without entering LoopParts. */
+	default void visitPostOrder(Visitor visitor) {
+		Cursor c = Cursor.postOrder().reset(this);
+		while(c.next())
+			visitor.visit(c.getParent(), c.getNode(), c.getIndex());
+	}
+	
+	/** A cursor over the nodes of a Part that keeps its pending nodes in an explicit stack (or queue for a breadth first
+	 * traversal) of parallel arrays instead of allocating a Pair per edge. A cursor can be reused for other Parts with
+	 * {@link #reset(Part)} which keeps the arrays. The children of a node are read when the node is reached, so changes
+	 * made to the children of a node after that are not seen by the traversal.
+	 * <br><br>
+	 * The nodes already visited (pre-order with visitOnce) or on the path from the root to the current node (post-order)
+	 * are tracked by identity so no Part is ever hashed.
+	 */
+	public static final class Cursor {
+		
+		private static final byte NEW = 0;
+		private static final byte EXPANDED = 1;
+		private static final byte DONE = 2;
+		
+		private static final Predicate<Part> all = new Predicate<Part>() {
+			@Override
+			public boolean test(Part t) {
+				return true;
+			}
+		};
 		
-		private final ArrayDeque<Pair<Part,Node>> queue;
-		private volatile Set<Pair<Part,Node>> visited;
+		private final boolean postOrder;
+		private final boolean dfs;
 		private final boolean includeLoops;
 		private final boolean visitOnce;
-		private final boolean dfs;
-		private volatile Pair<Part,Node> next;
+		private final Predicate<Part> descend;
+		private final Set<Node> marked;
+		private Part[] parents;
+		private Node[] nodes;
+		private int[] indexes;
+		private byte[] states;
+		private int head;
+		private int size;
+		private Part parent;
+		private Node node;
+		private int index;
 		
-		public PartIterator(Part start, boolean dfs) {
-			this(start,false,false,dfs);
+		private Cursor(boolean postOrder, boolean dfs, boolean includeLoops, boolean visitOnce, Predicate<Part> descend) {
+			this.postOrder = postOrder;
+			this.dfs = dfs;
+			this.includeLoops = includeLoops;
+			this.visitOnce = visitOnce;
+			this.descend = Objects.requireNonNull(descend);
+			this.marked = Collections.newSetFromMap(new IdentityHashMap<Node,Boolean>());
+			this.parents = new Part[16];
+			this.nodes = new Node[16];
+			this.indexes = new int[16];
+			this.states = new byte[16];
+			this.head = 0;
+			this.size = 0;
+			this.index = -1;
 		}
 		
-		public PartIterator(Part start, boolean includeLoops, boolean dfs) {
-			this(start,true,false,dfs);
+		/** A pre-order cursor that is depth first if dfs is true and breadth first otherwise. LoopParts are only entered if
+		 * includeLoops is true in which case visitOnce should be true so each node is only visited once.
+		 */
+		public static Cursor preOrder(boolean dfs, boolean includeLoops, boolean visitOnce) {
+			return new Cursor(false, dfs, includeLoops, includeLoops ? visitOnce : false, all);
 		}
 		
-		public PartIterator(Part start, boolean includeLoops, boolean visitOnce, boolean dfs) {
-			Objects.requireNonNull(start);
-			this.queue = new ArrayDeque<>();
-			add(new Pair<>(null,new Node(start)));
-			this.includeLoops = includeLoops;
-			this.visitOnce = includeLoops ? visitOnce : false;
-			this.dfs = dfs;
-			if(visitOnce) {
-				visited = new HashSet<>();
+		/** A post-order cursor that does not enter LoopParts. */
+		public static Cursor postOrder() {
+			return postOrder(all);
+		}
+		
+		/** A post-order cursor that does not enter LoopParts or the Parts not accepted by descend. */
+		public static Cursor postOrder(Predicate<Part> descend) {
+			return new Cursor(true, true, false, false, descend);
+		}
+		
+		public Cursor reset(Part root) {
+			return reset(new Node(Objects.requireNonNull(root)));
+		}
+		
+		/** Restarts the cursor at the given root node. */
+		public Cursor reset(Node root) {
+			Objects.requireNonNull(root);
+			while(size > 0)
+				poll();
+			head = 0;
+			marked.clear();
+			parent = null;
+			node = null;
+			index = -1;
+			addLast(null, root, -1);
+			return this;
+		}
+		
+		/** Moves to the next node returning false if there are no more nodes. */
+		public boolean next() {
+			return postOrder ? nextPostOrder() : nextPreOrder();
+		}
+		
+		private boolean nextPreOrder() {
+			while(size > 0) {
+				Part p = parents[head];
+				Node n = nodes[head];
+				int i = indexes[head];
+				poll();
+				if(visitOnce && !marked.add(n))
+					continue;
+				parent = p;
+				node = n;
+				index = i;
+				Part part = n.getPart();
+				if(part instanceof BranchPart && (includeLoops || !(part instanceof LoopPart)) && descend.test(part)) {
+					BranchPart b = (BranchPart)part;
+					int count = b.getChildCount();
+					for(int j = 0; j < count; j++) {
+						//Same order as an ArrayDeque used as a stack or queue
+						if(dfs)
+							addFirst(part, b.getChildNode(j), j);
+						else
+							addLast(part, b.getChildNode(j), j);
+					}
+				}
+				return true;
+			}
+			node = null;
+			return false;
+		}
+		
+		private boolean nextPostOrder() {
+			while(size > 0) {
+				Node n = nodes[head];
+				if(states[head] == NEW) {
+					Part part = n.getPart();
+					if(part instanceof BranchPart && !(part instanceof LoopPart) && descend.test(part) && marked.add(n)) {
+						states[head] = EXPANDED;
+						BranchPart b = (BranchPart)part;
+						int count = b.getChildCount();
+						for(int j = 0; j < count; j++)
+							addFirst(part, b.getChildNode(j), j);
+						continue;
+					}
+					//A leaf, a part not to enter, or a cycle outside of a LoopPart
+					states[head] = DONE;
+				}
+				if(states[head] == EXPANDED)
+					marked.remove(n);
+				parent = parents[head];
+				node = n;
+				index = indexes[head];
+				poll();
+				return true;
 			}
-			findNext();
+			node = null;
+			return false;
 		}
 		
-		private void add(Pair<Part,Node> toAdd) {
-			if(dfs)
-				this.queue.push(toAdd);
-			else
-				this.queue.add(toAdd);
+		public Part getParent() {
+			return parent;
 		}
 		
-		private Pair<Part,Node> removeNext() {
-			return this.queue.poll();
+		public Node getNode() {
+			return node;
+		}
+		
+		public Part getPart() {
+			return node == null ? null : node.getPart();
 		}
 		
-		private void findNext() {
-			Pair<Part,Node> p = removeNext();
-			if(visitOnce) {
-				while(p != null && !visited.add(p))
-					p = removeNext();
+		public int getIndex() {
+			return index;
+		}
+		
+		private void addFirst(Part p, Node n, int i) {
+			if(size == nodes.length)
+				grow();
+			head = (head - 1 + nodes.length) % nodes.length;
+			set(head, p, n, i);
+			size++;
+		}
+		
+		private void addLast(Part p, Node n, int i) {
+			if(size == nodes.length)
+				grow();
+			set((head + size) % nodes.length, p, n, i);
+			size++;
+		}
+		
+		private void set(int pos, Part p, Node n, int i) {
+			parents[pos] = p;
+			nodes[pos] = n;
+			indexes[pos] = i;
+			states[pos] = NEW;
+		}
+		
+		private void poll() {
+			parents[head] = null;
+			nodes[head] = null;
+			head = (head + 1) % nodes.length;
+			size--;
+		}
+		
+		private void grow() {
+			int cap = nodes.length * 2;
+			Part[] newParents = new Part[cap];
+			Node[] newNodes = new Node[cap];
+			int[] newIndexes = new int[cap];
+			byte[] newStates = new byte[cap];
+			for(int k = 0; k < size; k++) {
+				int pos = (head + k) % nodes.length;
+				newParents[k] = parents[pos];
+				newNodes[k] = nodes[pos];
+				newIndexes[k] = indexes[pos];
+				newStates[k] = states[pos];
 			}
-			next = p;
+			parents = newParents;
+			nodes = newNodes;
+			indexes = newIndexes;
+			states = newStates;
+			head = 0;
+		}
+		
+	}
+	
+	/** An adapter of a pre-order {@link Cursor} for those that need the parent and node as a Pair. */
+	public static class PartIterator implements Iterator<Pair<Part,Node>> {
+		
+		private final Cursor cursor;
+		private boolean advanced;
+		private boolean hasNext;
+		
+		public PartIterator(Part start, boolean dfs) {
+			this(start,false,false,dfs);
+		}
+		
+		public PartIterator(Part start, boolean includeLoops, boolean dfs) {
+			this(start,true,false,dfs);
+		}
+		
+		public PartIterator(Part start, boolean includeLoops, boolean visitOnce, boolean dfs) {
+			Objects.requireNonNull(start);
+			this.cursor = Cursor.preOrder(dfs, includeLoops, visitOnce).reset(start);
+			this.advanced = false;
+			this.hasNext = false;
 		}
 
 		@Override
 		public boolean hasNext() {
-			return next != null;
+			if(!advanced) {
+				hasNext = cursor.next();
+				advanced = true;
+			}
+			return hasNext;
 		}
 
 		@Override
 		public Pair<Part,Node> next() {
-			if(next == null)
+			if(!hasNext())
 				throw new NoSuchElementException();
-			Pair<Part,Node> ret = next;
-			Node childNode = ret.getSecond();
-			Part child = childNode.getPart();
-			if(child instanceof BranchPart && (!(child instanceof LoopPart) || includeLoops)) {
-				for(Node n : ((BranchPart)child).getChildNodes()) {
-					add(new Pair<>(child,n));
-				}
-			}
-			findNext();
-			return ret;
+			advanced = false;
+			return new Pair<>(cursor.getParent(),cursor.getNode());
 		}
 		
 	}
 	
+	/** An adapter of a post-order {@link Cursor} for those that need the parent and node as a Pair. */
 	public static class PostOrderPartIterator implements Iterator<Pair<Part,Node>> {
 		
-		private final ArrayDeque<Pair<Node,Node>> queue;
-		private final Set<Pair<Node,Node>> visited;
-		private final Set<Pair<Node,Node>> seenBranch;
-		private volatile Pair<Node,Node> next;
+		private final Cursor cursor;
+		private boolean advanced;
+		private boolean hasNext;
 		
 		public PostOrderPartIterator(Part start) {
 			Objects.requireNonNull(start);
-			this.queue = new ArrayDeque<>();
-			this.visited = new HashSet<>();
-			this.seenBranch = new HashSet<>();
-			add(new Pair<>(null,new Node(start)));
-			findNext();
-		}
-		
-		private void add(Pair<Node,Node> toAdd) {
-			this.queue.push(toAdd);
-		}
-		
-		private Pair<Node,Node> removeNext() {
-			return this.queue.poll();
-		}
-		
-		//Assumes no cycles, if cycles (outside of those listed by LoopPart) then branch parts may be visited before their children are
-		//But the iterator will not get stuck in a loop itself
-		private void findNext() {
-			Pair<Node,Node> cur;
-			while((cur = removeNext()) != null) {
-				Node childNode = cur.getSecond();
-				Part child = childNode.getPart();
-				if(child instanceof BranchPart && !(child instanceof LoopPart)) {
-					if(seenBranch.add(cur)) {
-						add(cur);
-						for(Node n : ((BranchPart)child).getChildNodes())
-							add(new Pair<>(childNode,n));
-					} else {
-						if(visited.add(cur))
-							break;
-					}
-				} else { //LeafPart or LoopPart
-					if(visited.add(cur))
-						break;
-				}
-			}
-			next = cur;
+			this.cursor = Cursor.postOrder().reset(start);
+			this.advanced = false;
+			this.hasNext = false;
 		}
 		
 		@Override
 		public boolean hasNext() {
-			return next != null;
+			if(!advanced) {
+				hasNext = cursor.next();
+				advanced = true;
+			}
+			return hasNext;
 		}
 		
 		@Override
 		public Pair<Part,Node> next() {
-			if(next == null)
+			if(!hasNext())
 				throw new NoSuchElementException();
-			Pair<Part,Node> ret = new Pair<>(next.getFirst() ==  null ? null : next.getFirst().getPart(),next.getSecond());
-			findNext();
-			return ret;
+			advanced = false;
+			return new Pair<>(cursor.getParent(),cursor.getNode());
 		}
 		
 	}
@@ -0,0 +1,58 @@
+package org.sag.fred.database.filepaths.parts;
+
+/** The cached structural hash and string renderings of a branch part. Only the branch parts made canonical by a
+ * {@link PartInterner} have a cache. Canonical parts are shared and so must never be modified (i.e. they are cloned
+ * first), which means their values never change and each is computed at most once. All other branch parts are the
+ * working trees that get modified while file paths are resolved and simplified, so they compute their values on
+ * every call and never have anything to invalidate.
+ */
+final class PartCache {
+
+	static final int regex = 0;
+	static final int simple = 1;
+	static final int superSimple = 2;
+	static final int string = 3;
+
+	private int hash;
+	//Written after the hash so a thread that sees it set also sees the hash
+	private volatile boolean hashed;
+	//Strings are immutable so they can be read through the array from multiple threads without synchronization
+	private final String[] strings;
+
+	PartCache() {
+		this.hash = 0;
+		this.hashed = false;
+		this.strings = new String[4];
+	}
+
+	boolean hasHash() {
+		return hashed;
+	}
+
+	int getHash() {
+		return hash;
+	}
+
+	int setHash(int hash) {
+		this.hash = hash;
+		this.hashed = true;
+		return hash;
+	}
+
+	/** Returns the string of the given kind or null if it is not cached yet. */
+	String getString(int kind) {
+		return strings[kind];
+	}
+
+	String setString(int kind, String value) {
+		strings[kind] = value;
+		return value;
+	}
+
+	/** Throws an exception if the part owning the given cache is canonical (i.e. the cache is not null). */
+	static void checkNotFrozen(PartCache cache) {
+		if(cache != null)
+			throw new IllegalStateException("Parts made canonical by a PartInterner cannot be modified. Clone them first.");
+	}
+
+}
@@ -0,0 +1,120 @@
+package org.sag.fred.database.filepaths.parts;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.sag.fred.database.filepaths.parts.Part.Node;
+
+
+/** Hash-conses Parts so that structurally equal subtrees are represented by a single instance. Both leaf and branch
+ * parts are interned per instance of this class (e.g. per database). Branch parts because the canonical branch parts
+ * are only valid as long as no one modifies them, and leaf parts because some of them lazily resolve and hold on to
+ * Soot objects (e.g. the statements and methods of the placeholders) which must not outlive a reset of the Soot data
+ * by being handed out to the parts read in afterwards. As such, a Part
+ * returned by {@link #intern(Part)} must be cloned with {@link Part#clonePart()} before it is modified, which is the
+ * existing convention for the parts stored in the databases.
+ * <br><br>
+ * A LoopPart is equal to another only by its id so any branch part containing a LoopPart in its subtree is left as is
+ * (i.e. only the subtrees without loops are shared).
+ * <br><br>
+ * The canonical branch parts are frozen, which caches their structural hash and string renderings and makes any attempt
+ * to modify them throw an {@link IllegalStateException}.
+ */
+public final class PartInterner {
+
+	private final Map<LeafPart,LeafPart> leaves;
+	private final Map<Part,Part> branches;
+	private final Part.Cursor cursor;
+
+	public PartInterner() {
+		this.leaves = new HashMap<>();
+		this.branches = new HashMap<>();
+		this.cursor = Part.Cursor.postOrder();
+	}
+
+	/** Returns the canonical instance of the leaf part. */
+	@SuppressWarnings("unchecked")
+	public synchronized <A extends LeafPart> A internLeaf(A leaf) {
+		Objects.requireNonNull(leaf);
+		LeafPart ret = leaves.get(leaf);
+		if(ret == null) {
+			leaves.put(leaf, leaf);
+			ret = leaf;
+		}
+		return (A)ret;
+	}
+
+	/** Returns the canonical Part for the given Part. The children of the branch parts in the given Part are replaced in
+	 * place with their canonical instances so the given Part should not be used afterwards unless it is the Part returned.
+	 */
+	public synchronized Part intern(Part root) {
+		Objects.requireNonNull(root);
+		Set<Part> withLoops = Collections.newSetFromMap(new IdentityHashMap<Part,Boolean>());
+		Part ret = root;
+		for(Part.Cursor c = cursor.reset(root); c.next();) {
+			Part parent = c.getParent();
+			Node node = c.getNode();
+			Part cur = node.getPart();
+			Part canonical;
+			if(cur instanceof LeafPart) {
+				canonical = internLeaf((LeafPart)cur);
+			} else if(cur instanceof LoopPart || withLoops.contains(cur)) {
+				canonical = cur;
+				if(parent != null)
+					withLoops.add(parent);
+			} else {
+				if(cur instanceof OrPart)
+					((OrPart)cur).clearContents();
+				else if(cur instanceof AppendPart)
+					((AppendPart)cur).refreshContents();
+				canonical = branches.get(cur);
+				if(canonical == null) {
+					branches.put(cur, cur);
+					freeze(cur);
+					canonical = cur;
+				}
+			}
+			if(parent == null)
+				ret = canonical;
+			else if(canonical != cur)
+				node.setPart(canonical);
+		}
+		return ret;
+	}
+
+	/* Caches the values of a new canonical branch part. Its children are already canonical so their values are cached
+	 * too and none of them can change from here on.
+	 */
+	private static void freeze(Part p) {
+		if(p instanceof OrPart)
+			((OrPart)p).freeze();
+		else if(p instanceof AppendPart)
+			((AppendPart)p).freeze();
+		else if(p instanceof EnvVarPart)
+			((EnvVarPart)p).freeze();
+		else if(p instanceof SysVarPart)
+			((SysVarPart)p).freeze();
+		else if(p instanceof ParentPart)
+			((ParentPart)p).freeze();
+		else if(p instanceof NamePart)
+			((NamePart)p).freeze();
+		else if(p instanceof NormalizePart)
+			((NormalizePart)p).freeze();
+	}
+
+	/** The number of distinct branch parts interned by this instance. */
+	public synchronized int size() {
+		return branches.size();
+	}
+
+	/** Drops all canonical leaf and branch parts. The Parts already interned remain valid. */
+	public synchronized void clear() {
+		leaves.clear();
+		branches.clear();
+	}
+
+}
@@ -0,0 +1,100 @@
+package org.sag.fred.database.filepaths.parts;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Predicate;
+
+import org.sag.fred.database.filepaths.parts.Part.Node;
+
+import com.google.common.collect.ImmutableList;
+
+/** Applies a list of rewrite rules to a Part tree in a single bottom-up traversal instead of one traversal per rule.
+ * Each node is visited after all of its children and the rules are applied to it in order, each rule seeing the
+ * result of the rules before it. As such, a list of rules gives the same result as running one post-order pass per
+ * rule as long as no rule depends on a rule after it having been applied to the descendants of the node. Rules that
+ * only hold under such a condition must check for it themselves (e.g. by looking at the parent).
+ * <br><br>
+ * The traversal is a post-order {@link Part.Cursor} so, like the {@link Part.PostOrderPartIterator}, it does not
+ * enter LoopParts. The children of a Part are only visited if the given guard accepts the Part. If the rewriter is to run to a fixpoint, the traversal is repeated
+ * until no rule changes the tree. Instances are immutable and may be shared between threads as long as the rules are.
+ */
+public final class PartRewriter {
+
+	/** A rule of a {@link PartRewriter}. */
+	public interface Rule {
+		/** Rewrites the Part of the given node whose parent is the given Part (null if the node is the root). A rule
+		 * modifies the parent through the methods of {@link BranchPart} and returns the node now at the position of the
+		 * given node (see {@link PartRewriter#replace(Part, Node, Part)}), the given node if nothing was changed, or null
+		 * if the node was removed from or merged into the parent. The remaining rules are skipped for a removed node.
+		 */
+		Node apply(Part parent, Node node);
+	}
+
+	private static final Predicate<Part> all = new Predicate<Part>() {
+		@Override
+		public boolean test(Part t) {
+			return true;
+		}
+	};
+
+	private final List<Rule> rules;
+	private final Predicate<Part> descend;
+	private final boolean toFixpoint;
+
+	public PartRewriter(List<Rule> rules, boolean toFixpoint) {
+		this(rules, all, toFixpoint);
+	}
+
+	public PartRewriter(List<Rule> rules, Predicate<Part> descend, boolean toFixpoint) {
+		Objects.requireNonNull(rules);
+		Objects.requireNonNull(descend);
+		this.rules = ImmutableList.copyOf(rules);
+		this.descend = descend;
+		this.toFixpoint = toFixpoint;
+	}
+
+	/** Replaces the given node with a new node for the given Part and returns the new node. If the parent is null, the
+	 * new node is simply returned as the new root. If the parent did not accept the new node (e.g. an OrPart that
+	 * already contains the Part drops the node instead) then null is returned.
+	 */
+	public static Node replace(Part parent, Node node, Part part) {
+		Node ret = new Node(part);
+		if(parent == null)
+			return ret;
+		return ((BranchPart)parent).swapChild(node, ret) ? ret : null;
+	}
+
+	/** Applies the rules to the given Part and returns the resulting Part, which may or may not be the given Part. The
+	 * given Part is modified in place. Returns null if a rule removed the root.
+	 */
+	public Part rewrite(Part root) {
+		Objects.requireNonNull(root);
+		Node cur = new Node(root);
+		Part.Cursor cursor = Part.Cursor.postOrder(descend);
+		boolean changed;
+		do {
+			changed = false;
+			//Same visiting order as the PostOrderPartIterator (i.e. the last child is visited first)
+			cursor.reset(cur);
+			while(cursor.next()) {
+				Part parent = cursor.getParent();
+				Node node = cursor.getNode();
+				for(Rule r : rules) {
+					Node next = r.apply(parent, node);
+					if(next != node)
+						changed = true;
+					node = next;
+					if(node == null)
+						break;
+				}
+				if(parent == null) {
+					if(node == null)
+						return null;
+					cur = node;
+				}
+			}
+		} while(toFixpoint && changed);
+		return cur.getPart();
+	}
+
+}
@@ -0,0 +1,134 @@
+package org.sag.fred.database.ssfiles;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/** An immutable tree of the path components of a set of {@link FileEntry}. Each edge is labeled
+ * with the text appended to the parent path to form the child path (i.e. '/data' then '/system'),
+ * so concatenating the labels from the root to any node gives exactly the
+ * {@link FileEntry#getFullPath()} of the entries stored at that node. This allows consumers to
+ * share the work of evaluating common path prefixes and to skip whole subtrees at once.
+ */
+public final class FilePathTrie {
+	
+	private final Node root;
+	private final int size;
+	
+	public FilePathTrie(Map<FileEntry,Set<Owner>> filesToOwners) {
+		this.root = new Node("", "");
+		for(FileEntry fe : filesToOwners.keySet()) {
+			Node cur = root;
+			for(String segment : getSegments(fe.getFullPath())) {
+				cur = cur.getOrAddChild(segment);
+			}
+			cur.entries.put(fe, Collections.unmodifiableSet(filesToOwners.get(fe)));
+		}
+		this.size = filesToOwners.size();
+	}
+	
+	public Node getRoot() {
+		return root;
+	}
+	
+	/** The total number of file entries stored in the trie. */
+	public int size() {
+		return size;
+	}
+	
+	/** Returns the node whose path is exactly the path given or null if no such node exists. */
+	public Node getNode(String path) {
+		Node cur = root;
+		for(String segment : getSegments(path)) {
+			cur = cur.children.get(segment);
+			if(cur == null)
+				return null;
+		}
+		return cur;
+	}
+	
+	/** Splits a path so that each segment but the first begins with a '/'. The segments
+	 * when concatenated will always produce the original path.
+	 */
+	public static List<String> getSegments(String path) {
+		List<String> ret = new ArrayList<>();
+		int start = 0;
+		for(int i = 1; i < path.length(); i++) {
+			if(path.charAt(i) == '/') {
+				ret.add(path.substring(start, i));
+				start = i;
+			}
+		}
+		if(start < path.length())
+			ret.add(path.substring(start));
+		return ret;
+	}
+	
+	public static final class Node {
+		
+		private final String segment;
+		private final String path;
+		private final Map<String,Node> children;
+		private final Map<FileEntry,Set<Owner>> entries;
+		
+		private Node(String segment, String path) {
+			this.segment = segment;
+			this.path = path;
+			this.children = new LinkedHashMap<>();
+			this.entries = new LinkedHashMap<>();
+		}
+		
+		private Node getOrAddChild(String segment) {
+			Node ret = children.get(segment);
+			if(ret == null) {
+				ret = new Node(segment, path + segment);
+				children.put(segment, ret);
+			}
+			return ret;
+		}
+		
+		/** The text appended to the parent's path to produce the path of this node. */
+		public String getSegment() {
+			return segment;
+		}
+		
+		public String getPath() {
+			return path;
+		}
+		
+		public Collection<Node> getChildren() {
+			return Collections.unmodifiableCollection(children.values());
+		}
+		
+		/** The file entries (and their owners) whose full path is the path of this node. */
+		public Map<FileEntry,Set<Owner>> getEntries() {
+			return Collections.unmodifiableMap(entries);
+		}
+		
+		/** Returns all file entries at or below this node in depth first order. */
+		public Map<FileEntry,Set<Owner>> getAllEntries() {
+			Map<FileEntry,Set<Owner>> ret = new LinkedHashMap<>();
+			List<Node> stack = new ArrayList<>();
+			stack.add(this);
+			while(!stack.isEmpty()) {
+				Node cur = stack.remove(stack.size() - 1);
+				ret.putAll(cur.entries);
+				List<Node> temp = new ArrayList<>(cur.children.values());
+				for(int i = temp.size() - 1; i >= 0; i--)
+					stack.add(temp.get(i));
+			}
+			return ret;
+		}
+		
+		@Override
+		public String toString() {
+			return path;
+		}
+		
+	}
+
+}
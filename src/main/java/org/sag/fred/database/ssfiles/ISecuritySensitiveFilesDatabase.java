@@ -23,6 +23,8 @@ public interface ISecuritySensitiveFilesDatabase {
 	Map<FileEntry, Set<Owner>> getFilesToGroups();
 	
 	Map<FileEntry, Set<Owner>> getFilesToGroupsOrSystem();
+	
+	FilePathTrie getPathTrieGroupsOrSystem();
 
 	Map<FileEntry, Set<Owner>> getFilesToUsers();
 
@@ -43,12 +43,15 @@ public class SecuritySensitiveFilesDatabase extends FileHashDatabase implements
 	private final ReadWriteLock rwlock;
 	@XStreamOmitField
 	private volatile boolean sorted;
+	@XStreamOmitField
+	private volatile FilePathTrie groupsOrSystemTrie;
 	
 	protected SecuritySensitiveFilesDatabase() {
 		sorted = false;
 		data = new LinkedHashSet<>();
 		fileEntriesToOwners = new LinkedHashMap<>();
 		rwlock = new ReentrantReadWriteLock();
+		groupsOrSystemTrie = null;
 	}
 	
 	protected Object readResolve() throws ObjectStreamException {
@@ -193,6 +196,7 @@ public class SecuritySensitiveFilesDatabase extends FileHashDatabase implements
 				}
 			}
 			sorted = false;
+			groupsOrSystemTrie = null;
 		}
 	}
 	
@@ -247,23 +251,50 @@ public class SecuritySensitiveFilesDatabase extends FileHashDatabase implements
 	}
 	
 	public Map<FileEntry,Set<Owner>> getFilesToGroupsOrSystem() {
-		Map<FileEntry,Set<Owner>> ret = new LinkedHashMap<>();
 		rwlock.readLock().lock();
 		try {
 			sortDataRLocked();
-			for(FileEntry fe : fileEntriesToOwners.keySet()) {
-				Set<Owner> groups = new LinkedHashSet<>();
-				for(Owner o : fileEntriesToOwners.get(fe)) {
-					if(o.isGroup() || o.getName().equals("system")) {
-						groups.add(o);
-					}
-				}
-				if(!groups.isEmpty())
-					ret.put(fe, groups);
-			}
+			return getFilesToGroupsOrSystemLocked();
 		} finally {
 			rwlock.readLock().unlock();
 		}
+	}
+	
+	private Map<FileEntry,Set<Owner>> getFilesToGroupsOrSystemLocked() {
+		Map<FileEntry,Set<Owner>> ret = new LinkedHashMap<>();
+		for(FileEntry fe : fileEntriesToOwners.keySet()) {
+			Set<Owner> groups = new LinkedHashSet<>();
+			for(Owner o : fileEntriesToOwners.get(fe)) {
+				if(o.isGroup() || o.getName().equals("system")) {
+					groups.add(o);
+				}
+			}
+			if(!groups.isEmpty())
+				ret.put(fe, groups);
+		}
+		return ret;
+	}
+	
+	/** Returns a path trie over the same file entries and owners as {@link #getFilesToGroupsOrSystem()}.
+	 * The trie is built once and cached until the database is modified.
+	 */
+	@Override
+	public FilePathTrie getPathTrieGroupsOrSystem() {
+		FilePathTrie ret = groupsOrSystemTrie;
+		if(ret == null) {
+			rwlock.writeLock().lock();
+			try {
+				ret = groupsOrSystemTrie;
+				if(ret == null) {
+					if(!sorted)
+						sortDataWLocked();
+					ret = new FilePathTrie(getFilesToGroupsOrSystemLocked());
+					groupsOrSystemTrie = ret;
+				}
+			} finally {
+				rwlock.writeLock().unlock();
+			}
+		}
 		return ret;
 	}
 	
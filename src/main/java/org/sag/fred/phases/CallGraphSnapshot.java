@@ -0,0 +1,264 @@
+package org.sag.fred.phases;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.sag.soot.callgraph.JimpleICFG.BasicEdgePredicate;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+import soot.SootMethod;
+import soot.jimple.toolkits.callgraph.CallGraph;
+import soot.jimple.toolkits.callgraph.Edge;
+
+/** A read only snapshot of a {@link CallGraph} in compressed sparse row form. Every method that is the source or target
+ * of an edge is given a dense id and every edge a dense index. The outgoing edges of a method are the contiguous edge
+ * indexes [{@link #getOutStart(int)}, {@link #getOutEnd(int)}) in the same order as {@link CallGraph#edgesOutOf} and
+ * the incoming edges of a method are given by the positions [{@link #getInStart(int)}, {@link #getInEnd(int)}) which
+ * map to edge indexes through {@link #getInEdge(int)}. This allows traversals to walk the call graph using primitive
+ * arrays for their visited marks and work lists without allocating iterators. The commonly used edge filters are
+ * precomputed as BitSets over the edge indexes so the traversals only touch the {@link Edge} objects when they need
+ * something more specific.
+ * <br><br>
+ * Snapshots are built once per call graph by {@link #of(CallGraph)} and shared by all callers. The call graph must not
+ * be modified once a snapshot of it has been taken (i.e. the call graph modifiers always create new call graphs).
+ */
+public final class CallGraphSnapshot {
+
+	private static final LoadingCache<CallGraph,CallGraphSnapshot> snapshots = CacheBuilder.newBuilder().weakKeys()
+			.build(new CacheLoader<CallGraph,CallGraphSnapshot>() {
+				@Override
+				public CallGraphSnapshot load(CallGraph cg) throws Exception {
+					return new CallGraphSnapshot(cg);
+				}
+			});
+
+	/** Returns the shared snapshot of the call graph, building it if it does not exist. */
+	public static CallGraphSnapshot of(CallGraph cg) {
+		return snapshots.getUnchecked(cg);
+	}
+
+	private final SootMethod[] methods;
+	private final Map<SootMethod,Integer> ids;
+	private final int[] outStart;
+	private final int[] targets;
+	private final int[] sources;
+	private final Edge[] edges;
+	private final BitSet explicit;
+	//The edges wanted by a BasicEdgePredicate omitting reflective calls, computed on first use
+	private volatile BitSet nonReflective;
+	private final int[] inStart;
+	private final int[] inEdges;
+
+	private CallGraphSnapshot(CallGraph cg) {
+		List<SootMethod> methods = new ArrayList<>();
+		this.ids = new HashMap<>();
+		int edgeCount = 0;
+		for(Iterator<Edge> it = cg.iterator(); it.hasNext();) {
+			Edge e = it.next();
+			addMethod(e.src(), methods);
+			addMethod(e.tgt(), methods);
+			edgeCount++;
+		}
+		this.methods = methods.toArray(new SootMethod[methods.size()]);
+
+		int n = this.methods.length;
+		this.outStart = new int[n + 1];
+		this.targets = new int[edgeCount];
+		this.sources = new int[edgeCount];
+		this.edges = new Edge[edgeCount];
+		this.explicit = new BitSet(edgeCount);
+		this.nonReflective = null;
+		int[] inCount = new int[n + 1];
+		int i = 0;
+		for(int m = 0; m < n; m++) {
+			outStart[m] = i;
+			for(Iterator<Edge> it = cg.edgesOutOf(this.methods[m]); it.hasNext();) {
+				Edge e = it.next();
+				int tgt = ids.get(e.tgt());
+				edges[i] = e;
+				sources[i] = m;
+				targets[i] = tgt;
+				if(e.kind().isExplicit())
+					explicit.set(i);
+				inCount[tgt]++;
+				i++;
+			}
+		}
+		outStart[n] = i;
+
+		this.inStart = new int[n + 1];
+		for(int m = 0; m < n; m++)
+			inStart[m + 1] = inStart[m] + inCount[m];
+		int[] fill = new int[n];
+		System.arraycopy(inStart, 0, fill, 0, n);
+		this.inEdges = new int[i];
+		for(int e = 0; e < i; e++)
+			inEdges[fill[targets[e]]++] = e;
+	}
+
+	private void addMethod(SootMethod sm, List<SootMethod> methods) {
+		if(!ids.containsKey(sm)) {
+			ids.put(sm, methods.size());
+			methods.add(sm);
+		}
+	}
+
+	/** The number of methods in the snapshot. Method ids range from 0 to this value exclusive. */
+	public int getMethodCount() {
+		return methods.length;
+	}
+
+	/** The number of edges in the snapshot. Edge indexes range from 0 to this value exclusive. */
+	public int getEdgeCount() {
+		return edges.length;
+	}
+
+	/** Returns the id of the method or -1 if the method has no edges in the call graph. */
+	public int getId(SootMethod sm) {
+		Integer ret = ids.get(sm);
+		return ret == null ? -1 : ret;
+	}
+
+	public SootMethod getMethod(int id) {
+		return methods[id];
+	}
+
+	public int getOutStart(int id) {
+		return outStart[id];
+	}
+
+	public int getOutEnd(int id) {
+		return outStart[id + 1];
+	}
+
+	public int getInStart(int id) {
+		return inStart[id];
+	}
+
+	public int getInEnd(int id) {
+		return inStart[id + 1];
+	}
+
+	/** Returns the index of the edge at the given position of the incoming edges. */
+	public int getInEdge(int pos) {
+		return inEdges[pos];
+	}
+
+	public int getSource(int edge) {
+		return sources[edge];
+	}
+
+	public int getTarget(int edge) {
+		return targets[edge];
+	}
+
+	public Edge getEdge(int edge) {
+		return edges[edge];
+	}
+
+	public boolean isExplicit(int edge) {
+		return explicit.get(edge);
+	}
+
+	/** Returns true if the edge is wanted by a {@link BasicEdgePredicate} that omits reflective calls. */
+	public boolean isNonReflective(int edge) {
+		BitSet ret = nonReflective;
+		if(ret == null) {
+			synchronized(this) {
+				ret = nonReflective;
+				if(ret == null) {
+					BasicEdgePredicate edgePred = new BasicEdgePredicate(false);
+					ret = new BitSet(edges.length);
+					for(int i = 0; i < edges.length; i++) {
+						if(edgePred.want(edges[i]))
+							ret.set(i);
+					}
+					nonReflective = ret;
+				}
+			}
+		}
+		return ret.get(edge);
+	}
+
+	/** Returns a read only view of the methods whose ids are set in the given BitSet. The view iterates in id order and
+	 * reflects later changes to the BitSet.
+	 */
+	public Set<SootMethod> getMethods(final BitSet ids) {
+		return new AbstractSet<SootMethod>() {
+			@Override
+			public Iterator<SootMethod> iterator() {
+				return new BitSetIterator<SootMethod>(ids) {
+					@Override
+					protected SootMethod get(int i) {
+						return methods[i];
+					}
+				};
+			}
+			@Override
+			public int size() {
+				return ids.cardinality();
+			}
+			@Override
+			public boolean contains(Object o) {
+				if(!(o instanceof SootMethod))
+					return false;
+				int id = getId((SootMethod)o);
+				return id >= 0 && ids.get(id);
+			}
+		};
+	}
+
+	/** Returns a read only view of the edges whose indexes are set in the given BitSet. The view iterates in index order
+	 * and reflects later changes to the BitSet.
+	 */
+	public Set<Edge> getEdges(final BitSet indexes) {
+		return new AbstractSet<Edge>() {
+			@Override
+			public Iterator<Edge> iterator() {
+				return new BitSetIterator<Edge>(indexes) {
+					@Override
+					protected Edge get(int i) {
+						return edges[i];
+					}
+				};
+			}
+			@Override
+			public int size() {
+				return indexes.cardinality();
+			}
+		};
+	}
+
+	private static abstract class BitSetIterator<T> implements Iterator<T> {
+		private final BitSet bits;
+		private int next;
+		BitSetIterator(BitSet bits) {
+			this.bits = bits;
+			this.next = bits.nextSetBit(0);
+		}
+		protected abstract T get(int i);
+		@Override
+		public boolean hasNext() {
+			return next >= 0;
+		}
+		@Override
+		public T next() {
+			if(next < 0)
+				throw new NoSuchElementException();
+			int cur = next;
+			next = bits.nextSetBit(cur + 1);
+			return get(cur);
+		}
+	}
+
+}
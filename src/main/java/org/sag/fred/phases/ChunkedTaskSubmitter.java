@@ -0,0 +1,118 @@
+package org.sag.fred.phases;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.sag.common.concurrent.CountingThreadExecutor;
+import org.sag.common.concurrent.IgnorableRuntimeException;
+
+/** Splits a collection of work items into contiguous chunks and submits one task per chunk to a
+ * {@link CountingThreadExecutor} instead of one task per item. This keeps the number of task objects
+ * and the contention on the executor's queue proportional to the number of threads rather than to
+ * the number of items.
+ * <br><br>
+ * A failure of one item (i.e. an Exception) does not stop the remaining items of its chunk from being processed.
+ * An Error (e.g. OutOfMemoryError) is not caught and propagates immediately, abandoning the rest of the chunk. Once a
+ * chunk is finished, the first non-ignorable exception of the chunk is rethrown (with any others added
+ * as suppressed exceptions) so it is collected by the executor and reported by
+ * {@link CountingThreadExecutor#getAndClearExceptions()} the same way an exception thrown by a single
+ * item's task would have been. If all the failures were {@link IgnorableRuntimeException} (i.e. they
+ * have already been logged) then an IgnorableRuntimeException is rethrown instead.
+ */
+public final class ChunkedTaskSubmitter {
+	
+	/** The target number of chunks per available processor so threads finishing early can pick up more work. */
+	private static final int chunksPerThread = 4;
+	
+	private ChunkedTaskSubmitter() {}
+	
+	/** Returns a chunk size for the given number of items that produces roughly {@link #chunksPerThread}
+	 * chunks for each available processor.
+	 */
+	public static int getChunkSize(int numItems) {
+		int chunks = Runtime.getRuntime().availableProcessors() * chunksPerThread;
+		return Math.max(1, (numItems + chunks - 1) / chunks);
+	}
+	
+	/** Submits the items in chunks of a size given by {@link #getChunkSize(int)}. Returns the number of chunks submitted. */
+	public static <T> int execute(CountingThreadExecutor exe, Collection<? extends T> items, Consumer<? super T> task) {
+		return execute(exe, items, getChunkSize(items.size()), task);
+	}
+	
+	/** Submits the items in chunks of the given size, applying the task to each item of a chunk in order.
+	 * Returns the number of chunks submitted.
+	 */
+	public static <T> int execute(CountingThreadExecutor exe, Collection<? extends T> items, int chunkSize,
+			Consumer<? super T> task) {
+		List<List<T>> chunks = split(items, chunkSize);
+		for(List<T> chunk : chunks) {
+			submit(exe, chunk, task);
+		}
+		return chunks.size();
+	}
+	
+	/** Submits the items in chunks of a size given by {@link #getChunkSize(int)}, passing each chunk as a whole to
+	 * the task. This allows a task to aggregate the results of a chunk locally before publishing them. Any exception
+	 * thrown by the task is collected by the executor. Returns the number of chunks submitted.
+	 */
+	public static <T> int executeBatches(CountingThreadExecutor exe, Collection<? extends T> items, 
+			final Consumer<? super List<T>> task) {
+		List<List<T>> chunks = split(items, getChunkSize(items.size()));
+		for(final List<T> chunk : chunks) {
+			exe.execute(new Runnable() {
+				@Override
+				public void run() {
+					task.accept(chunk);
+				}
+			});
+		}
+		return chunks.size();
+	}
+	
+	private static <T> List<List<T>> split(Collection<? extends T> items, int chunkSize) {
+		if(chunkSize < 1)
+			throw new IllegalArgumentException("The chunk size must be greater than 0.");
+		List<List<T>> ret = new ArrayList<>();
+		List<T> chunk = new ArrayList<>(Math.min(chunkSize, items.size()));
+		for(T item : items) {
+			chunk.add(item);
+			if(chunk.size() == chunkSize) {
+				ret.add(chunk);
+				chunk = new ArrayList<>(chunkSize);
+			}
+		}
+		if(!chunk.isEmpty())
+			ret.add(chunk);
+		return ret;
+	}
+	
+	private static <T> void submit(CountingThreadExecutor exe, final List<T> chunk, final Consumer<? super T> task) {
+		exe.execute(new Runnable() {
+			@Override
+			public void run() {
+				RuntimeException first = null;
+				boolean ignorable = false;
+				for(T item : chunk) {
+					try {
+						task.accept(item);
+					} catch(IgnorableRuntimeException t) {
+						ignorable = true;
+					} catch(Exception e) {
+						//Errors are not caught so they propagate immediately and abandon the rest of the chunk
+						if(first == null)
+							first = e instanceof RuntimeException ? (RuntimeException)e : new RuntimeException(e);
+						else
+							first.addSuppressed(e);
+					}
+				}
+				if(first != null)
+					throw first;
+				else if(ignorable)
+					throw new IgnorableRuntimeException();
+			}
+		});
+	}
+
+}
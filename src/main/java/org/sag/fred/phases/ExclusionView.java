@@ -0,0 +1,101 @@
+package org.sag.fred.phases;
+
+import java.util.BitSet;
+
+import org.sag.acminer.database.excludedelements.IExcludeHandler;
+import org.sag.acminer.database.excludedelements.IExcludedElementsDatabase;
+
+import soot.SootMethod;
+
+/** The excluded methods of an entry point over the ids of a {@link CallGraphSnapshot} so the exclusion checks in call
+ * graph walks are single bit tests instead of queries on an {@link IExcludeHandler}. The methods excluded by the
+ * database are held in a base bitmap that is shared by all views of the same snapshot. The methods of the base bitmap
+ * whose exclusion is lifted by the overrides of the entry point are held in a per entry point delta computed when the
+ * view is built. Any other method may still be excluded by the exclude handler of the entry point, so such a method is
+ * resolved against the handler the first time it is queried and the answer is memoized in two more per entry point
+ * bitmaps (i.e. known and excluded). As such, the view always agrees with the handler while only ever querying it for
+ * the methods of the base bitmap and the methods the walks actually reach. Methods not in the snapshot fall back to the
+ * exclude handler.
+ * <br><br>
+ * Views are obtained through {@link org.sag.fred.IFredDataAccessor#getExclusionView} which caches them.
+ */
+public final class ExclusionView {
+
+	private static final BitSet noneLifted = new BitSet(0);
+
+	/** Computes the base bitmap of the methods in the snapshot excluded by the database for all entry points. */
+	public static BitSet computeExcluded(CallGraphSnapshot cg, IExcludedElementsDatabase excludeDB) {
+		BitSet ret = new BitSet(cg.getMethodCount());
+		for(int i = 0; i < cg.getMethodCount(); i++) {
+			if(excludeDB.isExcludedMethod(cg.getMethod(i)))
+				ret.set(i);
+		}
+		return ret;
+	}
+
+	private final CallGraphSnapshot cg;
+	private final BitSet excluded;
+	private final BitSet lifted;
+	//Guarded by known
+	private final BitSet known;
+	private final BitSet added;
+	private final IExcludeHandler excludeHandler;
+
+	/** Creates the view of an entry point from the shared base bitmap of the snapshot and the exclude handler of the entry
+	 * point. The base bitmap must not be modified afterwards.
+	 */
+	public ExclusionView(CallGraphSnapshot cg, BitSet excluded, IExcludeHandler excludeHandler) {
+		BitSet lifted = null;
+		for(int i = excluded.nextSetBit(0); i >= 0; i = excluded.nextSetBit(i + 1)) {
+			if(!excludeHandler.isExcludedMethodWithOverride(cg.getMethod(i))) {
+				if(lifted == null)
+					lifted = new BitSet(cg.getMethodCount());
+				lifted.set(i);
+			}
+		}
+		this.cg = cg;
+		this.excluded = excluded;
+		this.lifted = lifted == null ? noneLifted : lifted;
+		this.known = new BitSet();
+		this.added = new BitSet();
+		this.excludeHandler = excludeHandler;
+	}
+
+	public CallGraphSnapshot getSnapshot() {
+		return cg;
+	}
+
+	public IExcludeHandler getExcludeHandler() {
+		return excludeHandler;
+	}
+
+	/** True if the method with the given snapshot id is excluded for the entry point (i.e. the same as
+	 * {@link IExcludeHandler#isExcludedMethodWithOverride(SootMethod)}).
+	 */
+	public boolean isExcluded(int id) {
+		if(excluded.get(id))
+			return !lifted.get(id);
+		synchronized(known) {
+			if(known.get(id))
+				return added.get(id);
+		}
+		boolean ret = excludeHandler.isExcludedMethodWithOverride(cg.getMethod(id));
+		synchronized(known) {
+			known.set(id);
+			if(ret)
+				added.set(id);
+		}
+		return ret;
+	}
+
+	public boolean isExcludedMethod(SootMethod sm) {
+		int id = cg.getId(sm);
+		return id < 0 ? excludeHandler.isExcludedMethodWithOverride(sm) : isExcluded(id);
+	}
+
+	/** True if the overrides of the entry point lift the exclusion of at least one method in the snapshot. */
+	public boolean hasLiftedExclusions() {
+		return !lifted.isEmpty();
+	}
+
+}
@@ -0,0 +1,17 @@
+package org.sag.fred.phases;
+
+import org.sag.main.phase.IPhaseHandler;
+import org.sag.main.phase.IPhaseOption;
+
+/** Helpers for reading the options of a phase handler. */
+public final class PhaseOptions {
+
+	private PhaseOptions() {}
+
+	/** True if the handler has an option with the given name and the option is enabled. */
+	public static boolean isEnabled(IPhaseHandler handler, String name) {
+		IPhaseOption<?> o = handler.getPhaseOptionUnchecked(name);
+		return o != null && o.isEnabled();
+	}
+
+}
@@ -0,0 +1,108 @@
+package org.sag.fred.phases;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/** The strongly connected components of a graph over dense node ids given as successor arrays, found using an iterative
+ * version of Tarjan's algorithm so deep graphs do not overflow the stack. Components are numbered in the order Tarjan's
+ * algorithm completes them, which is a reverse topological order (i.e. every component reachable from a component has
+ * a smaller number). This allows summaries over a graph to be computed bottom-up by visiting components in order.
+ */
+public final class StronglyConnectedComponents {
+
+	private final int[] componentOf;
+	private final int[][] members;
+
+	/** Computes the components of the graph ignoring any node set in skip (i.e. such nodes and the edges to them are
+	 * treated as if they do not exist). Skip may be null.
+	 */
+	public StronglyConnectedComponents(int[][] succs, BitSet skip) {
+		int n = succs.length;
+		int[] index = new int[n];
+		int[] low = new int[n];
+		boolean[] onStack = new boolean[n];
+		int[] stack = new int[n];
+		int[] frameNode = new int[n];
+		int[] frameEdge = new int[n];
+		int sp = 0;
+		int fp = 0;
+		int counter = 0;
+		int count = 0;
+		this.componentOf = new int[n];
+		Arrays.fill(index, -1);
+		Arrays.fill(componentOf, -1);
+
+		for(int r = 0; r < n; r++) {
+			if(index[r] != -1 || (skip != null && skip.get(r)))
+				continue;
+			index[r] = low[r] = counter++;
+			stack[sp++] = r;
+			onStack[r] = true;
+			frameNode[fp] = r;
+			frameEdge[fp] = 0;
+			fp++;
+			while(fp > 0) {
+				int v = frameNode[fp - 1];
+				if(frameEdge[fp - 1] < succs[v].length) {
+					int w = succs[v][frameEdge[fp - 1]++];
+					if(skip != null && skip.get(w))
+						continue;
+					if(index[w] == -1) {
+						index[w] = low[w] = counter++;
+						stack[sp++] = w;
+						onStack[w] = true;
+						frameNode[fp] = w;
+						frameEdge[fp] = 0;
+						fp++;
+					} else if(onStack[w]) {
+						low[v] = Math.min(low[v], index[w]);
+					}
+				} else {
+					fp--;
+					if(fp > 0) {
+						int u = frameNode[fp - 1];
+						low[u] = Math.min(low[u], low[v]);
+					}
+					if(low[v] == index[v]) {
+						do {
+							int w = stack[--sp];
+							onStack[w] = false;
+							componentOf[w] = count;
+						} while(stack[sp] != v);
+						count++;
+					}
+				}
+			}
+		}
+
+		int[] sizes = new int[count];
+		for(int c : componentOf) {
+			if(c >= 0)
+				sizes[c]++;
+		}
+		this.members = new int[count][];
+		for(int c = 0; c < count; c++)
+			members[c] = new int[sizes[c]];
+		Arrays.fill(sizes, 0);
+		for(int v = 0; v < n; v++) {
+			int c = componentOf[v];
+			if(c >= 0)
+				members[c][sizes[c]++] = v;
+		}
+	}
+
+	/** Returns the component of the node or -1 if the node was skipped. */
+	public int getComponentOf(int node) {
+		return componentOf[node];
+	}
+
+	public int getComponentCount() {
+		return members.length;
+	}
+
+	/** Returns the nodes of the component. The returned array must not be modified. */
+	public int[] getMembers(int component) {
+		return members[component];
+	}
+
+}
@@ -1,20 +1,37 @@
 package org.sag.fred.phases.fileactions;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.PrintStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
 
 import org.sag.common.concurrent.CountingThreadExecutor;
 import org.sag.common.concurrent.IgnorableRuntimeException;
+import org.sag.common.io.FileHash;
+import org.sag.common.io.FileHashList;
+import org.sag.common.io.FileHelpers;
 import org.sag.common.logging.ILogger;
 import org.sag.common.tools.HierarchyHelpers;
 import org.sag.common.tuple.Pair;
+import org.sag.fred.phases.ChunkedTaskSubmitter;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
 import soot.Body;
 import soot.Scene;
 import soot.SootClass;
@@ -25,16 +42,38 @@ import soot.jimple.AssignStmt;
 import soot.jimple.FieldRef;
 import soot.jimple.Stmt;
 
+/** An index of every write to a field in the bodies of the concrete methods of the Scene. The bodies are loaded and
+ * scanned by the worker threads. Each chunk of methods collects its writes locally and the chunks are merged once
+ * all the workers are finished, in the order of the methods in the Scene so the index is the same across runs. The
+ * index is immutable once built so lookups do not need any locking.
+ * <br><br>
+ * If given an index file, the index is written to the file once built along with the hashes of the files it was
+ * built from (i.e. the Jimple jar). Later runs read the index from the file instead of scanning every method body as
+ * long as the hashes still match. The file records each write as the signature of the field, the signature of the
+ * writing method, and the position of the statement in the method's body.
+ */
 public class FieldValueFinder {
 	
 	private final String cn;
 	private final ILogger logger;
-	private final Map<SootField,Set<Pair<SootMethod,AssignStmt>>> data;
+	private final Path indexFile;
+	private final List<Path> depFiles;
+	private final Path rootPath;
+	private volatile Map<SootField,Set<Pair<SootMethod,AssignStmt>>> data;
+	
+	private static final int indexVersion = 1;
 	
 	public FieldValueFinder(ILogger logger) {
+		this(null, null, null, logger);
+	}
+	
+	public FieldValueFinder(Path indexFile, List<Path> depFiles, Path rootPath, ILogger logger) {
 		this.cn = getClass().getSimpleName();
 		this.logger = logger;
-		this.data = new HashMap<>();
+		this.indexFile = indexFile;
+		this.depFiles = depFiles;
+		this.rootPath = rootPath;
+		this.data = ImmutableMap.of();
 	}
 	
 	public Set<Pair<SootMethod,AssignStmt>> getFieldWrites(SootField field) {
@@ -42,6 +81,175 @@ public class FieldValueFinder {
 	}
 	
 	public boolean initData() {
+		if(indexFile != null) {
+			try {
+				if(!isRunRequired()) {
+					logger.info("{}: The field write index '{}' already exists. Loading data from file.",cn,indexFile);
+					if(readIndex()) {
+						logger.info("{}: Finished loading the field writes for {} fields.",cn,data.size());
+						return true;
+					}
+					logger.warn("{}: The field write index '{}' does not match the Scene. Rebuilding.",cn,indexFile);
+				}
+			} catch(Throwable t) {
+				logger.warn("{}: Failed to read the field write index '{}'. Rebuilding. {}",cn,indexFile,t.toString());
+			}
+		}
+		
+		if(!buildData())
+			return false;
+		
+		if(indexFile != null) {
+			try {
+				writeIndex();
+			} catch(Throwable t) {
+				logger.warn("{}: Failed to write the field write index '{}'. {}",cn,indexFile,t.toString());
+			}
+		}
+		return true;
+	}
+	
+	private boolean isRunRequired() throws Exception {
+		if(!FileHelpers.checkRWFileExists(indexFile))
+			return true;
+		
+		FileHashList oldDependencyFileHashes;
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+			if(in.readInt() != indexVersion)
+				return true;
+			oldDependencyFileHashes = readFileHashList(in);
+		}
+		
+		List<Path> oldDependencyFilePaths = new ArrayList<>();
+		for(FileHash oldFileHash : oldDependencyFileHashes) {
+			oldDependencyFilePaths.add(oldFileHash.getFullPath(rootPath));
+		}
+		if(!oldDependencyFilePaths.equals(depFiles))
+			return true;
+		
+		for(FileHash oldFileHash : oldDependencyFileHashes) {
+			if(!oldFileHash.compareHash(FileHelpers.genFileHash(oldFileHash.getFullPath(rootPath), oldFileHash.getPath())))
+				return true;
+		}
+		return false;
+	}
+	
+	private FileHashList readFileHashList(DataInputStream in) throws Exception {
+		byte[] b = new byte[in.readInt()];
+		in.readFully(b);
+		return FileHashList.readXMLFromStringStatic(new String(b, StandardCharsets.UTF_8));
+	}
+	
+	/** Writes the version, the file hash list, the table of writing method signatures, and then for each field its
+	 * signature followed by the method table index and statement position of each of its writes.
+	 */
+	private void writeIndex() throws Exception {
+		FileHashList fhl = FileHelpers.genFileHashList(depFiles, rootPath);
+		Map<SootMethod,Integer> methodIds = new LinkedHashMap<>();
+		Map<SootMethod,Map<Unit,Integer>> unitIds = new HashMap<>();
+		for(Set<Pair<SootMethod,AssignStmt>> writes : data.values()) {
+			for(Pair<SootMethod,AssignStmt> p : writes) {
+				SootMethod sm = p.getFirst();
+				if(!methodIds.containsKey(sm)) {
+					methodIds.put(sm, methodIds.size());
+					Map<Unit,Integer> ids = new HashMap<>();
+					for(Unit u : sm.retrieveActiveBody().getUnits())
+						ids.put(u, ids.size());
+					unitIds.put(sm, ids);
+				}
+			}
+		}
+		
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(indexFile)))) {
+			out.writeInt(indexVersion);
+			byte[] b = fhl.writeXMLToString().getBytes(StandardCharsets.UTF_8);
+			out.writeInt(b.length);
+			out.write(b);
+			out.writeInt(methodIds.size());
+			for(SootMethod sm : methodIds.keySet())
+				out.writeUTF(sm.getSignature());
+			out.writeInt(data.size());
+			for(Map.Entry<SootField,Set<Pair<SootMethod,AssignStmt>>> e : data.entrySet()) {
+				out.writeUTF(e.getKey().getSignature());
+				out.writeInt(e.getValue().size());
+				for(Pair<SootMethod,AssignStmt> p : e.getValue()) {
+					out.writeInt(methodIds.get(p.getFirst()));
+					out.writeInt(unitIds.get(p.getFirst()).get(p.getSecond()));
+				}
+			}
+		}
+	}
+	
+	/** Reads the index from the file returning false if any field, method, or statement it records no longer exists 
+	 * in the Scene. The bodies of the writing methods are loaded by the worker threads.
+	 */
+	private boolean readIndex() throws Exception {
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+			if(in.readInt() != indexVersion)
+				return false;
+			readFileHashList(in);
+			
+			int methodCount = in.readInt();
+			List<SootMethod> methods = new ArrayList<>(methodCount);
+			for(int i = 0; i < methodCount; i++) {
+				SootMethod sm = Scene.v().grabMethod(in.readUTF());
+				if(sm == null || !sm.isConcrete())
+					return false;
+				methods.add(sm);
+			}
+			Map<SootMethod,List<Unit>> units = loadUnits(methods);
+			
+			int fieldCount = in.readInt();
+			ImmutableMap.Builder<SootField,Set<Pair<SootMethod,AssignStmt>>> b = ImmutableMap.builder();
+			for(int i = 0; i < fieldCount; i++) {
+				SootField field = Scene.v().grabField(in.readUTF());
+				if(field == null)
+					return false;
+				int writeCount = in.readInt();
+				ImmutableSet.Builder<Pair<SootMethod,AssignStmt>> writes = ImmutableSet.builder();
+				for(int j = 0; j < writeCount; j++) {
+					int methodId = in.readInt();
+					int unitId = in.readInt();
+					List<Unit> body = units.get(methods.get(methodId));
+					if(unitId >= body.size() || !(body.get(unitId) instanceof AssignStmt))
+						return false;
+					writes.add(new Pair<>(methods.get(methodId), (AssignStmt)body.get(unitId)));
+				}
+				b.put(field, writes.build());
+			}
+			this.data = b.build();
+			return true;
+		}
+	}
+	
+	private Map<SootMethod,List<Unit>> loadUnits(List<SootMethod> methods) throws Exception {
+		final Map<SootMethod,List<Unit>> ret = new ConcurrentHashMap<>();
+		CountingThreadExecutor exe = new CountingThreadExecutor();
+		boolean success;
+		try {
+			ChunkedTaskSubmitter.execute(exe, methods, new Consumer<SootMethod>() {
+				@Override
+				public void accept(SootMethod sm) {
+					ret.put(sm, new ArrayList<>(sm.retrieveActiveBody().getUnits()));
+				}
+			});
+			exe.awaitCompletion();
+		} finally {
+			success = exe.shutdownWhenFinished();
+		}
+		List<Throwable> errs = new ArrayList<>(exe.getAndClearExceptions());
+		if(!errs.isEmpty()) {
+			RuntimeException e = new RuntimeException("Failed to load the bodies of the methods writing to fields.", errs.get(0));
+			for(int i = 1; i < errs.size(); i++)
+				e.addSuppressed(errs.get(i));
+			throw e;
+		} else if(!success) {
+			throw new RuntimeException("Failed to properly close the counting thread executor.");
+		}
+		return ret;
+	}
+	
+	private boolean buildData() {
 		boolean successOuter = true;
 		final CountingThreadExecutor exe = new CountingThreadExecutor();
 		final List<Throwable> errs = new ArrayList<>();
@@ -49,38 +257,64 @@ public class FieldValueFinder {
 		logger.info("{}: Finding all field writes for all fields.",cn);
 		
 		try {
-			for(final SootClass sc : Scene.v().getClasses()) {
+			final Map<SootMethod,Integer> methods = new LinkedHashMap<>();
+			for(SootClass sc : Scene.v().getClasses()) {
 				if(!sc.isPhantom()) {
-					for(final SootMethod sm : sc.getMethods()) {
+					for(SootMethod sm : sc.getMethods()) {
 						if(sm.isConcrete()) {
-							final Body b = sm.retrieveActiveBody();
-							exe.execute(new Runnable() {
-								@Override
-								public void run() {
-									for(Unit u : b.getUnits()) {
-										Stmt s = (Stmt)u;
-										if(s.containsFieldRef()) {
-											if(((AssignStmt)s).getLeftOp() instanceof FieldRef) {
-												SootField field = HierarchyHelpers.resolveField(s.getFieldRef().getFieldRef());
-												if(field != null) {
-													synchronized(data) {
-														Set<Pair<SootMethod,AssignStmt>> assigns = data.get(field);
-														if(assigns == null) {
-															assigns = new HashSet<>();
-															data.put(field, assigns);
-														}
-														assigns.add(new Pair<>(sm, (AssignStmt)s));
-													}
-												}
-											}
+							methods.put(sm, methods.size());
+						}
+					}
+				}
+			}
+			
+			//Each chunk of methods loads the bodies and collects its field writes locally keyed by the position of the 
+			//chunk's first method so the chunks can be merged in order once all are finished
+			final ConcurrentSkipListMap<Integer,Map<SootField,List<Pair<SootMethod,AssignStmt>>>> chunks = new ConcurrentSkipListMap<>();
+			ChunkedTaskSubmitter.executeBatches(exe, methods.keySet(), new Consumer<List<SootMethod>>() {
+				@Override
+				public void accept(List<SootMethod> chunk) {
+					Map<SootField,List<Pair<SootMethod,AssignStmt>>> local = new LinkedHashMap<>();
+					for(SootMethod sm : chunk) {
+						Body body = sm.retrieveActiveBody();
+						for(Unit u : body.getUnits()) {
+							Stmt s = (Stmt)u;
+							if(s.containsFieldRef()) {
+								if(((AssignStmt)s).getLeftOp() instanceof FieldRef) {
+									SootField field = HierarchyHelpers.resolveField(s.getFieldRef().getFieldRef());
+									if(field != null) {
+										List<Pair<SootMethod,AssignStmt>> assigns = local.get(field);
+										if(assigns == null) {
+											assigns = new ArrayList<>();
+											local.put(field, assigns);
 										}
+										assigns.add(new Pair<>(sm, (AssignStmt)s));
 									}
 								}
-							});
+							}
 						}
 					}
+					if(!chunk.isEmpty())
+						chunks.put(methods.get(chunk.get(0)), local);
+				}
+			});
+			exe.awaitCompletion();
+			
+			Map<SootField,ImmutableSet.Builder<Pair<SootMethod,AssignStmt>>> merged = new LinkedHashMap<>();
+			for(Map<SootField,List<Pair<SootMethod,AssignStmt>>> local : chunks.values()) {
+				for(Map.Entry<SootField,List<Pair<SootMethod,AssignStmt>>> e : local.entrySet()) {
+					ImmutableSet.Builder<Pair<SootMethod,AssignStmt>> b = merged.get(e.getKey());
+					if(b == null) {
+						b = ImmutableSet.builder();
+						merged.put(e.getKey(), b);
+					}
+					b.addAll(e.getValue());
 				}
 			}
+			ImmutableMap.Builder<SootField,Set<Pair<SootMethod,AssignStmt>>> b = ImmutableMap.builder();
+			for(Map.Entry<SootField,ImmutableSet.Builder<Pair<SootMethod,AssignStmt>>> e : merged.entrySet())
+				b.put(e.getKey(), e.getValue().build());
+			this.data = b.build();
 		} catch(IgnorableRuntimeException t) {	
 			successOuter = false;
 		} catch(Throwable t) {
@@ -105,7 +339,7 @@ public class FieldValueFinder {
 				try(PrintStream ps = new PrintStream(baos,true,"utf-8")) {
 					ps.println(cn + ": Failed to successfully find all field writes. The following exceptions occured:");
 					int i = 0;
-					for(Throwable t : errs){
+					for(Throwable t : snapshot){
 						ps.print("Exception ");
 						ps.print(i++);
 						ps.print(": ");
@@ -122,7 +356,7 @@ public class FieldValueFinder {
 		}
 		
 		if(successOuter)
-			logger.info("{}: Finished finding all field writes for all fields.",cn);
+			logger.info("{}: Finished finding all field writes for {} fields.",cn,data.size());
 		else
 			logger.fatal("{}: Failed to find all field writes for all fields.",cn);
 		return successOuter;
@@ -5,19 +5,16 @@ import java.io.PrintStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.Set;
+import java.util.function.Consumer;
 
-import org.sag.acminer.database.excludedelements.IExcludeHandler;
 import org.sag.acminer.phases.entrypoints.EntryPoint;
 import org.sag.common.concurrent.CountingThreadExecutor;
 import org.sag.common.concurrent.IgnorableRuntimeException;
@@ -30,6 +27,9 @@ import org.sag.soot.SootSort;
 import org.sag.fred.IFredDataAccessor;
 import org.sag.fred.database.filemethods.FileMethod;
 import org.sag.fred.database.filepaths.IFilePathsDatabase;
+import org.sag.fred.database.filepaths.parts.PHPart;
+import org.sag.fred.phases.CallGraphSnapshot;
+import org.sag.fred.phases.ChunkedTaskSubmitter;
 
 import soot.Scene;
 import soot.SootClass;
@@ -40,20 +40,31 @@ import soot.Unit;
 import soot.jimple.DefinitionStmt;
 import soot.jimple.InvokeExpr;
 import soot.jimple.Stmt;
-import soot.jimple.toolkits.callgraph.CallGraph;
-import soot.jimple.toolkits.callgraph.Edge;
 
 public class FileActionsFinder {
 	
 	private final String cn;
 	private final ILogger logger;
 	private final IFredDataAccessor dataAccessor;
+	private final boolean methodSummaries;
+	private final List<Path> fieldWritesDeps;
+	private final Path rootPath;
+	private final SeedBudget seedBudget;
 	private volatile Map<EntryPoint,Map<SootMethod,Map<Unit,Set<FileMethod>>>> data;
 	
-	public FileActionsFinder(IFredDataAccessor dataAccessor, ILogger logger) {
+	/** If fieldWritesDeps is not null, the index of field writes is stored in the field writes file of the config 
+	 * and only rebuilt when one of the given dependency files changes. If seedBudget is not null, the extraction of 
+	 * the file paths of each seed is limited by the budget.
+	 */
+	public FileActionsFinder(IFredDataAccessor dataAccessor, boolean methodSummaries, List<Path> fieldWritesDeps, Path rootPath, 
+			SeedBudget seedBudget, ILogger logger) {
 		this.logger = logger;
 		this.dataAccessor = dataAccessor;
 		this.cn = getClass().getSimpleName();
+		this.methodSummaries = methodSummaries;
+		this.fieldWritesDeps = fieldWritesDeps;
+		this.rootPath = rootPath;
+		this.seedBudget = seedBudget;
 		this.data = new LinkedHashMap<>();
 	}
 	
@@ -71,76 +82,52 @@ public class FileActionsFinder {
 				data.put(ep, Collections.emptyMap());
 			}
 			
-			for(final EntryPoint ep : dataAccessor.getEntryPoints()) {
-				exe.execute(new Runnable() {
-					public void run() {
-						try {
-							Map<SootMethod,Map<Unit,Set<FileMethod>>> sourceToUnitToFileMethod = new HashMap<>();
-							Set<SootMethod> visited = new HashSet<>();
-							Queue<SootMethod> toVisit = new ArrayDeque<>();
-							CallGraph cg = Scene.v().getCallGraph();
-							IExcludeHandler excludeHandler = dataAccessor.getExcludedElementsDB().createNewExcludeHandler(ep);
-							Map<SootMethod, FileMethod> fileMethods = new HashMap<>();
-							for(FileMethod fm : dataAccessor.getFileMethodsDB().getOutputData()) {
-								fileMethods.put(fm.getSootMethod(), fm);
-							}
-							
-							toVisit.add(ep.getEntryPoint());
-							while(!toVisit.isEmpty()) {
-								SootMethod cur = toVisit.poll();
-								if(visited.add(cur)) {
-									Iterator<Edge> it = cg.edgesOutOf(cur);
-									while(it.hasNext()) {
-										Edge e = it.next();
-										FileMethod fm = fileMethods.get(e.tgt());
-										if(fm != null) {
-											Map<Unit,Set<FileMethod>> unitToFileMethod = sourceToUnitToFileMethod.get(e.src());
-											if(unitToFileMethod == null) {
-												unitToFileMethod = new HashMap<>();
-												sourceToUnitToFileMethod.put(e.src(), unitToFileMethod);
-											}
-											Set<FileMethod> fileMethod = unitToFileMethod.get(e.srcUnit());
-											if(fileMethod == null) {
-												fileMethod = new HashSet<>();
-												unitToFileMethod.put(e.srcUnit(), fileMethod);
-											}
-											fileMethod.add(fm);
-										} else {
-											if(!excludeHandler.isExcludedMethodWithOverride(e.tgt())) {
-												toVisit.add(e.tgt());
-											}
-										}
-									}
-								}
-							}
-							
-							if(sourceToUnitToFileMethod.isEmpty()) {
-								sourceToUnitToFileMethod = Collections.emptyMap();
-							} else {
-								for(SootMethod sm : sourceToUnitToFileMethod.keySet()) {
-									Map<Unit,Set<FileMethod>> unitToFileMethod = sourceToUnitToFileMethod.get(sm);
-									for(Unit u : unitToFileMethod.keySet()) {
-										unitToFileMethod.put(u, SortingMethods.sortSet(unitToFileMethod.get(u)));
-									}
-									sourceToUnitToFileMethod.put(sm, SortingMethods.sortMapKey(unitToFileMethod, SootSort.unitComp));
+			//Shared read only by all entry points
+			final Map<SootMethod, FileMethod> fileMethods = new HashMap<>();
+			for(FileMethod fm : dataAccessor.getFileMethodsDB().getOutputData()) {
+				fileMethods.put(fm.getSootMethod(), fm);
+			}
+			
+			logger.info("{}: Building the reachability summaries of the call graph.",cn);
+			final FileActionsReachability reachability = new FileActionsReachability(dataAccessor.getEntryPoints(), fileMethods, 
+					Scene.v().getCallGraph(), dataAccessor.getExcludedElementsDB());
+			logger.info("{}: Built the reachability summaries of the call graph with {} methods in {} components.",
+					cn,reachability.getMethodCount(),reachability.getComponentCount());
+			
+			ChunkedTaskSubmitter.execute(exe, dataAccessor.getEntryPoints(), new Consumer<EntryPoint>() {
+				@Override
+				public void accept(EntryPoint ep) {
+					try {
+						Map<SootMethod,Map<Unit,Set<FileMethod>>> sourceToUnitToFileMethod = reachability.getFileActions(ep.getEntryPoint(), 
+								dataAccessor.getExclusionView(ep, CallGraphSnapshot.of(Scene.v().getCallGraph())));
+						
+						if(sourceToUnitToFileMethod.isEmpty()) {
+							sourceToUnitToFileMethod = Collections.emptyMap();
+						} else {
+							for(SootMethod sm : sourceToUnitToFileMethod.keySet()) {
+								Map<Unit,Set<FileMethod>> unitToFileMethod = sourceToUnitToFileMethod.get(sm);
+								for(Unit u : unitToFileMethod.keySet()) {
+									unitToFileMethod.put(u, SortingMethods.sortSet(unitToFileMethod.get(u)));
 								}
-								sourceToUnitToFileMethod = SortingMethods.sortMapKey(sourceToUnitToFileMethod, SootSort.smComp);
-							}
-							
-							synchronized(data) {
-								data.put(ep, sourceToUnitToFileMethod);
+								sourceToUnitToFileMethod.put(sm, SortingMethods.sortMapKey(unitToFileMethod, SootSort.unitComp));
 							}
-						} catch(IgnorableRuntimeException t) {
-							throw t;
-						} catch(Throwable t) {
-							logger.fatal("{}: An unexpected exception occured when getting file actions for entry point '{}'.",t,cn,ep.getEntryPoint());
-							throw new IgnorableRuntimeException();
+							sourceToUnitToFileMethod = SortingMethods.sortMapKey(sourceToUnitToFileMethod, SootSort.smComp);
 						}
+						
+						synchronized(data) {
+							data.put(ep, sourceToUnitToFileMethod);
+						}
+					} catch(IgnorableRuntimeException t) {
+						throw t;
+					} catch(Throwable t) {
+						logger.fatal("{}: An unexpected exception occured when getting file actions for entry point '{}'.",t,cn,ep.getEntryPoint());
+						throw new IgnorableRuntimeException();
 					}
-				});
-			}
+				}
+			});
 			
 			exe.awaitCompletion();
+			logger.info("{}: Reachability statistics: {}",cn,reachability.getStatistics());
 			logger.info("{}: Successfully found all file actions.",cn);
 			
 			logger.info("{}: Begin dumping file actions to file.",cn);
@@ -219,7 +206,12 @@ public class FileActionsFinder {
 		Set<FileMethod> allFileOpens = new HashSet<>();
 		final List<Throwable> errs = new ArrayList<>();
 		
-		FieldValueFinder fvf = new FieldValueFinder(logger);
+		FieldValueFinder fvf;
+		if(fieldWritesDeps == null)
+			fvf = new FieldValueFinder(logger);
+		else
+			fvf = new FieldValueFinder(dataAccessor.getConfig().getFilePath("fred_file-actions-field-writes-file"), fieldWritesDeps, 
+					rootPath, logger);
 		if(!fvf.initData())
 			return false;
 		
@@ -227,7 +219,7 @@ public class FileActionsFinder {
 		
 		try {
 			exe = new CountingThreadExecutor();
-			fpe = new FilePathExtractor(fvf, dataAccessor, exe, logger);
+			fpe = new FilePathExtractor(fvf, dataAccessor, exe, methodSummaries, seedBudget, logger);
 			Set<String> subClassesOfContext = new HashSet<>();
 			SootClass context = Scene.v().getSootClassUnsafe("android.content.Context", false);
 			if(context != null) {
@@ -286,6 +278,11 @@ public class FileActionsFinder {
 				}
 			}
 			
+			if(!fpe.submitSeeds()) {
+				logger.fatal("{}: Failed to submit all file path extraction tasks.",cn);
+				successOuter = false;
+			}
+			
 			allFileOpens = SortingMethods.sortSet(allFileOpens);
 			StringBuilder sb = new StringBuilder();
 			for(FileMethod fm : allFileOpens) {
@@ -340,10 +337,21 @@ public class FileActionsFinder {
 				logger.fatal("{}: Failed to properly close the counting thread executor.",cn);
 			}
 			
+			if(fpe != null) {
+				logger.info("{}: PHPart resolution cache statistics: {}",cn,fpe.getResolutionCacheStatistics());
+				logger.info("{}: ICFG statistics: {}",cn,fpe.getICFGStatistics());
+				if(seedBudget != null) {
+					int truncated = 0;
+					for(Set<PHPart> seeds : fpe.getTruncatedSeeds().values())
+						truncated += seeds.size();
+					logger.info("{}: Seeds truncated by the seed budget: {}",cn,truncated);
+				}
+			}
+			
 			Path pappth = dataAccessor.getConfig().getFilePath("fred_file-paths-db-file");
 			try {
 				IFilePathsDatabase db = IFilePathsDatabase.Factory.getNew(false);
-				db.addAll(fpe.getSortedData());
+				db.addAll(fpe.getSortedData(), fpe.getTruncatedSeeds());
 				db.writeXML(null, pappth);
 			} catch(Throwable t) {
 				logger.fatal("{}: Failed to write the extracted file paths database to '{}'.",t,cn,pappth);
@@ -10,9 +10,13 @@ import org.sag.main.config.PhaseConfig;
 import org.sag.main.phase.AbstractPhaseHandler;
 import org.sag.main.phase.IPhaseHandler;
 import org.sag.fred.IFredDataAccessor;
+import org.sag.fred.phases.PhaseOptions;
 
 public class FileActionsHandler extends AbstractPhaseHandler {
 	
+	public static final String optMethodSummaries = "MethodSummaries";
+	public static final String optSeedBudgets = "SeedBudgets";
+	
 	private Path jimpleJar;
 	
 	public FileActionsHandler(List<IPhaseHandler> depPhases, PhaseConfig pc) {
@@ -47,7 +51,13 @@ public class FileActionsHandler extends AbstractPhaseHandler {
 	@Override
 	protected boolean doWork() {
 		try {
-			FileActionsFinder runner = new FileActionsFinder((IFredDataAccessor)dataAccessor, logger);
+			SeedBudget seedBudget = null;
+			if(PhaseOptions.isEnabled(this, optSeedBudgets)) {
+				seedBudget = SeedBudget.readFile((Path)getPhaseOptionUnchecked(optSeedBudgets).getValue());
+				logger.info("{}: Limiting the file path extraction of each seed to the budget {}.",cn,seedBudget);
+			}
+			FileActionsFinder runner = new FileActionsFinder((IFredDataAccessor)dataAccessor, PhaseOptions.isEnabled(this, optMethodSummaries), 
+					Collections.singletonList(jimpleJar), rootPath, seedBudget, logger);
 			if(!runner.run()) {
 				logger.fatal("{}: Failed to find all file actions.",cn);
 				return false;
@@ -0,0 +1,290 @@
+package org.sag.fred.phases.fileactions;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.sag.acminer.database.excludedelements.IExcludeHandler;
+import org.sag.acminer.database.excludedelements.IExcludedElementsDatabase;
+import org.sag.acminer.phases.entrypoints.EntryPoint;
+import org.sag.common.tuple.Triple;
+import org.sag.fred.database.filemethods.FileMethod;
+import org.sag.fred.phases.CallGraphSnapshot;
+import org.sag.fred.phases.ExclusionView;
+import org.sag.fred.phases.StronglyConnectedComponents;
+
+import soot.SootMethod;
+import soot.Unit;
+import soot.jimple.toolkits.callgraph.CallGraph;
+import soot.jimple.toolkits.callgraph.Edge;
+
+/** Answers which calls to file methods are reachable from an entry point without walking the call graph once per
+ * entry point. The part of the call graph reachable from all the entry points is copied once into a compact graph
+ * over dense method ids in which every call to a file method is recorded as a file action of the calling method
+ * (file methods themselves are never traversed). The graph, minus the globally excluded methods, is then condensed
+ * into its strongly connected components and the set of file actions reachable from each component is computed
+ * bottom-up, so the answer for an entry point is the union of the summaries of its direct callees.
+ * <br><br>
+ * The summaries assume that the methods excluded for an entry point are exactly the globally excluded methods. An
+ * entry point's {@link IExcludeHandler} may lift the exclusion of some of these methods (i.e. the override). When this
+ * happens for any globally excluded method in the graph, the file actions of the entry point are found by walking the
+ * compact graph while checking every method against the entry point's {@link ExclusionView} instead. Exclusions a
+ * handler adds beyond the globally excluded methods are only seen by this walk. Detecting them for the summaries would
+ * mean querying the handler for every method the entry point reaches, which is the walk the summaries avoid, so the
+ * summaries rely on the exclude handlers only ever lifting exclusions. Instances are thread safe once constructed.
+ */
+public final class FileActionsReachability {
+
+	private static final BitSet emptySummary = new BitSet(0);
+
+	private final SootMethod[] methods;
+	private final Map<SootMethod,Integer> ids;
+	private final int[] snapshotIds;
+	private final int[][] succs;
+	private final int[][] hits;
+	private final BitSet excluded;
+	private final int[] excludedIds;
+	private final int[] sccOf;
+	private final List<BitSet> summaries;
+	private final List<Triple<SootMethod,Unit,FileMethod>> fileActions;
+	private final AtomicLong summaryQueries;
+	private final AtomicLong walkQueries;
+
+	public FileActionsReachability(Collection<EntryPoint> eps, Map<SootMethod,FileMethod> fileMethods, CallGraph cg,
+			IExcludedElementsDatabase excludeDB) {
+		List<SootMethod> methods = new ArrayList<>();
+		List<int[]> succs = new ArrayList<>();
+		List<int[]> hits = new ArrayList<>();
+		Map<Triple<SootMethod,Unit,FileMethod>,Integer> fileActionIds = new HashMap<>();
+		this.ids = new HashMap<>();
+		this.fileActions = new ArrayList<>();
+
+		CallGraphSnapshot snapshot = CallGraphSnapshot.of(cg);
+		ArrayDeque<SootMethod> toVisit = new ArrayDeque<>();
+		for(EntryPoint ep : eps) {
+			if(getOrAddId(ep.getEntryPoint(), methods))
+				toVisit.add(ep.getEntryPoint());
+		}
+		while(!toVisit.isEmpty()) {
+			SootMethod cur = toVisit.poll();
+			Set<Integer> curSuccs = new LinkedHashSet<>();
+			Set<Integer> curHits = new LinkedHashSet<>();
+			//Methods without any edges are not in the snapshot
+			int curId = snapshot.getId(cur);
+			int start = curId < 0 ? 0 : snapshot.getOutStart(curId);
+			int end = curId < 0 ? 0 : snapshot.getOutEnd(curId);
+			for(int i = start; i < end; i++) {
+				Edge e = snapshot.getEdge(i);
+				SootMethod tgt = e.tgt();
+				FileMethod fm = fileMethods.get(tgt);
+				if(fm != null) {
+					Triple<SootMethod,Unit,FileMethod> fileAction = new Triple<>(e.src(), e.srcUnit(), fm);
+					Integer id = fileActionIds.get(fileAction);
+					if(id == null) {
+						id = fileActions.size();
+						fileActions.add(fileAction);
+						fileActionIds.put(fileAction, id);
+					}
+					curHits.add(id);
+				} else {
+					if(getOrAddId(tgt, methods))
+						toVisit.add(tgt);
+					curSuccs.add(ids.get(tgt));
+				}
+			}
+			succs.add(toArray(curSuccs));
+			hits.add(toArray(curHits));
+		}
+
+		this.methods = methods.toArray(new SootMethod[methods.size()]);
+		this.snapshotIds = new int[this.methods.length];
+		for(int i = 0; i < this.methods.length; i++)
+			snapshotIds[i] = snapshot.getId(this.methods[i]);
+		this.succs = succs.toArray(new int[succs.size()][]);
+		this.hits = hits.toArray(new int[hits.size()][]);
+		this.excluded = new BitSet(this.methods.length);
+		List<Integer> excludedIds = new ArrayList<>();
+		for(int i = 0; i < this.methods.length; i++) {
+			if(excludeDB.isExcludedMethod(this.methods[i])) {
+				excluded.set(i);
+				excludedIds.add(i);
+			}
+		}
+		this.excludedIds = toArray(excludedIds);
+		this.sccOf = new int[this.methods.length];
+		this.summaries = new ArrayList<>();
+		this.summaryQueries = new AtomicLong();
+		this.walkQueries = new AtomicLong();
+		computeSummaries();
+	}
+
+	private boolean getOrAddId(SootMethod sm, List<SootMethod> methods) {
+		if(ids.containsKey(sm))
+			return false;
+		ids.put(sm, methods.size());
+		methods.add(sm);
+		return true;
+	}
+
+	private static int[] toArray(Collection<Integer> in) {
+		int[] ret = new int[in.size()];
+		int i = 0;
+		for(Integer v : in)
+			ret[i++] = v;
+		return ret;
+	}
+
+	/** Condenses the methods that are not globally excluded into their strongly connected components. Components are
+	 * numbered in reverse topological order so the summaries of all successor components of a component are always
+	 * known by the time the component itself is summarized.
+	 */
+	private void computeSummaries() {
+		StronglyConnectedComponents sccs = new StronglyConnectedComponents(succs, excluded);
+		for(int i = 0; i < methods.length; i++)
+			sccOf[i] = sccs.getComponentOf(i);
+		for(int scc = 0; scc < sccs.getComponentCount(); scc++)
+			summaries.add(computeSummary(sccs.getMembers(scc), scc));
+	}
+
+	/** The union of the file actions of the members and the summaries of the successor components. When the result is
+	 * the same as the summary of a successor, that summary is shared instead of copied.
+	 */
+	private BitSet computeSummary(int[] members, int scc) {
+		BitSet ret = emptySummary;
+		boolean owned = false;
+		Set<Integer> seen = new HashSet<>();
+		for(int v : members) {
+			for(int w : succs[v]) {
+				if(excluded.get(w) || sccOf[w] == scc || !seen.add(sccOf[w]))
+					continue;
+				BitSet other = summaries.get(sccOf[w]);
+				if(other.isEmpty() || other == ret || containsAll(ret, other))
+					continue;
+				if(ret.isEmpty()) {
+					ret = other;
+				} else {
+					if(!owned) {
+						ret = (BitSet)ret.clone();
+						owned = true;
+					}
+					ret.or(other);
+				}
+			}
+		}
+		for(int v : members) {
+			for(int h : hits[v]) {
+				if(!ret.get(h)) {
+					if(!owned) {
+						ret = (BitSet)ret.clone();
+						owned = true;
+					}
+					ret.set(h);
+				}
+			}
+		}
+		return ret;
+	}
+
+	private static boolean containsAll(BitSet a, BitSet b) {
+		for(int i = b.nextSetBit(0); i >= 0; i = b.nextSetBit(i + 1)) {
+			if(!a.get(i))
+				return false;
+		}
+		return true;
+	}
+
+	/** Returns the file actions reachable from the entry point under the given exclusions as a map of the calling method
+	 * to the calling statement to the file methods called.
+	 */
+	public Map<SootMethod,Map<Unit,Set<FileMethod>>> getFileActions(SootMethod ep, ExclusionView exclusions) {
+		Map<SootMethod,Map<Unit,Set<FileMethod>>> ret = new HashMap<>();
+		BitSet reached = getReachableFileActions(ep, exclusions);
+		for(int i = reached.nextSetBit(0); i >= 0; i = reached.nextSetBit(i + 1)) {
+			Triple<SootMethod,Unit,FileMethod> fileAction = fileActions.get(i);
+			Map<Unit,Set<FileMethod>> unitToFileMethod = ret.get(fileAction.getFirst());
+			if(unitToFileMethod == null) {
+				unitToFileMethod = new HashMap<>();
+				ret.put(fileAction.getFirst(), unitToFileMethod);
+			}
+			Set<FileMethod> fileMethod = unitToFileMethod.get(fileAction.getSecond());
+			if(fileMethod == null) {
+				fileMethod = new HashSet<>();
+				unitToFileMethod.put(fileAction.getSecond(), fileMethod);
+			}
+			fileMethod.add(fileAction.getThird());
+		}
+		return ret;
+	}
+
+	private boolean isExcluded(int id, ExclusionView exclusions) {
+		return snapshotIds[id] < 0 ? exclusions.isExcludedMethod(methods[id]) : exclusions.isExcluded(snapshotIds[id]);
+	}
+
+	private BitSet getReachableFileActions(SootMethod ep, ExclusionView exclusions) {
+		Integer id = ids.get(ep);
+		if(id == null)
+			return emptySummary;
+
+		boolean walk = false;
+		if(exclusions.hasLiftedExclusions()) {
+			for(int e : excludedIds) {
+				if(!isExcluded(e, exclusions)) {
+					walk = true;
+					break;
+				}
+			}
+		}
+
+		BitSet ret = new BitSet(fileActions.size());
+		if(!walk) {
+			summaryQueries.incrementAndGet();
+			//The entry point is always traversed even when excluded
+			for(int h : hits[id])
+				ret.set(h);
+			for(int w : succs[id]) {
+				if(!excluded.get(w))
+					ret.or(summaries.get(sccOf[w]));
+			}
+		} else {
+			walkQueries.incrementAndGet();
+			BitSet visited = new BitSet(methods.length);
+			ArrayDeque<Integer> toVisit = new ArrayDeque<>();
+			visited.set(id);
+			toVisit.add(id);
+			while(!toVisit.isEmpty()) {
+				int v = toVisit.poll();
+				for(int h : hits[v])
+					ret.set(h);
+				for(int w : succs[v]) {
+					if(!visited.get(w) && !isExcluded(w, exclusions)) {
+						visited.set(w);
+						toVisit.add(w);
+					}
+				}
+			}
+		}
+		return ret;
+	}
+
+	public int getMethodCount() {
+		return methods.length;
+	}
+
+	public int getComponentCount() {
+		return summaries.size();
+	}
+
+	public String getStatistics() {
+		return "Methods: " + methods.length + ", Components: " + summaries.size() + ", File Actions: " + fileActions.size()
+			+ ", Summary Queries: " + summaryQueries.get() + ", Walk Queries: " + walkQueries.get();
+	}
+
+}
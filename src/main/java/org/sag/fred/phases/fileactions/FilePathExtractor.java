@@ -6,24 +6,33 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 
 import org.sag.acminer.database.excludedelements.IExcludeHandler;
 import org.sag.acminer.phases.entrypoints.EntryPoint;
 import org.sag.common.concurrent.CountingThreadExecutor;
 import org.sag.common.concurrent.IgnorableRuntimeException;
-import org.sag.common.cycles.Cycles;
 import org.sag.common.io.FileHelpers;
 import org.sag.common.io.PrintStreamUnixEOL;
 import org.sag.common.logging.ILogger;
@@ -37,6 +46,9 @@ import org.sag.soot.callgraph.ExcludingJimpleICFG;
 import org.sag.soot.callgraph.IJimpleICFG;
 import org.sag.soot.callgraph.JimpleICFG;
 import org.sag.fred.IFredDataAccessor;
+import org.sag.fred.phases.CallGraphSnapshot;
+import org.sag.fred.phases.ExclusionView;
+import org.sag.fred.phases.StronglyConnectedComponents;
 import org.sag.fred.database.filepaths.parts.*;
 import org.sag.fred.database.filepaths.parts.AnyPartImpl.*;
 import org.sag.fred.database.filepaths.parts.ConstantPart.*;
@@ -44,6 +56,7 @@ import org.sag.fred.database.filepaths.parts.Part.Node;
 import org.sag.soot.callgraph.ExcludingJimpleICFG.ExcludingEdgePredicate;
 import org.sag.soot.callgraph.IJimpleICFG.IBasicEdgePredicate;
 
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
@@ -84,8 +97,6 @@ import soot.jimple.StaticInvokeExpr;
 import soot.jimple.Stmt;
 import soot.jimple.StringConstant;
 import soot.jimple.UnopExpr;
-import soot.jimple.toolkits.callgraph.CallGraph;
-import soot.jimple.toolkits.callgraph.Edge;
 import soot.toolkits.scalar.UnitValueBoxPair;
 
 public class FilePathExtractor {
@@ -129,48 +140,44 @@ public class FilePathExtractor {
 		}
 	});
 	
-	//Small cache to load the ICFG for an entry point, can't make this too big or memory blows up so we set it to the number of processors
-	//Assumes that the threads will be started in the order they were added (so all of one EP occur before another). This allows us to keep
-	//in memory those ICFG for EPs that may still have threads to execute and then evict them when we are finished.
-	private final LoadingCache<EntryPoint,IJimpleICFG> icfgCache = CacheBuilder.newBuilder()
-			.concurrencyLevel(Runtime.getRuntime().availableProcessors()).initialCapacity(Runtime.getRuntime().availableProcessors())
-			.maximumSize(Runtime.getRuntime().availableProcessors()).build(new CacheLoader<EntryPoint,IJimpleICFG>() {
-				@Override
-				public IJimpleICFG load(EntryPoint ep) throws Exception {
-					IExcludeHandler excludeHandler = dataAccessor.getExcludedElementsDB().createNewExcludeHandler(ep);
-					return new ExcludingJimpleICFG(ep, baseICFG, new ExcludingEdgePredicate(baseICFG.getCallGraph(), excludeHandler));
-				}
-				
-			});
+	/** The methods reachable from an entry point in its ICFG as a set of the method numbers assigned by the Scene (i.e. a
+	 * dense numbering of all methods) so checking if a method is reachable is a single bit test. Computed once per entry
+	 * point, shared by all its seeds, and softly referenced so it may be reclaimed under memory pressure.
+	 */
+	private final Cache<EntryPoint,BitSet> reachableMethodsCache = CacheBuilder.newBuilder().softValues().build();
 	
-	private final LoadingCache<IJimpleICFG,Set<SootMethod>> methodsInCallGraphCache = CacheBuilder.newBuilder()
-			.concurrencyLevel(Runtime.getRuntime().availableProcessors()).initialCapacity(Runtime.getRuntime().availableProcessors())
-			.maximumSize(Runtime.getRuntime().availableProcessors()).build(new CacheLoader<IJimpleICFG,Set<SootMethod>>() {
-				@Override
-				public Set<SootMethod> load(IJimpleICFG icfg) throws Exception {
-					Deque<SootMethod> queue = new ArrayDeque<>();
-					Set<SootMethod> visited = new HashSet<>();
-					CallGraph cg = icfg.getCallGraph();
-					IBasicEdgePredicate edgePred = icfg.getEdgePredicate();
-					IExcludeHandler excludeHandler = edgePred.getExcludeHandler();
-					for(EntryPoint ep : icfg.getEntryPoints()) {
-						if(!excludeHandler.isExcludedMethodWithOverride(ep.getEntryPoint()))
-							queue.add(ep.getEntryPoint());
-					}
-					while(!queue.isEmpty()) {
-						SootMethod cur = queue.poll();
-						if(visited.add(cur)) {
-							for(Iterator<Edge> it = cg.edgesOutOf(cur); it.hasNext();) {
-								Edge e = it.next();
-								SootMethod tgt = e.tgt();
-								if(edgePred.want(e) && !excludeHandler.isExcludedMethodWithOverride(tgt))
-									queue.add(tgt);
-							}
-						}
-					}
-					return visited;
+	private static BitSet computeReachableMethods(IJimpleICFG icfg, ExclusionView exclusions) {
+		CallGraphSnapshot cg = exclusions.getSnapshot();
+		IBasicEdgePredicate edgePred = icfg.getEdgePredicate();
+		BitSet visited = new BitSet(cg.getMethodCount());
+		BitSet ret = new BitSet(Scene.v().getMethodNumberer().size() + 1);
+		int[] queue = new int[cg.getMethodCount()];
+		int head = 0;
+		int tail = 0;
+		for(EntryPoint ep : icfg.getEntryPoints()) {
+			SootMethod sm = ep.getEntryPoint();
+			if(!exclusions.isExcludedMethod(sm)) {
+				ret.set(sm.getNumber());
+				int id = cg.getId(sm);
+				if(id >= 0 && !visited.get(id)) {
+					visited.set(id);
+					queue[tail++] = id;
 				}
-			});
+			}
+		}
+		while(head < tail) {
+			int cur = queue[head++];
+			for(int e = cg.getOutStart(cur); e < cg.getOutEnd(cur); e++) {
+				int tgt = cg.getTarget(e);
+				if(!visited.get(tgt) && edgePred.want(cg.getEdge(e)) && !exclusions.isExcluded(tgt)) {
+					visited.set(tgt);
+					ret.set(cg.getMethod(tgt).getNumber());
+					queue[tail++] = tgt;
+				}
+			}
+		}
+		return ret;
+	}
 	
 	private final ILogger logger;
 	private final IFredDataAccessor dataAccessor;
@@ -182,18 +189,48 @@ public class FilePathExtractor {
 	private final Set<String> subClassesOfContext;
 	private final Set<String> subClassesOfIBinder;
 	private final Map<EntryPoint,List<Pair<PHPart,Part>>> data;
+	//The seeds of each entry point whose extraction exceeded the seed budget (guarded by data)
+	private final Map<EntryPoint,Set<PHPart>> truncatedSeeds;
+	//The limits on the work done per seed or null if there are no limits
+	private final SeedBudget seedBudget;
+	private final PHPartResolutionCache resolutionCache;
+	//If true the return values of methods are resolved by instantiating per method summaries at each call site
+	private final boolean methodSummaries;
+	private final MethodSummaryCache summaryCache;
+	//Seeds added but not yet submitted grouped by entry point in the order the entry points were first seen
+	private final Map<EntryPoint,EntryPointGroup> pendingGroups;
+	//Entry points whose ICFG has been built at least once
+	private final Set<EntryPoint> builtICFGs;
+	private final AtomicLong icfgHits;
+	private final AtomicLong icfgMisses;
+	//A group only releases its ICFG after its last seed so this only counts the entry points whose seeds were split across 
+	//more than one call to submitSeeds, each group of which has to build the ICFG again
+	private final AtomicLong icfgRebuilds;
+	private final AtomicLong icfgReleases;
 	
-	public FilePathExtractor(FieldValueFinder fvf, IFredDataAccessor dataAccessor, CountingThreadExecutor exe, ILogger logger) {
+	public FilePathExtractor(FieldValueFinder fvf, IFredDataAccessor dataAccessor, CountingThreadExecutor exe, boolean methodSummaries, 
+			SeedBudget seedBudget, ILogger logger) {
 		this.cn = getClass().getSimpleName();
 		this.dataAccessor = dataAccessor;
 		this.logger = logger;
 		this.exe = exe;
 		this.baseICFG = new JimpleICFG(this.dataAccessor.getEntryPoints(),false);
 		this.data = new HashMap<>();
+		this.truncatedSeeds = new HashMap<>();
+		this.seedBudget = seedBudget;
 		this.fvf = fvf;
 		this.simulatedContextParts = new HashMap<>();
 		this.subClassesOfContext = new HashSet<>();
 		this.subClassesOfIBinder = new HashSet<>();
+		this.resolutionCache = new PHPartResolutionCache();
+		this.methodSummaries = methodSummaries;
+		this.summaryCache = new MethodSummaryCache();
+		this.pendingGroups = new LinkedHashMap<>();
+		this.builtICFGs = Collections.newSetFromMap(new ConcurrentHashMap<EntryPoint,Boolean>());
+		this.icfgHits = new AtomicLong();
+		this.icfgMisses = new AtomicLong();
+		this.icfgRebuilds = new AtomicLong();
+		this.icfgReleases = new AtomicLong();
 		init();
 	}
 	
@@ -237,9 +274,17 @@ public class FilePathExtractor {
 	}
 	
 	private boolean extractPaths(PHPart startData, EntryPoint ep) {
-		FilePathExtractingRunnable runnable = new FilePathExtractingRunnable(startData, ep);
+		EntryPointGroup group;
+		synchronized(pendingGroups) {
+			group = pendingGroups.get(ep);
+			if(group == null) {
+				group = new EntryPointGroup(ep);
+				pendingGroups.put(ep, group);
+			}
+		}
+		FilePathExtractingRunnable runnable = new FilePathExtractingRunnable(startData, group);
 		try {
-			exe.execute(runnable);
+			group.add(runnable);
 			return true;
 		} catch(Throwable t) {
 			logger.fatal("{}: An unexpected exception occured when starting the file path extraction for:\n{}", cn, runnable.toString("\t"));
@@ -247,6 +292,35 @@ public class FilePathExtractor {
 		}
 	}
 	
+	/** Submits all seeds started since the last call for execution. The seeds of an entry point are executed as one group
+	 * by workers that share the entry point's ICFG. The groups are submitted in the order their entry points were first seen
+	 * so that workers finish one entry point before moving on to the next and the ICFG of an entry point is released as soon
+	 * as its last seed finishes. Returns false if some group could not be submitted.
+	 */
+	public boolean submitSeeds() {
+		List<EntryPointGroup> groups;
+		synchronized(pendingGroups) {
+			groups = new ArrayList<>(pendingGroups.values());
+			pendingGroups.clear();
+		}
+		int maxWorkers = Runtime.getRuntime().availableProcessors();
+		boolean success = true;
+		for(EntryPointGroup group : groups) {
+			int workers = Math.min(group.size(), maxWorkers);
+			for(int i = 0; i < workers; i++) {
+				try {
+					exe.execute(group);
+				} catch(Throwable t) {
+					logger.fatal("{}: An unexpected exception occured when starting the file path extraction for:\n\tEntry Point: {}\n\tStub: {}", 
+							t, cn, group.ep.getEntryPoint(), group.ep.getStub());
+					success = false;
+					break;
+				}
+			}
+		}
+		return success;
+	}
+	
 	public Map<EntryPoint,List<Pair<PHPart,Part>>> getSortedData() {
 		synchronized(data) {
 			for(List<Pair<PHPart,Part>> list : data.values()) {
@@ -261,6 +335,27 @@ public class FilePathExtractor {
 		}
 	}
 	
+	/** Returns the seeds of each entry point whose extraction exceeded the seed budget. */
+	public Map<EntryPoint,Set<PHPart>> getTruncatedSeeds() {
+		synchronized(data) {
+			Map<EntryPoint,Set<PHPart>> ret = new HashMap<>();
+			for(EntryPoint ep : truncatedSeeds.keySet())
+				ret.put(ep, SortingMethods.sortSet(truncatedSeeds.get(ep)));
+			return SortingMethods.sortMapKeyAscending(ret);
+		}
+	}
+	
+	public String getICFGStatistics() {
+		return "Hits: " + icfgHits.get() + ", Misses: " + icfgMisses.get() + ", Rebuilds: " + icfgRebuilds.get() 
+			+ ", Releases: " + icfgReleases.get();
+	}
+	
+	public String getResolutionCacheStatistics() {
+		if(methodSummaries)
+			return resolutionCache.getStatistics() + ", " + summaryCache.getStatistics();
+		return resolutionCache.getStatistics();
+	}
+	
 	public void dumpData(Path outDir) throws IOException {
 		Map<EntryPoint,List<Pair<PHPart,Part>>> data = getSortedData();
 		Set<String> filePaths = new HashSet<>();
@@ -301,10 +396,10 @@ public class FilePathExtractor {
 		
 		Set<LeafPart> leafs = new HashSet<>();
 		for(Part root : parts) {
-			root.getIterator().forEachRemaining(new Consumer<Pair<Part,Node>>() {
+			root.visitPreOrder(new Part.Visitor() {
 				@Override
-				public void accept(Pair<Part,Node> t) {
-					Part child = t.getSecond().getPart();
+				public void visit(Part parent, Node node, int index) {
+					Part child = node.getPart();
 					if(child instanceof LeafPart)
 						leafs.add((LeafPart)child);
 				}
@@ -318,14 +413,105 @@ public class FilePathExtractor {
 		}
 	}
 	
+	/** The seeds of a single entry point. Each worker executing the group takes seeds from the group until none remain. The
+	 * ICFG of the entry point is built by the first seed to need it, shared by all the seeds of the group, and released when
+	 * the last seed of the group finishes.
+	 */
+	private final class EntryPointGroup implements Runnable {
+		
+		private final EntryPoint ep;
+		private final Queue<FilePathExtractingRunnable> seeds;
+		private final AtomicInteger remaining;
+		private IJimpleICFG icfg;
+		
+		private EntryPointGroup(EntryPoint ep) {
+			this.ep = ep;
+			this.seeds = new ConcurrentLinkedQueue<>();
+			this.remaining = new AtomicInteger();
+		}
+		
+		private void add(FilePathExtractingRunnable runnable) {
+			remaining.incrementAndGet();
+			seeds.add(runnable);
+		}
+		
+		private int size() {
+			return seeds.size();
+		}
+		
+		private synchronized IJimpleICFG getICFG() {
+			if(icfg == null) {
+				if(builtICFGs.add(ep))
+					icfgMisses.incrementAndGet();
+				else
+					icfgRebuilds.incrementAndGet();
+				IExcludeHandler excludeHandler = dataAccessor.getExcludedElementsDB().createNewExcludeHandler(ep);
+				icfg = new ExcludingJimpleICFG(ep, baseICFG, new ExcludingEdgePredicate(baseICFG.getCallGraph(), excludeHandler));
+			} else {
+				icfgHits.incrementAndGet();
+			}
+			return icfg;
+		}
+		
+		private synchronized void release() {
+			if(icfg != null) {
+				icfg = null;
+				icfgReleases.incrementAndGet();
+			}
+		}
+		
+		@Override
+		public void run() {
+			RuntimeException first = null;
+			boolean ignorable = false;
+			FilePathExtractingRunnable runnable;
+			while((runnable = seeds.poll()) != null) {
+				try {
+					runnable.run();
+				} catch(IgnorableRuntimeException t) {
+					ignorable = true;
+				} catch(RuntimeException t) {
+					if(first == null)
+						first = t;
+					else
+						first.addSuppressed(t);
+				} finally {
+					if(remaining.decrementAndGet() == 0)
+						release();
+				}
+			}
+			if(first != null)
+				throw first;
+			else if(ignorable)
+				throw new IgnorableRuntimeException();
+		}
+		
+	}
+	
 	public class FilePathExtractingRunnable implements Runnable {
 		
 		private volatile IJimpleICFG icfg;
+		private final EntryPointGroup group;
 		private final EntryPoint ep;
 		private final PHPart startData;
+		private boolean contextDependent;
+		//Set if any resolution made by the current call to proceess depends on the exclusion context of the entry point
+		private boolean anyContextDependent;
+		//The method whose summary is currently being computed or null if resolving a seed
+		private SootMethod summarizing;
+		//The methods whose summaries are being computed in the order they were started
+		private final LinkedHashSet<SootMethod> summaryStack = new LinkedHashSet<>();
+		//The work done for the seed so far which is checked against the seed budget
+		private long startTime;
+		private int placeholderCount;
+		private int partCount;
+		private final Part.Cursor partCounter = Part.Cursor.preOrder(false, false, false);
+		//Set once the seed exceeds its budget after which every placeholder not yet resolved is truncated
+		private boolean truncated;
 		
-		public FilePathExtractingRunnable(PHPart startData, EntryPoint ep) {
-			this.ep = ep;
+		private FilePathExtractingRunnable(PHPart startData, EntryPointGroup group) {
+			this.group = group;
+			this.ep = group.ep;
 			this.startData = startData;
 		}
 		
@@ -347,9 +533,10 @@ public class FilePathExtractor {
 		public void run() {
 			try {
 				//init the icfg here so its creation occurs when the running thread
-				this.icfg = icfgCache.getUnchecked(ep);
+				this.icfg = group.getICFG();
 				logger.info("{}: Starting file path extraction:\n{}",cn,toString("\t"));
-				Part p = proceess();
+				startTime = System.currentTimeMillis();
+				Part p = proceess(startData);
 				if(p != null) {
 					//Handle the situations where we are specially wrapping things and those things are our start points
 					if(startData instanceof PHBaseValuePart) {
@@ -381,8 +568,19 @@ public class FilePathExtractor {
 							data.put(ep, res);
 						}
 						res.add(new Pair<>(startData,p));
+						if(truncated) {
+							Set<PHPart> seeds = truncatedSeeds.get(ep);
+							if(seeds == null) {
+								seeds = new HashSet<>();
+								truncatedSeeds.put(ep, seeds);
+							}
+							seeds.add(startData);
+						}
 					}
-					logger.info("{}: Successfully completed file path extraction:\n\t{}\n{}",cn,p.toString(),toString("\t"));
+					if(truncated)
+						logger.warn("{}: Completed file path extraction with a truncated result:\n\t{}\n{}",cn,p.toString(),toString("\t"));
+					else
+						logger.info("{}: Successfully completed file path extraction:\n\t{}\n{}",cn,p.toString(),toString("\t"));
 				} else {
 					logger.fatal("{}: Failed to extract file paths:\n{}",cn,toString("\t"));
 					throw new IgnorableRuntimeException();
@@ -395,17 +593,66 @@ public class FilePathExtractor {
 			}
 		}
 		
-		private Part proceess() {
-			Deque<PHPart> queue = new ArrayDeque<>();
+		private Part proceess(PHPart start) {
+			Deque<PHPart> worklist = new ArrayDeque<>();
 			Set<PHPart> visited = new HashSet<>();
-			Map<PHPart,Part> data = new HashMap<>();
+			Map<PHPart,Part> data = new LinkedHashMap<>();
 			
-			queue.add(startData);
-			while(!queue.isEmpty()) {
-				PHPart cur = queue.poll();
+			worklist.add(start);
+			while(!worklist.isEmpty()) {
+				PHPart cur = worklist.poll();
 				if(visited.add(cur)) {
+					//Once over budget the placeholders left are not resolved so the worklist drains without growing
+					if(checkBudget("Truncating the placeholders not yet resolved")) {
+						data.put(cur, getTruncatedPart(cur));
+						continue;
+					}
+					placeholderCount++;
+					
+					//The placeholders referenced by the resolution of cur that also need to be resolved
+					Deque<PHPart> queue = new ArrayDeque<>();
+					
+					//Resolve the return value of a method by instantiating the summary of the method at this call site
+					//The start of a summary is the return value being summarized so it is always resolved normally
+					if(methodSummaries && cur instanceof PHReturnValuePart && cur != start) {
+						contextDependent = false;
+						Part instance = instantiateSummary((PHReturnValuePart)cur, queue);
+						if(instance != null) {
+							anyContextDependent |= contextDependent;
+							putResolved(data, cur, instance);
+							worklist.addAll(queue);
+							continue;
+						}
+					}
+					
+					//When summarizing a method, the resolution of a placeholder in that method depends on the summary
+					//being computed (i.e. parameters are not resolved to the callers) and so is not shared
+					Set<Triple<SootMethod,Stmt,Value>> startPoints = null;
+					boolean local = false;
+					if(summarizing != null) {
+						startPoints = cur.getStartPoints(icfg);
+						for(Triple<SootMethod,Stmt,Value> t : startPoints) {
+							if(summarizing.equals(t.getFirst()))
+								local = true;
+						}
+					}
+					
+					//Reuse the resolution of this placeholder if some earlier seed has already resolved it
+					if(!local) {
+						PHPartResolutionCache.Resolution res = resolutionCache.get(ep, cur);
+						if(res != null) {
+							anyContextDependent |= res.isContextDependent();
+							putResolved(data, cur, res.getPart());
+							worklist.addAll(res.getNext());
+							continue;
+						}
+					}
+					
+					if(startPoints == null)
+						startPoints = cur.getStartPoints(icfg);
+					contextDependent = false;
 					OrPart container = new OrPart();
-					for(Triple<SootMethod,Stmt,Value> t : cur.getStartPoints(icfg)) {
+					for(Triple<SootMethod,Stmt,Value> t : startPoints) {
 						SootMethod sourceMethod = t.getFirst();
 						Stmt stmt = t.getSecond();
 						Value v = t.getThird();
@@ -434,25 +681,24 @@ public class FilePathExtractor {
 										orPart.add(handleArrayValues(cur,def, sourceMethod, (ArrayRef)rightOp, queue));
 									} else if(rightOp instanceof FieldRef) {
 										SootField field = HierarchyHelpers.resolveField(((FieldRef)rightOp).getFieldRef());
-										Set<Pair<SootMethod,AssignStmt>> fieldWrites = fvf.getFieldWrites(field);
-										fieldWrites = fieldWrites == null ? Collections.emptySet() : new HashSet<>(fieldWrites);
-										if(field != null && (!field.isStatic() || !field.isFinal())) {
-											Set<SootMethod> methodsInCG = methodsInCallGraphCache.getUnchecked(icfg);
-											for(Iterator<Pair<SootMethod,AssignStmt>> it = fieldWrites.iterator(); it.hasNext();) {
-												Pair<SootMethod,AssignStmt> p = it.next();
-												if(!p.getFirst().getName().equals("<clinit>") && !methodsInCG.contains(p.getFirst()))
-													it.remove();
-											}
-										}
-										if(fieldWrites.isEmpty()) {
-											orPart.add(new AnyFieldRefPart(def, sourceMethod));
-										} else {
+										Set<Pair<SootMethod,AssignStmt>> fieldWrites = field == null ? null : fvf.getFieldWrites(field);
+										BitSet reachable = null;
+										if(field != null && (!field.isStatic() || !field.isFinal()))
+											reachable = getReachableMethods();
+										boolean foundWrite = false;
+										if(fieldWrites != null) {
 											for(Pair<SootMethod,AssignStmt> p : fieldWrites) {
-												PHPart next = new PHFieldValuePart(p.getSecond(), p.getFirst());
-												queue.add(next);
-												orPart.add(next);
+												if(reachable == null || reachable.get(p.getFirst().getNumber()) 
+														|| p.getFirst().getName().equals("<clinit>")) {
+													PHPart next = new PHFieldValuePart(p.getSecond(), p.getFirst());
+													queue.add(next);
+													orPart.add(next);
+													foundWrite = true;
+												}
 											}
 										}
+										if(!foundWrite)
+											orPart.add(new AnyFieldRefPart(def, sourceMethod));
 									} else if(rightOp instanceof ParameterRef) {
 										for(Part p : constructParamRefs(((ParameterRef)rightOp).getIndex(), sourceMethod, cur, def)) {
 											orPart.add(p);
@@ -613,7 +859,7 @@ public class FilePathExtractor {
 													targets.add(ie.getMethod());
 												} catch(Throwable e) {}
 											} else {
-												targets.addAll(icfg.getAllCalleesOfCallAt(def));
+												targets.addAll(getAllCalleesOfCallAt(def));
 											}
 											//Includes everything with or without a body
 											for(SootMethod sm : targets) {
@@ -676,46 +922,237 @@ public class FilePathExtractor {
 						}
 						container.add(compPart);
 					}
+					Part resolved;
 					if(container.getChildNodes().size() == 1)
-						data.put(cur, container.getChildren().get(0));
+						resolved = container.getChildren().get(0);
 					else
-						data.put(cur, container);
+						resolved = container;
+					putResolved(data, cur, resolved);
+					anyContextDependent |= contextDependent;
+					if(!local)
+						resolutionCache.put(ep, cur, resolved, queue, contextDependent);
+					worklist.addAll(queue);
 				}
 			}
 			
-			Map<PHPart,Part> leafs = new HashMap<>();
-			Map<PHPart,Pair<Part,LinkedHashSet<PHPart>>> adjLists = new HashMap<>();
-			
-			//Separate out those ImdData instances with computed Parts containing no ImdData references from those with references
-			for(PHPart node : data.keySet()) {
-				ArrayDeque<Part> q = new ArrayDeque<>();
-				q.add(data.get(node));
-				boolean isLeaf = true;
-				while(!q.isEmpty()) {
-					Part cur = q.poll();
-					if(cur instanceof BranchPart) {
-						if(!(cur instanceof LoopPart))
-							q.addAll(((BranchPart)cur).getChildren());
-					} else if(cur instanceof PHPart) {
-						Pair<Part,LinkedHashSet<PHPart>> adjList = adjLists.get(node);
-						if(adjList == null) {
-							adjList = new Pair<>(data.get(node), new LinkedHashSet<>());
-							adjLists.put(node, adjList);
+			//Number the placeholders in the order they were resolved and record every reference to a placeholder in the
+			//resolved Parts so each resolved Part is only traversed once
+			List<PHPart> nodes = new ArrayList<>(data.keySet());
+			Map<PHPart,Integer> ids = new HashMap<>();
+			for(PHPart node : nodes)
+				ids.put(node, ids.size());
+			List<List<Pair<Part,Node>>> refs = new ArrayList<>();
+			int[][] succs = new int[nodes.size()][];
+			for(PHPart node : nodes) {
+				List<Pair<Part,Node>> nodeRefs = new ArrayList<>();
+				Set<Integer> nodeSuccs = new LinkedHashSet<>();
+				for(Iterator<Pair<Part,Node>> it = data.get(node).getIterator(); it.hasNext();) {
+					Pair<Part,Node> p = it.next();
+					Part child = p.getSecond().getPart();
+					if(child instanceof PHPart) {
+						Integer id = ids.get(child);
+						if(id == null) {
+							logger.warn("{}: Encountered a reference to an unresolved placeholder!?!\n\tPlaceholder:{}\n\tReferenced By:{}\n{}",
+									cn, child.toString(), node.toString(), toString("\t"));
+							return null;
 						}
-						adjList.getSecond().add((PHPart)cur);
-						isLeaf = false;
+						nodeRefs.add(p);
+						nodeSuccs.add(id);
 					}
 				}
-				if(isLeaf) {
-					leafs.put(node, data.get(node));
-				}
+				refs.add(nodeRefs);
+				int[] temp = new int[nodeSuccs.size()];
+				int i = 0;
+				for(Integer id : nodeSuccs)
+					temp[i++] = id;
+				succs[ids.get(node)] = temp;
 			}
 			
-			if(subAndCollapseCycles(adjLists,leafs)) {
-				return simplify(leafs.get(startData));
+			return simplify(subAndCollapseCycles(nodes, ids, data, refs, succs, ids.get(start)));
+		}
+		
+		/* Marks the seed as truncated, logging the given action, the first time the seed exceeds its budget. Returns true
+		 * if the seed is truncated. The substitution of the resolved Parts never checks the budget since it is linear in
+		 * their size and truncating it would collapse the whole seed. The simplification only checks the budget when the
+		 * seed was not already truncated before it began, as checking would otherwise discard the partial result the 
+		 * truncated placeholders were drained for.
+		 */
+		private boolean checkBudget(String action) {
+			if(!truncated && seedBudget != null && seedBudget.isExceeded(startTime, placeholderCount, partCount)) {
+				truncated = true;
+				logger.warn("{}: Exceeded the seed budget after resolving {} placeholders with {} parts in {} ms ({}). "
+						+ "{}:\n{}",cn,placeholderCount,partCount,System.currentTimeMillis() - startTime,seedBudget.toString(),
+						action,toString("\t"));
+			}
+			return truncated;
+		}
+		
+		private void putResolved(Map<PHPart,Part> data, PHPart cur, Part resolved) {
+			data.put(cur, resolved);
+			if(seedBudget != null && seedBudget.hasPartLimit()) {
+				for(Part.Cursor c = partCounter.reset(resolved); c.next();)
+					partCount++;
+			}
+		}
+		
+		/* Returns the Part standing in for a placeholder left unresolved because the seed exceeded its budget. This is
+		 * the AnyPart of the kind of value the placeholder represents or an UnknownValuePart if there is no such AnyPart.
+		 */
+		private Part getTruncatedPart(PHPart cur) {
+			if(cur instanceof PHReturnValuePart) {
+				PHReturnValuePart p = (PHReturnValuePart)cur;
+				return new AnyMethodReturnPart(p.getInvokeStmt(), p.getInvokeSource(), p.getTarget());
+			} else if(cur instanceof PHFieldValuePart) {
+				return new AnyFieldRefPart(((PHFieldValuePart)cur).getStmt(), ((PHFieldValuePart)cur).getSourceMethod());
+			} else if(cur instanceof PHArrayValuePart) {
+				return new AnyArrayPart(((PHArrayValuePart)cur).getStmt(), ((PHArrayValuePart)cur).getSourceMethod());
+			} else if(cur instanceof PHMethodRefValuePart) {
+				return new AnyMethodRefPart(((PHMethodRefValuePart)cur).getInvokeStmt(), ((PHMethodRefValuePart)cur).getInvokeSource());
+			} else if(cur instanceof PHArgumentValuePart) {
+				PHArgumentValuePart p = (PHArgumentValuePart)cur;
+				return new UnknownValuePart(p.getInvokeStmt(), p.getInvokeSource(), 
+						p.getInvokeStmt().getInvokeExpr().getArg(p.getArgIndex()).toString());
+			} else if(cur instanceof PHBaseValuePart) {
+				PHBaseValuePart p = (PHBaseValuePart)cur;
+				InvokeExpr ie = p.getInvokeStmt().getInvokeExpr();
+				return new UnknownValuePart(p.getInvokeStmt(), p.getInvokeSource(), 
+						ie instanceof InstanceInvokeExpr ? ((InstanceInvokeExpr)ie).getBase().toString() : ie.toString());
+			}
+			return new UnknownValuePart(null, null, cur.toString());
+		}
+		
+		/* The following are the only queries made when resolving a placeholder whose answer depends on the
+		 * entry point of the ICFG (i.e. its exclusion context and reachable methods). Any resolution making
+		 * use of them can only be reused by seeds of ICFG with the same context.
+		 */
+		
+		private Collection<Unit> getCallersOf(SootMethod sm) {
+			contextDependent = true;
+			return icfg.getCallersOf(sm);
+		}
+		
+		private Collection<SootMethod> getCalleesOfCallAt(Unit u) {
+			contextDependent = true;
+			return icfg.getCalleesOfCallAt(u);
+		}
+		
+		private Collection<SootMethod> getAllCalleesOfCallAt(Unit u) {
+			contextDependent = true;
+			return icfg.getAllCalleesOfCallAt(u);
+		}
+		
+		private BitSet getReachableMethods() {
+			contextDependent = true;
+			try {
+				return reachableMethodsCache.get(ep, new Callable<BitSet>() {
+					@Override
+					public BitSet call() throws Exception {
+						return computeReachableMethods(icfg, dataAccessor.getExclusionView(ep, CallGraphSnapshot.of(icfg.getCallGraph())));
+					}
+				});
+			} catch(ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			}
+		}
+		
+		private boolean isEntryPoint(SootMethod sm) {
+			contextDependent = true;
+			return sm.equals(ep.getEntryPoint());
+		}
+		
+		/** Returns the summary of the return value of the target method with the summary's parameter parts replaced
+		 * by the arguments of the call site, adding these arguments to the queue. Returns null if the target cannot
+		 * be summarized so the return value is resolved on demand instead.
+		 */
+		private Part instantiateSummary(PHReturnValuePart cur, Deque<PHPart> queue) {
+			SootMethod target = cur.getTarget();
+			Part summary = getSummary(target, cur);
+			if(summary == null)
+				return null;
+			
+			String targetSig = target.getSignature();
+			List<Pair<Part,Node>> params = new ArrayList<>();
+			if(summary instanceof AnyEPArgPart) {
+				if(targetSig.equals(((AnyEPArgPart)summary).getSourceMethodSig()))
+					params.add(new Pair<>(null, null));
 			} else {
+				//Includes the parameters a loop starts at which are only reachable through the loop
+				summary.getIteratorWithLoopsVisitOnce().forEachRemaining(new Consumer<Pair<Part,Node>>() {
+					@Override
+					public void accept(Pair<Part,Node> t) {
+						Part child = t.getSecond().getPart();
+						if(child instanceof AnyEPArgPart && t.getFirst() instanceof BranchPart 
+								&& targetSig.equals(((AnyEPArgPart)child).getSourceMethodSig()))
+							params.add(t);
+					}
+				});
+			}
+			//The parameters of the entry point itself are left as they are
+			if(params.isEmpty() || target.equals(ep.getEntryPoint()))
+				return summary;
+			
+			Part ret = summary;
+			for(Pair<Part,Node> p : params) {
+				AnyEPArgPart param = (AnyEPArgPart)(p.getSecond() == null ? summary : p.getSecond().getPart());
+				PHPart next = new PHArgumentValuePart(cur.getInvokeStmt(), cur.getInvokeSource(), param.getIndex());
+				queue.add(next);
+				if(p.getFirst() == null)
+					ret = next;
+				else
+					((BranchPart)p.getFirst()).swapChild(p.getSecond(), next);
+			}
+			return ret;
+		}
+		
+		/** Returns a copy of the summary of the return value of the given method, computing it if needed by resolving the
+		 * return value given with the method's parameters left unresolved. Returns null if the method cannot be summarized
+		 * because it is part of a recursive cycle or the resolution fails.
+		 */
+		private Part getSummary(SootMethod target, PHReturnValuePart returnValue) {
+			String targetSig = target.getSignature();
+			PHPartResolutionCache.Resolution res = summaryCache.get(ep, targetSig);
+			if(res != null) {
+				contextDependent |= res.isContextDependent();
+				return res.getPart();
+			}
+			if(summaryCache.isRecursive(targetSig))
+				return null;
+			if(summaryStack.contains(target)) {
+				//Every method from the target to the current summary depends on its own summary
+				boolean found = false;
+				for(SootMethod sm : summaryStack) {
+					if(found || sm.equals(target)) {
+						found = true;
+						summaryCache.markRecursive(sm.getSignature());
+					}
+				}
 				return null;
 			}
+			
+			SootMethod prevSummarizing = summarizing;
+			boolean prevContextDependent = contextDependent;
+			boolean prevAnyContextDependent = anyContextDependent;
+			boolean summaryContextDependent;
+			Part ret;
+			summaryStack.add(target);
+			summarizing = target;
+			anyContextDependent = false;
+			try {
+				ret = proceess(returnValue);
+			} finally {
+				summaryContextDependent = anyContextDependent;
+				summaryStack.remove(target);
+				summarizing = prevSummarizing;
+				contextDependent = prevContextDependent;
+				anyContextDependent = prevAnyContextDependent;
+			}
+			if(ret == null || summaryCache.isRecursive(targetSig))
+				return null;
+			//A summary truncated by the budget of this seed is only good for this seed
+			if(!truncated)
+				summaryCache.put(ep, targetSig, ret, summaryContextDependent);
+			contextDependent |= summaryContextDependent;
+			return ret;
 		}
 		
 		private Part handleIterator(PHPart curStart, DefinitionStmt invokeStmt, SootMethod sourceMethod, InstanceInvokeExpr ie,  Deque<PHPart> queue) {
@@ -738,7 +1175,7 @@ public class FilePathExtractor {
 								+ "reconcileUsers(java.lang.String,java.util.List,java.util.List)>")) {
 							//Special handeling for this case
 							boolean found = false;
-							for(Unit callerStmt : icfg.getCallersOf(sourceMethod)) {
+							for(Unit callerStmt : getCallersOf(sourceMethod)) {
 								SootMethod callerSourceMethod = icfg.getMethodOf(callerStmt);
 								for(Unit u : callerSourceMethod.retrieveActiveBody().getUnits()) {
 									if(((Stmt)u).containsInvokeExpr() 
@@ -767,7 +1204,7 @@ public class FilePathExtractor {
 								queue.add(next);
 								orPart.add(next);
 							} else {
-								Collection<SootMethod> targets = icfg.getCalleesOfCallAt(collDef);
+								Collection<SootMethod> targets = getCalleesOfCallAt(collDef);
 								if(targets.isEmpty()) {
 									orPart.add(new AnyMethodRefPart(collDef, sourceMethod));
 								} else {
@@ -820,10 +1257,13 @@ public class FilePathExtractor {
 			}
 			
 			List<Part> ret = new ArrayList<>();
-			if(sourceMethod.equals(ep.getEntryPoint())) {
+			if(sourceMethod.equals(summarizing)) {
+				//The parameter of the method being summarized, replaced by the argument when the summary is instantiated
+				ret.add(new AnyEPArgPart(def, sourceMethod, index));
+			} else if(isEntryPoint(sourceMethod)) {
 				ret.add(new AnyEPArgPart(def, sourceMethod, index));
 			} else {
-				Collection<Unit> callSites = icfg.getCallersOf(sourceMethod);
+				Collection<Unit> callSites = getCallersOf(sourceMethod);
 				if(callSites == null || callSites.isEmpty()) {
 					UnknownValuePart p = new UnknownValuePart(def, sourceMethod, ((DefinitionStmt)def).getRightOp().toString());
 					logger.warn("{}: {} - The referenced parameter has no resolvable value because this method is never called:\n"
@@ -953,7 +1393,7 @@ public class FilePathExtractor {
 							SootMethodRef ref = ((InvokeExpr)rightOp).getMethodRef();
 							String sig = ref.getSignature();
 							if(sig.equals("<android.content.pm.PackageParser$Callback: java.lang.String[] getOverlayApks(java.lang.String)>")) {
-								Collection<SootMethod> targets = icfg.getCalleesOfCallAt(def);
+								Collection<SootMethod> targets = getCalleesOfCallAt(def);
 								if(targets.isEmpty()) {
 									orPart.add(new AnyMethodRefPart(def, sourceMethod));
 								} else {
@@ -1242,307 +1682,288 @@ public class FilePathExtractor {
 			return orPart;
 		}
 		
-		private boolean subAndCollapseCycles(Map<PHPart, Pair<Part, LinkedHashSet<PHPart>>> adjLists, Map<PHPart,Part> leafs) {
-			preformSubstitution(adjLists,leafs,leafs);
-			//If we end up with an empty adjList then there are no cycles
-			int itCount = 0;
-			while(!adjLists.isEmpty()) {
-				itCount += 1;
-				if(itCount > 100) {
-					logger.warn("{}: AdjList is not empty after {} iterations.\n{}\n{}",
-							cn, itCount, adjListsToString(adjLists), toString("\t"));
-				}
-				List<Pair<PHPart,PHPart>> cycles = Cycles.findSimpleCyclesStartEnd(adjLists);
-				Map<PHPart,Part> newLeafs = new HashMap<>();
-				Set<PHPart> toRemove = new HashSet<>();
-				for(Pair<PHPart,PHPart> startEnd : cycles) {
-					final PHPart start = startEnd.getFirst();
-					final PHPart end = startEnd.getSecond();
+		/* Substitutes the resolved Part of each placeholder for every reference to the placeholder. The placeholder 
+		 * dependency graph is condensed into its strongly connected components which are visited in reverse topological
+		 * order so the placeholders referenced from outside a component are always fully substituted before they are
+		 * referenced. The placeholders of a component with a cycle are visited in the post order of a depth first walk 
+		 * from the component's header (the start placeholder if it is in the component and the first placeholder 
+		 * resolved otherwise) and every reference that would close a cycle (i.e. to a placeholder still on the walk) is 
+		 * replaced by the single LoopPart of the component which starts at the header. Each placeholder reference is 
+		 * visited exactly once so the whole step is linear in the size of the resolved Parts.
+		 */
+		private Part subAndCollapseCycles(List<PHPart> nodes, Map<PHPart,Integer> ids, Map<PHPart,Part> data, 
+				List<List<Pair<Part,Node>>> refs, int[][] succs, int start) {
+			int n = nodes.size();
+			Part[] resolved = new Part[n];
+			BitSet done = new BitSet(n);
+			BitSet seen = new BitSet(n);
+			int[] nextEdge = new int[n];
+			StronglyConnectedComponents sccs = new StronglyConnectedComponents(succs, null);
+			for(int c = 0; c < sccs.getComponentCount(); c++) {
+				int[] members = sccs.getMembers(c);
+				int first = members[0];
+				if(members.length == 1 && !contains(succs[first], first)) {
+					resolved[first] = substitute(first, nodes, ids, data, refs, resolved, done, null);
+					done.set(first);
+				} else {
+					int header = first;
+					for(int m : members) {
+						if(m == start)
+							header = start;
+					}
+					LoopPart loop = new LoopPart(data.get(nodes.get(header)));
 					
-					if(!toRemove.contains(end)) {
-						@SuppressWarnings("unchecked")
-						Pair<Part,LinkedHashSet<PHPart>>[] endPair = new Pair[1];
-						endPair[0] = adjLists.get(end);
-						Pair<Part,LinkedHashSet<PHPart>> startPair = adjLists.get(start);
-						endPair[0].getFirst().getIterator().forEachRemaining(new Consumer<Pair<Part,Node>>() {
-							public void accept(Pair<Part,Node> p) {
-								Part parent = p.getFirst();
-								Node childNode = p.getSecond();
-								Part child = childNode.getPart();
-								if(child.equals(start)) {
-									LoopPart loop = new LoopPart(startPair.getFirst());
-									if(parent == null) {
-										endPair[0] = new Pair<>(loop,endPair[0].getSecond());
-										adjLists.put(end, endPair[0]);
-									} else if(parent instanceof BranchPart) {
-										//We are subbing in loop references not traversing them
-										if(!(parent instanceof LoopPart))
-											((BranchPart)parent).swapChild(childNode, loop);
-									} else {
-										logger.warn("{}: Collapsing loops, encountered a parent Part that is not a BranchPart!?!"
-												+ "\n\tParent:{}\n\tChild:{}\n{}\n{}", cn, parent.toString(), child.toString(), 
-												adjListsToString(adjLists), FilePathExtractingRunnable.this.toString("\t"));
-									}
-								}
+					//Iterative depth first walk of the component from the header recording the members in post order
+					int[] postOrder = new int[members.length];
+					int[] stack = new int[members.length];
+					int post = 0;
+					int sp = 0;
+					seen.set(header);
+					stack[sp++] = header;
+					while(sp > 0) {
+						int v = stack[sp - 1];
+						if(nextEdge[v] < succs[v].length) {
+							int w = succs[v][nextEdge[v]++];
+							if(!seen.get(w) && sccs.getComponentOf(w) == c) {
+								seen.set(w);
+								stack[sp++] = w;
 							}
-						});
-
-						endPair[0].getSecond().remove(start);
-						if(endPair[0].getSecond().isEmpty()) {
-							leafs.put(end, endPair[0].getFirst());
-							newLeafs.put(end, endPair[0].getFirst());
-							toRemove.add(end);
+						} else {
+							sp--;
+							postOrder[post++] = v;
 						}
 					}
+					
+					for(int m : postOrder) {
+						resolved[m] = substitute(m, nodes, ids, data, refs, resolved, done, loop);
+						done.set(m);
+					}
+					//The resolved Part of the header may differ from the one the loop starts at if it was a single placeholder
+					if(resolved[header] != loop && resolved[header] != loop.getLoopStart())
+						loop.swapChild(loop.getLoopStartNode(), resolved[header]);
 				}
-				
-				adjLists.keySet().removeAll(toRemove);
-				
-				if(!newLeafs.isEmpty()) {
-					preformSubstitution(adjLists,leafs,newLeafs);
-				} else if(newLeafs.isEmpty() && itCount > 100) {
-					logger.warn("{}: No new leafs generated on iterations {}.\n{}\n{}",
-							cn, itCount, adjListsToString(adjLists), toString("\t"));
+			}
+			return resolved[start];
+		}
+		
+		/* Replaces the references in the resolved Part of the placeholder with the resolved Parts of the placeholders they 
+		 * reference or with the given loop if the referenced placeholder has not yet been substituted (i.e. it closes a 
+		 * cycle). Returns the resolved Part which is only different from the original if it was a single placeholder.
+		 */
+		private Part substitute(int node, List<PHPart> nodes, Map<PHPart,Integer> ids, Map<PHPart,Part> data, 
+				List<List<Pair<Part,Node>>> refs, Part[] resolved, BitSet done, LoopPart loop) {
+			Part ret = data.get(nodes.get(node));
+			for(Pair<Part,Node> p : refs.get(node)) {
+				Part parent = p.getFirst();
+				Node childNode = p.getSecond();
+				Part child = childNode.getPart();
+				int id = ids.get(child);
+				Part sub = done.get(id) ? resolved[id] : loop;
+				if(parent == null) {
+					//The resolved Part is the placeholder so there can only be one reference
+					ret = sub;
+				} else if(parent instanceof BranchPart) {
+					((BranchPart)parent).swapChild(childNode, sub);
+				} else {
+					logger.warn("{}: Subbing placeholders, encountered a parent Part that is not a BranchPart!?!\n\tParent:{}\n\tChild:{}"
+							+ "\n\tPlaceholder:{}\n{}", cn, parent.toString(), child.toString(), nodes.get(node).toString(), toString("\t"));
 				}
 			}
-			
-			if(!adjLists.isEmpty()) {
-				logger.warn("{}: AdjList is not empty. Cycles still exist!?!\n{}\n{}",
-						cn, adjListsToString(adjLists), toString("\t"));
-				return false;
+			return ret;
+		}
+		
+		private boolean contains(int[] a, int v) {
+			for(int i : a) {
+				if(i == v)
+					return true;
 			}
-			return true;
+			return false;
 		}
 		
+		/* Simplifies a copy of the Part by removing null constants, empty loops, and empty branches, by replacing Or and
+		 * Append branches with a single child by the child, and by merging Or and Append branches into parents of the same
+		 * kind. Every branch is first visited bottom-up after which a branch is only revisited when one of its children is
+		 * rewritten or when it is the parent of a branch that was rewritten. So the work done is proportional to the 
+		 * size of the Part plus the number of rewrites.
+		 */
 		private Part simplify(Part in) {
-			Part[] ret = {in.clonePart()};
-			boolean[] changed = {false};
-			int count = 0;
+			return new Simplifier(in.clonePart()).run();
+		}
+		
+		private final class Simplifier {
 			
-			do {
-				changed[0] = false;
-				Map<Part,LoopPart> loops = new HashMap<>();
-				Map<Part,Part> swaps = new HashMap<>();
-				ret[0].getPostOrderIterator().forEachRemaining(new Consumer<Pair<Part,Node>>() {
-					public void accept(Pair<Part,Node> t) {
-						Part parent = t.getFirst();
-						Node childNode = t.getSecond();
-						Part child = childNode.getPart();
-						if(parent == null) {
-							if(child instanceof LoopPart) {	
-								ret[0] = nullConstant;
-								changed[0] = true;
-							} else if(child instanceof OrPart) {
-								List<Node> children = ((OrPart)child).getChildNodes();
-								if(children.isEmpty()) {
-									ret[0] = nullConstant;
-									swaps.put(child, nullConstant);
-									changed[0] = true;
-								} else if(children.size() == 1) {
-									ret[0] = children.get(0).getPart();
-									swaps.put(child, children.get(0).getPart());
-									changed[0] = true;
-								}
-							} else if(child instanceof AppendPart) {
-								List<Node> children = ((AppendPart)child).getChildNodes();
-								if(children.isEmpty()) {
-									ret[0] = nullConstant;
-									swaps.put(child, nullConstant);
-									changed[0] = true;
-								} else if(children.size() == 1) {
-									ret[0] = children.get(0).getPart();
-									swaps.put(child, children.get(0).getPart());
-									changed[0] = true;
-								}
-							} else if(child instanceof NormalizePart || child instanceof NamePart || child instanceof ParentPart 
-									|| child instanceof EnvVarPart || child instanceof SysVarPart) {
-								if(((BranchPart)child).getChildren().isEmpty()) {
-									ret[0] = nullConstant;
-									swaps.put(child, nullConstant);
-									changed[0] = true;
-								}
-							}
-						} else if(parent instanceof BranchPart) {
-							if(child instanceof NullConstantPart) {
-								if(((BranchPart)parent).removeChild(childNode)) {
-									swaps.put(child, null);
-									changed[0] = true;
-								}
-							} else if(child instanceof LoopPart) {
-								if(((LoopPart)child).getChildren().isEmpty()) {
-									((BranchPart)parent).removeChild(childNode);
-									changed[0] = true;
-								} else {
-									loops.put(((LoopPart)child).getLoopStart(),((LoopPart)child));
-								}
-							} else if(child instanceof NormalizePart || child instanceof NamePart || child instanceof ParentPart 
-									|| child instanceof EnvVarPart || child instanceof SysVarPart) {
-								if(((BranchPart)child).getChildren().isEmpty()) {
-									if(((BranchPart)parent).removeChild(childNode)) {
-										swaps.put(child, null);
-										changed[0] = true;
-									}
-								}
-							} else if(child instanceof OrPart) {
-								List<Node> children = ((OrPart)child).getChildNodes();
-								if(children.isEmpty()) {
-									if(((BranchPart)parent).removeChild(childNode)) {
-										swaps.put(child, null);
-										changed[0] = true;
-									}
-								} else if(children.size() == 1) {
-									if(((BranchPart)parent).swapChild(childNode, children.get(0))) {
-										swaps.put(child, children.get(0).getPart());
-										changed[0] = true;
-									}
-								} else { //If the parent is also an or child then it will merge otherwise nothing happens
-									if(((BranchPart)parent).mergeChild(childNode)) {
-										swaps.put(child, parent);
-										changed[0] = true;
-									}
-								}
-							} else if(child instanceof AppendPart) {
-								List<Node> children = ((AppendPart)child).getChildNodes();
-								if(children.isEmpty()) {
-									if(((BranchPart)parent).removeChild(childNode)) {
-										swaps.put(child, null);
-										changed[0] = true;
-									}
-								} else if(children.size() == 1) {
-									if(((BranchPart)parent).swapChild(childNode, children.get(0))) {
-										swaps.put(child, children.get(0).getPart());
-										changed[0] = true;
-									}
-								} else { //If the parent is also an or child then it will merge otherwise nothing happens
-									if(((BranchPart)parent).mergeChild(childNode)) {
-										swaps.put(child, parent);
-										changed[0] = true;
-									}
-								}
-							}
-						} else {
-							logger.warn("{}: Simplifying, encountered a parent Part that is not a BranchPart!?!\n\tParent:{}\n\tChild:{}\n\tStart:{}\n{}",
-									cn, parent.toString(), child.toString(), in.toString(), FilePathExtractingRunnable.this.toString("\t"));
+			private Part root;
+			private final Map<Part,List<BranchPart>> parents;
+			private final Map<Part,List<LoopPart>> loopsByStart;
+			private final ArrayDeque<BranchPart> worklist;
+			private final Set<BranchPart> queued;
+			private final boolean budgeted;
+			
+			private Simplifier(Part root) {
+				this.root = root;
+				this.budgeted = !truncated;
+				this.parents = new IdentityHashMap<>();
+				this.loopsByStart = new IdentityHashMap<>();
+				this.worklist = new ArrayDeque<>();
+				this.queued = Collections.newSetFromMap(new IdentityHashMap<BranchPart,Boolean>());
+				//Post order so the children of a branch are visited before the branch
+				root.visitPostOrder(new Part.Visitor() {
+					public void visit(Part parent, Node node, int index) {
+						Part child = node.getPart();
+						if(parent != null)
+							addParent(child, (BranchPart)parent);
+						if(child instanceof LoopPart) {
+							Part start = ((LoopPart)child).getLoopStart();
+							if(start != null)
+								addLoop(start, (LoopPart)child);
+						} else if(child instanceof BranchPart) {
+							enqueue((BranchPart)child);
 						}
 					}
 				});
-				
-				if(!loops.isEmpty() && !swaps.isEmpty()) {
-					Set<LoopPart> emptyLoops = new HashSet<>();
-					for(Part orgSwp : swaps.keySet()) {
-						LoopPart part = loops.get(orgSwp);
-						if(part != null) {
-							Part newSwp = swaps.get(orgSwp);
-							Node childNode = part.getLoopStartNode();
-							if(childNode == null) {
-								emptyLoops.add(part);
-							} else {
-								if(newSwp == null) {
-									if(part.removeChild(childNode))
-										emptyLoops.add(part);
-								} else {
-									part.swapChild(childNode, newSwp);
-								}
+			}
+			
+			private Part run() {
+				while(true) {
+					while(!worklist.isEmpty()) {
+						//Every rewrite leaves a valid Part so stopping early only leaves the Part less simplified
+						//The root is still simplified as that only ever replaces it with one of its children
+						if(budgeted && checkBudget("Stopping the simplification of the resolved parts"))
+							break;
+						BranchPart cur = worklist.poll();
+						queued.remove(cur);
+						simplifyChildren(cur);
+					}
+					Part newRoot = simplifyRoot(root);
+					if(newRoot == root)
+						return root;
+					if(!(root instanceof LoopPart))
+						rewritten(root, newRoot);
+					root = newRoot;
+				}
+			}
+			
+			private Part simplifyRoot(Part cur) {
+				if(cur instanceof LoopPart) {
+					return nullConstant;
+				} else if(cur instanceof OrPart || cur instanceof AppendPart) {
+					List<Node> children = ((BranchPart)cur).getChildNodes();
+					if(children.isEmpty())
+						return nullConstant;
+					else if(children.size() == 1)
+						return children.get(0).getPart();
+				} else if(cur instanceof NormalizePart || cur instanceof NamePart || cur instanceof ParentPart 
+						|| cur instanceof EnvVarPart || cur instanceof SysVarPart) {
+					if(((BranchPart)cur).getChildren().isEmpty())
+						return nullConstant;
+				}
+				return cur;
+			}
+			
+			private void simplifyChildren(BranchPart parent) {
+				boolean changed = false;
+				for(Node childNode : new ArrayList<>(parent.getChildNodes())) {
+					Part child = childNode.getPart();
+					if(child instanceof NullConstantPart) {
+						if(parent.removeChild(childNode)) {
+							rewritten(child, null);
+							changed = true;
+						}
+					} else if(child instanceof LoopPart) {
+						if(((LoopPart)child).getChildren().isEmpty())
+							changed |= parent.removeChild(childNode);
+					} else if(child instanceof NormalizePart || child instanceof NamePart || child instanceof ParentPart 
+							|| child instanceof EnvVarPart || child instanceof SysVarPart) {
+						if(((BranchPart)child).getChildren().isEmpty()) {
+							if(parent.removeChild(childNode)) {
+								rewritten(child, null);
+								changed = true;
 							}
 						}
-					}
-					
-					if(!emptyLoops.isEmpty()) {
-						ret[0].getPostOrderIterator().forEachRemaining(new Consumer<Pair<Part,Node>>() {
-							public void accept(Pair<Part,Node> t) {
-								Part parent = t.getFirst();
-								Node childNode = t.getSecond();
-								Part child = childNode.getPart();
-								if(parent == null) {
-									if(emptyLoops.contains(child))
-										ret[0] = nullConstant;
-								} else if(parent instanceof BranchPart) {
-									if(emptyLoops.contains(child))
-										((BranchPart)parent).removeChild(childNode);
-								} else {
-									logger.warn("{}: Simplifying 2, encountered a parent Part that is not a BranchPart!?!\n\tParent:{}\n\tChild:{}\n\tStart:{}\n{}",
-											cn, parent.toString(), child.toString(), in.toString(), FilePathExtractingRunnable.this.toString("\t"));
-								}
+					} else if(child instanceof OrPart || child instanceof AppendPart) {
+						List<Node> children = ((BranchPart)child).getChildNodes();
+						if(children.isEmpty()) {
+							if(parent.removeChild(childNode)) {
+								rewritten(child, null);
+								changed = true;
 							}
-						});
+						} else if(children.size() == 1) {
+							Part grandChild = children.get(0).getPart();
+							if(parent.swapChild(childNode, children.get(0))) {
+								addParent(grandChild, parent);
+								rewritten(child, grandChild);
+								changed = true;
+							}
+						} else { //If the parent is also an or child then it will merge otherwise nothing happens
+							List<Part> grandChildren = new ArrayList<>(((BranchPart)child).getChildren());
+							if(parent.mergeChild(childNode)) {
+								for(Part grandChild : grandChildren)
+									addParent(grandChild, parent);
+								rewritten(child, parent);
+								changed = true;
+							}
+						}
 					}
 				}
-				if(count > 100) {
-					logger.warn("{}: Simplifying, is stuck in a loop it {}.\n\tStart:{}\n{}",
-							cn, count, in.toString(), FilePathExtractingRunnable.this.toString("\t"));
+				if(changed) {
+					//The new children of the parent may be rewritable and the parent may now be rewritable in its parents
+					enqueue(parent);
+					enqueueParents(parent);
 				}
-				count++;
-			} while(changed[0]);
-			
-			return ret[0];
-		}
-		
-		private String adjListsToString(Map<PHPart,Pair<Part,LinkedHashSet<PHPart>>> adjLists) {
-			StringBuilder sb = new StringBuilder();
-			boolean first = true;
-			for(PHPart p : adjLists.keySet()) {
-				Pair<Part,LinkedHashSet<PHPart>> pair = adjLists.get(p);
-				if(first)
-					first = false;
-				else
-					sb.append("\n");
-				sb.append("\tNode: ").append(p).append("\n");
-				sb.append("\t\tPair: ").append(pair.getFirst()).append("\n");
-				sb.append("\t\tAdjList: ").append(pair.getSecond());
 			}
-			return sb.toString();
-		}
-		
-		//Substitute all ImdData references pointing to leaf Parts (parts with no other ImdData references) with their references in other instances
-		//If this causes these ImdData references to point to leaf Parts the repeat the process
-		private void preformSubstitution(Map<PHPart, Pair<Part, LinkedHashSet<PHPart>>> adjLists, 
-				Map<PHPart,Part> leafs, Map<PHPart,Part> curLeafs) {
-			Map<PHPart,Part> newLeafs = new HashMap<>();
-			while(!curLeafs.isEmpty()) {
-				for(Iterator<PHPart> itAdjLists = adjLists.keySet().iterator(); itAdjLists.hasNext();) {
-					PHPart node = itAdjLists.next();
-					Pair<Part,LinkedHashSet<PHPart>> pair = adjLists.get(node);
-					Part[] start = {pair.getFirst()};
-					Set<PHPart> adjList = pair.getSecond();
-					Set<PHPart> toRemove = new HashSet<>();
-					Map<PHPart,Part> curLeafsTemp = curLeafs;
-					start[0].getIterator().forEachRemaining(new Consumer<Pair<Part,Node>>() {
-						public void accept(Pair<Part,Node> p) {
-							Part parent = p.getFirst();
-							Node childNode = p.getSecond();
-							Part child = childNode.getPart();
-							if(child instanceof PHPart) {
-								Part leafData = curLeafsTemp.get(child);
-								if(leafData != null) {
-									if(parent == null) {
-										//The start data is the ImdData so there can only be one
-										//Setting the start data to the leaf data for this ImdData object
-										start[0] = leafData;
-									} else if(parent instanceof BranchPart) {
-										//At this point in the analysis there should not be loop parts but even if there are
-										//they should not contain a instance of ImdData as their child
-										//For all others we simply swap out the ImdData node with the actual leaf data start point
-										if(!(parent instanceof LoopPart))
-											((BranchPart)parent).swapChild(childNode, leafData);
-									} else {
-										logger.warn("{}: Subbing leaf data, encountered a parent Part that is not a BranchPart!?!\n\tParent:{}\n\tChild:{}\n{}\n{}",
-												cn, parent.toString(), child.toString(), adjListsToString(adjLists), FilePathExtractingRunnable.this.toString("\t"));
-									}
-									toRemove.add((PHPart)child);
-								}
-							}
+			
+			/* Moves the loops starting at the rewritten part to its replacement or empties them if it was removed. The
+			 * parents of an emptied loop are revisited so the loop gets removed.
+			 */
+			private void rewritten(Part orgPart, Part newPart) {
+				List<LoopPart> loops = loopsByStart.remove(orgPart);
+				if(loops != null) {
+					for(LoopPart loop : loops) {
+						Node startNode = loop.getLoopStartNode();
+						if(startNode == null) {
+							enqueueParents(loop);
+						} else if(newPart == null) {
+							if(loop.removeChild(startNode))
+								enqueueParents(loop);
+						} else {
+							loop.swapChild(startNode, newPart);
+							addLoop(newPart, loop);
 						}
-					});
-					adjList.removeAll(toRemove);
-					if(adjList.isEmpty()) {
-						leafs.put(node, start[0]);
-						newLeafs.put(node, start[0]);
-						itAdjLists.remove();
 					}
 				}
-				curLeafs = newLeafs;
-				newLeafs = new HashMap<>();
 			}
+			
+			private void enqueue(BranchPart part) {
+				if(!(part instanceof LoopPart) && queued.add(part))
+					worklist.add(part);
+			}
+			
+			private void enqueueParents(Part part) {
+				List<BranchPart> temp = parents.get(part);
+				if(temp != null) {
+					for(BranchPart parent : temp)
+						enqueue(parent);
+				}
+			}
+			
+			private void addParent(Part child, BranchPart parent) {
+				List<BranchPart> temp = parents.get(child);
+				if(temp == null) {
+					temp = new ArrayList<>();
+					parents.put(child, temp);
+				}
+				temp.add(parent);
+			}
+			
+			private void addLoop(Part start, LoopPart loop) {
+				List<LoopPart> temp = loopsByStart.get(start);
+				if(temp == null) {
+					temp = new ArrayList<>();
+					loopsByStart.put(start, temp);
+				}
+				temp.add(loop);
+			}
+			
 		}
 		
 	}
@@ -0,0 +1,88 @@
+package org.sag.fred.phases.fileactions;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.sag.acminer.phases.entrypoints.EntryPoint;
+import org.sag.fred.database.filepaths.parts.Part;
+import org.sag.fred.phases.fileactions.PHPartResolutionCache.Resolution;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+/** A thread safe cache of the summaries of the return values of methods. A summary is the fully resolved
+ * Part describing the values a method may return where any value flowing in from one of the method's own
+ * parameters is represented by a {@link org.sag.fred.database.filepaths.parts.AnyPartImpl.AnyEPArgPart}
+ * for that parameter. A summary is computed once per method and then instantiated at each call site by
+ * replacing these parameter parts with the arguments of the call. Like {@link PHPartResolutionCache},
+ * summaries that consulted the call graph of an entry point's ICFG are only stored for that entry point.
+ * <br><br>
+ * Methods that are part of a recursive cycle of return values cannot be summarized bottom-up and are
+ * recorded so that their return values are always resolved on demand.
+ */
+public class MethodSummaryCache {
+
+	private final ConcurrentMap<String,Resolution> shared;
+	private final LoadingCache<EntryPoint,ConcurrentMap<String,Resolution>> byContext;
+	private final Set<String> recursive;
+	private final AtomicLong hits;
+	private final AtomicLong misses;
+
+	public MethodSummaryCache() {
+		this.shared = new ConcurrentHashMap<>();
+		this.byContext = CacheBuilder.newBuilder().softValues().build(new CacheLoader<EntryPoint,ConcurrentMap<String,Resolution>>() {
+			@Override
+			public ConcurrentMap<String,Resolution> load(EntryPoint ep) throws Exception {
+				return new ConcurrentHashMap<>();
+			}
+		});
+		this.recursive = Collections.newSetFromMap(new ConcurrentHashMap<String,Boolean>());
+		this.hits = new AtomicLong();
+		this.misses = new AtomicLong();
+	}
+
+	/** Returns the summary of the method for the exclusion context of the given entry point or null if
+	 * the method has not been summarized yet.
+	 */
+	public Resolution get(EntryPoint ep, String methodSig) {
+		Resolution ret = shared.get(methodSig);
+		if(ret == null) {
+			ConcurrentMap<String,Resolution> context = byContext.getIfPresent(ep);
+			if(context != null)
+				ret = context.get(methodSig);
+		}
+		if(ret == null)
+			misses.incrementAndGet();
+		else
+			hits.incrementAndGet();
+		return ret;
+	}
+
+	/** Records the summary of the method. The part given is copied so the caller may continue to modify it. */
+	public void put(EntryPoint ep, String methodSig, Part summary, boolean contextDependent) {
+		Resolution res = new Resolution(summary, Collections.emptyList(), contextDependent);
+		if(contextDependent)
+			byContext.getUnchecked(ep).putIfAbsent(methodSig, res);
+		else
+			shared.putIfAbsent(methodSig, res);
+	}
+
+	public void markRecursive(String methodSig) {
+		recursive.add(methodSig);
+	}
+
+	/** True if the method is part of a recursive cycle and so cannot be summarized. */
+	public boolean isRecursive(String methodSig) {
+		return recursive.contains(methodSig);
+	}
+
+	public String getStatistics() {
+		return "Summary Hits: " + hits.get() + ", Summary Misses: " + misses.get() + ", Shared Summaries: " + shared.size()
+			+ ", Recursive Methods: " + recursive.size();
+	}
+
+}
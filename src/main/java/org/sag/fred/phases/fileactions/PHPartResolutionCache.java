@@ -0,0 +1,139 @@
+package org.sag.fred.phases.fileactions;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.sag.acminer.phases.entrypoints.EntryPoint;
+import org.sag.fred.database.filepaths.parts.PHPart;
+import org.sag.fred.database.filepaths.parts.Part;
+import org.sag.fred.database.filepaths.parts.Part.Node;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+
+/** A thread safe cache of the one step resolution of a {@link PHPart} (i.e. the Part describing the
+ * possible values of the placeholder in terms of constants and other placeholders) shared by all
+ * seeds being extracted. A resolution that only depended on the bodies of the methods involved is
+ * shared across all entry points. A resolution that consulted the call graph of an entry point's
+ * ICFG (i.e. callers, callees, reachable methods, or the entry point itself) is only valid for ICFG
+ * with the same exclusion context and so is stored under the entry point of that ICFG. The entry
+ * point caches are softly referenced so they can be reclaimed under memory pressure.
+ * <br><br>
+ * The Parts stored are private copies. Every lookup returns a fresh copy so the callers are free
+ * to modify the returned Part.
+ */
+public class PHPartResolutionCache {
+
+	private final ConcurrentMap<PHPart,Resolution> shared;
+	private final LoadingCache<EntryPoint,ConcurrentMap<PHPart,Resolution>> byContext;
+	private final AtomicLong sharedHits;
+	private final AtomicLong contextHits;
+	private final AtomicLong misses;
+
+	public PHPartResolutionCache() {
+		this.shared = new ConcurrentHashMap<>();
+		this.byContext = CacheBuilder.newBuilder().softValues().build(new CacheLoader<EntryPoint,ConcurrentMap<PHPart,Resolution>>() {
+			@Override
+			public ConcurrentMap<PHPart,Resolution> load(EntryPoint ep) throws Exception {
+				return new ConcurrentHashMap<>();
+			}
+		});
+		this.sharedHits = new AtomicLong();
+		this.contextHits = new AtomicLong();
+		this.misses = new AtomicLong();
+	}
+
+	/** Returns the cached resolution of the placeholder for the exclusion context of the given entry point
+	 * or null if the placeholder has not been resolved yet.
+	 */
+	public Resolution get(EntryPoint ep, PHPart placeholder) {
+		Resolution ret = shared.get(placeholder);
+		if(ret != null) {
+			sharedHits.incrementAndGet();
+			return ret;
+		}
+		ConcurrentMap<PHPart,Resolution> context = byContext.getIfPresent(ep);
+		if(context != null) {
+			ret = context.get(placeholder);
+			if(ret != null) {
+				contextHits.incrementAndGet();
+				return ret;
+			}
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+	/** Records the resolution of the placeholder and the placeholders it references that need resolving.
+	 * If contextDependent is true the resolution is only recorded for the exclusion context of the given
+	 * entry point. The part given is copied so the caller may continue to modify it.
+	 */
+	public void put(EntryPoint ep, PHPart placeholder, Part part, Collection<PHPart> next, boolean contextDependent) {
+		Resolution res = new Resolution(part, next, contextDependent);
+		if(contextDependent)
+			byContext.getUnchecked(ep).putIfAbsent(placeholder, res);
+		else
+			shared.putIfAbsent(placeholder, res);
+	}
+
+	public long getSharedHits() {
+		return sharedHits.get();
+	}
+
+	public long getContextHits() {
+		return contextHits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public String getStatistics() {
+		return "Shared Hits: " + sharedHits.get() + ", Entry Point Hits: " + contextHits.get() + ", Misses: " + misses.get()
+			+ ", Shared Entries: " + shared.size();
+	}
+
+	public static final class Resolution {
+
+		private final Part part;
+		private final List<PHPart> next;
+		private final boolean contextDependent;
+
+		Resolution(Part part, Collection<PHPart> next, boolean contextDependent) {
+			this.part = part.clonePart();
+			this.next = ImmutableList.copyOf(next);
+			this.contextDependent = contextDependent;
+			//Force any lazily computed state (i.e. the contents of OrPart) to be computed now before the
+			//part is published to other threads so that later lookups only ever read the stored part
+			this.part.hashCode();
+			this.part.visitPreOrder(new Part.Visitor() {
+				@Override
+				public void visit(Part parent, Node node, int index) {
+					node.getPart().hashCode();
+				}
+			});
+		}
+
+		/** Returns a new copy of the resolved part. */
+		public Part getPart() {
+			return part.clonePart();
+		}
+
+		/** The placeholders referenced by the resolved part that need to be resolved themselves. */
+		public List<PHPart> getNext() {
+			return next;
+		}
+		
+		/** True if the resolution is only valid for the exclusion context of the entry point it was recorded under. */
+		public boolean isContextDependent() {
+			return contextDependent;
+		}
+
+	}
+
+}
@@ -0,0 +1,108 @@
+package org.sag.fred.phases.fileactions;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/** The limits on the work done when extracting the file paths of a single seed. A seed exceeds its budget once the
+ * wall time spent on it, the number of placeholders it has resolved, or the number of nodes in the Parts of these
+ * resolutions exceeds the corresponding limit. A limit of 0 or less is no limit. When a seed exceeds its budget, the
+ * placeholders it has yet to resolve are replaced by the AnyPart or UnknownPart matching the kind of the placeholder
+ * and the seed is marked as truncated. The budget is also checked while the resolved Parts are simplified, including
+ * those of the method summaries resolved for the seed, which stops the simplification early.
+ * <br><br>
+ * The limits are read from a file of 'Key: Value' lines where the keys are {@link #keyTimeLimit} (in seconds),
+ * {@link #keyPlaceholderLimit}, and {@link #keyPartLimit}. Blank lines and lines starting with '//' are ignored and
+ * any limit not given keeps its default value.
+ */
+public final class SeedBudget {
+
+	public static final String keyTimeLimit = "TimeLimit";
+	public static final String keyPlaceholderLimit = "PlaceholderLimit";
+	public static final String keyPartLimit = "PartLimit";
+
+	public static final long defaultTimeLimit = 600;
+	public static final int defaultPlaceholderLimit = 50000;
+	public static final int defaultPartLimit = 2000000;
+
+	private final long timeLimit;
+	private final int placeholderLimit;
+	private final int partLimit;
+
+	public SeedBudget() {
+		this(defaultTimeLimit, defaultPlaceholderLimit, defaultPartLimit);
+	}
+
+	/** The time limit is in seconds. */
+	public SeedBudget(long timeLimit, int placeholderLimit, int partLimit) {
+		this.timeLimit = timeLimit;
+		this.placeholderLimit = placeholderLimit;
+		this.partLimit = partLimit;
+	}
+
+	/** Returns the budget given in the file or the default budget if the file does not exist. */
+	public static SeedBudget readFile(Path path) throws IOException {
+		long timeLimit = defaultTimeLimit;
+		int placeholderLimit = defaultPlaceholderLimit;
+		int partLimit = defaultPartLimit;
+		if(path != null && Files.exists(path)) {
+			try(BufferedReader br = Files.newBufferedReader(path)) {
+				String s;
+				while((s = br.readLine()) != null) {
+					s = s.trim();
+					if(s.isEmpty() || s.startsWith("//"))
+						continue;
+					int index = s.indexOf(':');
+					if(index < 0)
+						throw new IOException("Malformed seed budget entry '" + s + "' in '" + path + "'.");
+					String key = s.substring(0, index).trim();
+					String value = s.substring(index + 1).trim();
+					try {
+						if(key.equals(keyTimeLimit))
+							timeLimit = Long.parseLong(value);
+						else if(key.equals(keyPlaceholderLimit))
+							placeholderLimit = Integer.parseInt(value);
+						else if(key.equals(keyPartLimit))
+							partLimit = Integer.parseInt(value);
+						else
+							throw new IOException("Unknown seed budget key '" + key + "' in '" + path + "'.");
+					} catch(NumberFormatException e) {
+						throw new IOException("Malformed seed budget value '" + value + "' for key '" + key + "' in '" + path + "'.", e);
+					}
+				}
+			}
+		}
+		return new SeedBudget(timeLimit, placeholderLimit, partLimit);
+	}
+
+	/** True if the given amount of work exceeds the budget. The start time is in milliseconds. */
+	public boolean isExceeded(long startTime, int placeholders, int parts) {
+		return (timeLimit > 0 && System.currentTimeMillis() - startTime > timeLimit * 1000)
+				|| (placeholderLimit > 0 && placeholders > placeholderLimit)
+				|| (partLimit > 0 && parts > partLimit);
+	}
+
+	/** True if the number of nodes in the resolved Parts needs to be counted. */
+	public boolean hasPartLimit() {
+		return partLimit > 0;
+	}
+
+	public long getTimeLimit() {
+		return timeLimit;
+	}
+
+	public int getPlaceholderLimit() {
+		return placeholderLimit;
+	}
+
+	public int getPartLimit() {
+		return partLimit;
+	}
+
+	@Override
+	public String toString() {
+		return keyTimeLimit + ": " + timeLimit + ", " + keyPlaceholderLimit + ": " + placeholderLimit + ", " + keyPartLimit + ": " + partLimit;
+	}
+
+}
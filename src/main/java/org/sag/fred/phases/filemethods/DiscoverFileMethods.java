@@ -7,6 +7,8 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -18,6 +20,7 @@ import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 import org.sag.acminer.database.excludedelements.IExcludeHandler;
 import org.sag.acminer.database.excludedelements.IExcludedElementsDatabase;
@@ -40,6 +43,8 @@ import org.sag.soot.SootSort;
 import org.sag.fred.IFredDataAccessor;
 import org.sag.fred.database.filemethods.FileMethod;
 import org.sag.fred.database.filemethods.IFileMethodsDatabase;
+import org.sag.fred.phases.CallGraphSnapshot;
+import org.sag.fred.phases.ChunkedTaskSubmitter;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -67,6 +72,7 @@ public class DiscoverFileMethods {
 	private final Path javaAPIFileMethodsFile;
 	private final Path androidAPIFileMethodsFile;
 	private final Path rootPath;
+	private final boolean reverseDiscovery;
 	
 	private final boolean debugJavaEnabled;
 	private final boolean debugAndroidEnabled;
@@ -84,6 +90,16 @@ public class DiscoverFileMethods {
 	public DiscoverFileMethods(IFredDataAccessor dataAccessor, IExcludedElementsDatabase excludeDB, IExcludedElementsDatabase javaAPIIndicatorDB,
                                List<Path> externalDep, Path nativeFileAccessMethodsFile, Path javaAPIFileMethodsFile, Path androidAPIFileMethodsFile, Path rootPath,
                                Path debugDir, ILogger logger) {
+		this(dataAccessor, excludeDB, javaAPIIndicatorDB, externalDep, nativeFileAccessMethodsFile, javaAPIFileMethodsFile, 
+				androidAPIFileMethodsFile, rootPath, debugDir, false, logger);
+	}
+	
+	/** If reverseDiscovery is true, the API methods that reach a sink are found by walking the call graph backwards
+	 * from the sinks once instead of walking it forward from every API method. See {@link SinkReachability}.
+	 */
+	public DiscoverFileMethods(IFredDataAccessor dataAccessor, IExcludedElementsDatabase excludeDB, IExcludedElementsDatabase javaAPIIndicatorDB,
+                               List<Path> externalDep, Path nativeFileAccessMethodsFile, Path javaAPIFileMethodsFile, Path androidAPIFileMethodsFile, Path rootPath,
+                               Path debugDir, boolean reverseDiscovery, ILogger logger) {
 		this.logger = logger;
 		this.dataAccessor = dataAccessor;
 		this.db = null;
@@ -95,6 +111,7 @@ public class DiscoverFileMethods {
 		this.javaAPIFileMethodsFile = javaAPIFileMethodsFile;
 		this.androidAPIFileMethodsFile = androidAPIFileMethodsFile;
 		this.rootPath = rootPath;
+		this.reverseDiscovery = reverseDiscovery;
 		
 		this.debugJavaEnabled = false;
 		this.debugAndroidEnabled = false;
@@ -228,12 +245,18 @@ public class DiscoverFileMethods {
 				}
 				sinks = ImmutableMap.copyOf(sinks);
 				
-				for(SootMethod javaAPIEP : javaAPIEntryPoints) {
-					exe.execute(new DiscoverFileMethodsRunner(javaAPIEP, sinks, FileMethod.javaAPIStr, null, nonAPISinkMethods, false));
+				if(reverseDiscovery && !debugJavaEnabled) {
+					runReverseDiscovery(javaAPIEntryPoints, sinks, nonAPISinkMethods, FileMethod.javaAPIStr);
+				} else {
+					List<DiscoverFileMethodsRunner> runners = new ArrayList<>();
+					for(SootMethod javaAPIEP : javaAPIEntryPoints) {
+						runners.add(new DiscoverFileMethodsRunner(javaAPIEP, sinks, FileMethod.javaAPIStr, null, nonAPISinkMethods, false));
+					}
+					ChunkedTaskSubmitter.execute(exe, runners, runChunk);
+					
+					exe.awaitCompletion();
 				}
 				
-				exe.awaitCompletion();
-				
 				Set<FileMethod> javaAPINoNative = db.getJavaAPIMethods();
 				javaAPINoNative.removeAll(db.getNativeMethods());
 				db.writePartsTXT(javaAPIFileMethodsFile, javaAPINoNative, "Java API", FileHelpers.genFileHashList(externalDep, rootPath));
@@ -258,6 +281,29 @@ public class DiscoverFileMethods {
 		logger.info("{}: Successfully discovered all file methods for the Java API.",cn);
 	}
 	
+	/** Records every API method that reaches a sink using a single backwards walk from the sinks. The edge filters only
+	 * consult the exclusions that apply to all methods so the filter of any one API method is the filter of them all.
+	 */
+	private void runReverseDiscovery(Set<SootMethod> apiEntryPoints, Map<SootMethod,FileMethod> sinks, 
+			Map<SootMethod,boolean[]> nonAPISinkMethods, String apiType) {
+		if(apiEntryPoints.isEmpty())
+			return;
+		SootMethod any = apiEntryPoints.iterator().next();
+		EdgePredicate edgePred = getEdgePredicate(apiType, any, sinks.keySet(), 
+				nonAPISinkMethods == null ? ImmutableSet.<SootMethod>of() : nonAPISinkMethods.keySet());
+		SinkReachability reachability = new SinkReachability(sinks, nonAPISinkMethods, edgePred, Scene.v().getCallGraph());
+		logger.info("{}: Found {} methods in {} components that reach a sink for {}.",cn,reachability.getMethodCount(),
+				reachability.getComponentCount(),apiType);
+		for(SootMethod ep : apiEntryPoints) {
+			if(reachability.reachesSink(ep)) {
+				FileMethod m = db.add(ep, reachability.getActions(ep), apiType);
+				Set<FileMethod> reached = reachability.getSinks(ep);
+				if(!reached.isEmpty())
+					m.setSinks(SortingMethods.sortSet(reached));
+			}
+		}
+	}
+	
 	private final int digits(int n) {
 		int len = String.valueOf(n).length();
 		if(n < 0)
@@ -285,12 +331,18 @@ public class DiscoverFileMethods {
 				}
 				sinks = ImmutableMap.copyOf(sinks);
 				
-				for(SootMethod androidAPIEP : androidAPIEntryPoints) {
-					exe.execute(new DiscoverFileMethodsRunner(androidAPIEP, sinks, FileMethod.androidAPIStr, null, nonAPISinkMethods, false));
+				if(reverseDiscovery && !debugAndroidEnabled) {
+					runReverseDiscovery(androidAPIEntryPoints, sinks, nonAPISinkMethods, FileMethod.androidAPIStr);
+				} else {
+					List<DiscoverFileMethodsRunner> runners = new ArrayList<>();
+					for(SootMethod androidAPIEP : androidAPIEntryPoints) {
+						runners.add(new DiscoverFileMethodsRunner(androidAPIEP, sinks, FileMethod.androidAPIStr, null, nonAPISinkMethods, false));
+					}
+					ChunkedTaskSubmitter.execute(exe, runners, runChunk);
+					
+					exe.awaitCompletion();
 				}
 				
-				exe.awaitCompletion();
-				
 				Set<FileMethod> androidAPINoNative = db.getAndroidAPIMethods();
 				androidAPINoNative.removeAll(db.getNativeMethods());
 				db.writePartsTXT(androidAPIFileMethodsFile, androidAPINoNative, "Android API", FileHelpers.genFileHashList(javaAndExtDep, rootPath));
@@ -1107,58 +1159,89 @@ public class DiscoverFileMethods {
 		return nonAPISinkMethods;
 	}
 	
-	private static class JavaAPIEdgeFilter extends Filter {
-		
-		public JavaAPIEdgeFilter(Set<SootClass> androidClasses, IExcludeHandler excludeHandler, Set<SootMethod> sinks, Set<SootMethod> nonAPISinks) {
-			super(new EdgePredicate() {
-				@Override
-				public boolean want(Edge e) {
-					if(e.kind().isExplicit() && !excludeHandler.isExcludedMethod(e.src()) && !sinks.contains(e.src()) && !nonAPISinks.contains(e.src())) {
-						if(androidClasses.contains(e.tgt().getDeclaringClass())) {
-							return androidClasses.contains(e.srcStmt().getInvokeExpr().getMethodRef().declaringClass());
-						}
-						return true;
-					}
-					return false;
+	private static class JavaAPIEdgePredicate implements EdgePredicate {
+		
+		private final Set<SootClass> androidClasses;
+		private final IExcludeHandler excludeHandler;
+		private final Set<SootMethod> sinks;
+		private final Set<SootMethod> nonAPISinks;
+		
+		public JavaAPIEdgePredicate(Set<SootClass> androidClasses, IExcludeHandler excludeHandler, Set<SootMethod> sinks, Set<SootMethod> nonAPISinks) {
+			this.androidClasses = androidClasses;
+			this.excludeHandler = excludeHandler;
+			this.sinks = sinks;
+			this.nonAPISinks = nonAPISinks;
+		}
+		
+		@Override
+		public boolean want(Edge e) {
+			if(e.kind().isExplicit() && !excludeHandler.isExcludedMethod(e.src()) && !sinks.contains(e.src()) && !nonAPISinks.contains(e.src())) {
+				if(androidClasses.contains(e.tgt().getDeclaringClass())) {
+					return androidClasses.contains(e.srcStmt().getInvokeExpr().getMethodRef().declaringClass());
 				}
-			});
+				return true;
+			}
+			return false;
 		}
 		
 	}
 	
-	private static class AndroidAPIEdgeFilter extends Filter {
-		public AndroidAPIEdgeFilter(Set<SootMethod> binderRelatedMethods, Set<SootClass> androidClasses, IExcludeHandler excludeHandler, 
+	private static class AndroidAPIEdgePredicate implements EdgePredicate {
+		
+		private final Set<SootMethod> binderRelatedMethods;
+		private final Set<SootClass> androidClasses;
+		private final IExcludeHandler excludeHandler;
+		private final Set<SootMethod> sinks;
+		private final Set<SootMethod> nonAPISinks;
+		
+		public AndroidAPIEdgePredicate(Set<SootMethod> binderRelatedMethods, Set<SootClass> androidClasses, IExcludeHandler excludeHandler, 
 				Set<SootMethod> sinks, Set<SootMethod> nonAPISinks) {
-			super(new EdgePredicate() {
-				@Override
-				public boolean want(Edge e) {
-					return e.kind().isExplicit() && androidClasses.contains(e.src().getDeclaringClass()) 
-							&& !excludeHandler.isExcludedMethod(e.src()) && !sinks.contains(e.src())
-							&& !nonAPISinks.contains(e.src()) && !binderRelatedMethods.contains(e.src());
-				}
-			});
+			this.binderRelatedMethods = binderRelatedMethods;
+			this.androidClasses = androidClasses;
+			this.excludeHandler = excludeHandler;
+			this.sinks = sinks;
+			this.nonAPISinks = nonAPISinks;
 		}
+		
+		@Override
+		public boolean want(Edge e) {
+			return e.kind().isExplicit() && androidClasses.contains(e.src().getDeclaringClass()) 
+					&& !excludeHandler.isExcludedMethod(e.src()) && !sinks.contains(e.src())
+					&& !nonAPISinks.contains(e.src()) && !binderRelatedMethods.contains(e.src());
+		}
+		
 	}
 	
-	private final Filter getFilter(String apiType, SootMethod ep, Set<SootMethod> sinks, Set<SootMethod> nonAPISinks) {
+	private final EdgePredicate getEdgePredicate(String apiType, SootMethod ep, Set<SootMethod> sinks, Set<SootMethod> nonAPISinks) {
 		if(apiType.equals(FileMethod.javaAPIStr)) {
-			return new JavaAPIEdgeFilter(javaAPIIndicatorDB.getSootExcludedClasses(), excludeDB.createNewExcludeHandler(new EntryPoint(ep,ep.getDeclaringClass())), sinks, nonAPISinks);
+			return new JavaAPIEdgePredicate(javaAPIIndicatorDB.getSootExcludedClasses(), excludeDB.createNewExcludeHandler(new EntryPoint(ep,ep.getDeclaringClass())), sinks, nonAPISinks);
 		} else {
 			Set<SootMethod> binderRelatedMethods = new HashSet<>();
 			binderRelatedMethods.addAll(dataAccessor.getEntryPointsAsSootMethods());
 			binderRelatedMethods.addAll(dataAccessor.getBinderInterfaceMethodsToEntryPoints().keySet());
 			binderRelatedMethods.addAll(dataAccessor.getBinderProxyMethodsToEntryPoints().keySet());
-			return new AndroidAPIEdgeFilter(binderRelatedMethods, javaAPIIndicatorDB.getSootExcludedClasses(), 
+			return new AndroidAPIEdgePredicate(binderRelatedMethods, javaAPIIndicatorDB.getSootExcludedClasses(), 
 					excludeDB.createNewExcludeHandler(new EntryPoint(ep,ep.getDeclaringClass())), sinks, nonAPISinks);
 		}
 	}
 	
+	private final Filter getFilter(String apiType, SootMethod ep, Set<SootMethod> sinks, Set<SootMethod> nonAPISinks) {
+		return new Filter(getEdgePredicate(apiType, ep, sinks, nonAPISinks));
+	}
+	
+	private static final Consumer<DiscoverFileMethodsRunner> runChunk = new Consumer<DiscoverFileMethodsRunner>() {
+		@Override
+		public void accept(DiscoverFileMethodsRunner t) {
+			t.run();
+		}
+	};
+	
 	private class DiscoverFileMethodsRunner implements Runnable {
 		
 		private final SootMethod ep;
-		private final CallGraph cg;
+		private final CallGraphSnapshot cg;
 		private final Map<SootMethod,FileMethod> sinkMethods;
-		private final Filter filter;
+		private final EdgePredicate edgePred;
 		private final boolean[] overrideActions;
 		private final String apiType;
 		private final Map<SootMethod,boolean[]> nonAPISinkMethods;
@@ -1167,10 +1250,10 @@ public class DiscoverFileMethods {
 		public DiscoverFileMethodsRunner(SootMethod ep, Map<SootMethod,FileMethod> sinkMethods, String apiType, 
 				boolean[] overrideActions, Map<SootMethod,boolean[]> nonAPISinkMethods, boolean genNonAPISinkMethods) {
 			this.ep = ep;
-			this.cg = Scene.v().getCallGraph();
+			this.cg = CallGraphSnapshot.of(Scene.v().getCallGraph());
 			this.sinkMethods = sinkMethods;
 			this.apiType = apiType;
-			this.filter = getFilter(apiType, ep, sinkMethods.keySet(), 
+			this.edgePred = getEdgePredicate(apiType, ep, sinkMethods.keySet(), 
 					(nonAPISinkMethods == null || genNonAPISinkMethods) ? ImmutableSet.of() : nonAPISinkMethods.keySet());
 			this.overrideActions = overrideActions;
 			this.nonAPISinkMethods = nonAPISinkMethods;
@@ -1182,47 +1265,63 @@ public class DiscoverFileMethods {
 			try {
 				Set<FileMethod> sinks = new HashSet<>();
 				boolean[] actions = {false,false,false};
-				Set<SootMethod> visited = new HashSet<>();
-				Queue<SootMethod> toVisit = new ArrayDeque<>();
+				BitSet visited = new BitSet(cg.getMethodCount());
+				int[] toVisit = new int[16];
+				int head = 0;
+				int tail = 0;
 				boolean foundSink = false;
 				Set<SootMethod> visitedMethodsWithEdges = new HashSet<>();
 				
-				toVisit.add(ep);
-				while(!toVisit.isEmpty()) {
-					SootMethod cur = toVisit.poll();
-					if(visited.add(cur)) {
-						FileMethod fm = sinkMethods.get(cur);
-						if(fm != null) {
+				//The entry point is visited first even when it has no edges (i.e. is not in the snapshot)
+				SootMethod cur = ep;
+				int curId = cg.getId(ep);
+				if(curId >= 0)
+					visited.set(curId);
+				while(cur != null) {
+					FileMethod fm = sinkMethods.get(cur);
+					if(fm != null) {
+						foundSink = true;
+						sinks.add(fm);
+						actions[0] = actions[0] || fm.opens();
+						actions[1] = actions[1] || fm.accesses();
+						actions[2] = actions[2] || fm.removes();
+						if(overrideActions != null)
+							break;
+					}
+					if(!genNonAPISinkMethods && nonAPISinkMethods != null) {
+						boolean[] curActions = nonAPISinkMethods.get(cur);
+						if(curActions != null && (curActions[0] || curActions[1] || curActions[2])) {
+							actions[0] = actions[0] || curActions[0];
+							actions[1] = actions[1] || curActions[1];
+							actions[2] = actions[2] || curActions[2];
 							foundSink = true;
-							sinks.add(fm);
-							actions[0] = actions[0] || fm.opens();
-							actions[1] = actions[1] || fm.accesses();
-							actions[2] = actions[2] || fm.removes();
 							if(overrideActions != null)
 								break;
 						}
-						if(!genNonAPISinkMethods && nonAPISinkMethods != null) {
-							boolean[] curActions = nonAPISinkMethods.get(cur);
-							if(curActions != null && (curActions[0] || curActions[1] || curActions[2])) {
-								actions[0] = actions[0] || curActions[0];
-								actions[1] = actions[1] || curActions[1];
-								actions[2] = actions[2] || curActions[2];
-								foundSink = true;
-								if(overrideActions != null)
-									break;
+					}
+					
+					boolean hasEdges = false;
+					for(int e = curId < 0 ? 0 : cg.getOutStart(curId), end = curId < 0 ? 0 : cg.getOutEnd(curId); e < end; e++) {
+						//Both API edge predicates only want explicit edges
+						if(cg.isExplicit(e) && edgePred.want(cg.getEdge(e))) {
+							int tgt = cg.getTarget(e);
+							if(!visited.get(tgt)) {
+								visited.set(tgt);
+								if(tail == toVisit.length)
+									toVisit = Arrays.copyOf(toVisit, tail * 2);
+								toVisit[tail++] = tgt;
 							}
-						}
-						
-						boolean hasEdges = false;
-						Iterator<Edge> it = filter.wrap(cg.edgesOutOf(cur));
-						while(it.hasNext()) {
-							Edge e = it.next();
-							toVisit.add(e.tgt());
 							hasEdges = true;
 						}
-						
-						if(hasEdges)
-							visitedMethodsWithEdges.add(cur);
+					}
+					
+					if(hasEdges && (debugAndroidEnabled || debugJavaEnabled))
+						visitedMethodsWithEdges.add(cur);
+					if(head < tail) {
+						curId = toVisit[head++];
+						cur = cg.getMethod(curId);
+					} else {
+						cur = null;
 					}
 				}
 				
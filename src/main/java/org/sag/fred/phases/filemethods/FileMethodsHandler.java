@@ -11,10 +11,13 @@ import org.sag.main.phase.AbstractPhaseHandler;
 import org.sag.main.phase.IPhaseHandler;
 import org.sag.fred.IFredDataAccessor;
 import org.sag.fred.database.filemethods.IFileMethodsDatabase;
+import org.sag.fred.phases.PhaseOptions;
 import org.sag.fred.sootinit.APISootLoader;
 
 public class FileMethodsHandler extends AbstractPhaseHandler {
 	
+	public static final String optReverseDiscovery = "ReverseDiscovery";
+	
 	private Path jimpleJar;
 	private Path nativeFileAccessMethodsFile;
 	private Path javaAPIFileMethodsFile;
@@ -83,7 +86,8 @@ public class FileMethodsHandler extends AbstractPhaseHandler {
 			externalDepFiles.remove(externalDepFiles.size()-1);
 			
 			DiscoverFileMethods runner = new DiscoverFileMethods(((IFredDataAccessor)dataAccessor), excludeDB, javaAPIIndicatorDB, externalDepFiles,
-					nativeFileAccessMethodsFile, javaAPIFileMethodsFile, androidAPIFileMethodsFile, rootPath, debugDir, logger);
+					nativeFileAccessMethodsFile, javaAPIFileMethodsFile, androidAPIFileMethodsFile, rootPath, debugDir, 
+					PhaseOptions.isEnabled(this, optReverseDiscovery), logger);
 			if(!runner.run()) {
 				logger.fatal("{}: Failed to discover the file methods in the android api.",cn);
 				return false;
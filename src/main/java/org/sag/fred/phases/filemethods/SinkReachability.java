@@ -0,0 +1,210 @@
+package org.sag.fred.phases.filemethods;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.sag.fred.database.filemethods.FileMethod;
+import org.sag.fred.phases.CallGraphSnapshot;
+import org.sag.fred.phases.StronglyConnectedComponents;
+
+import soot.SootMethod;
+import soot.jimple.toolkits.callgraph.CallGraph;
+import soot.jimple.toolkits.callgraph.EdgePredicate;
+
+/** Determines which methods can reach a sink by walking the call graph backwards from the sinks once instead of
+ * walking it forward from every method of interest. The sinks are the known file methods and the non-API sink
+ * methods that perform at least one action. Only edges accepted by the given predicate are walked, so the result for
+ * a method is the same as that of a forward walk from the method under the same predicate (i.e. the predicate must
+ * not depend on the method the walk starts from).
+ * <br><br>
+ * The methods that can reach a sink are condensed into their strongly connected components and the sinks and
+ * open/access/remove actions reachable from each component are computed bottom-up. Instances are immutable once
+ * constructed.
+ */
+public final class SinkReachability {
+
+	private static final int OPENS = 1;
+	private static final int ACCESSES = 2;
+	private static final int REMOVES = 4;
+	private static final int FOUND = 8;
+	private static final BitSet emptySinks = new BitSet(0);
+
+	private final Map<SootMethod,Integer> ids;
+	private final int[] componentOf;
+	private final int[] componentActions;
+	private final List<BitSet> componentSinks;
+	private final List<FileMethod> sinks;
+
+	public SinkReachability(Map<SootMethod,FileMethod> sinkMethods, Map<SootMethod,boolean[]> nonAPISinkMethods, EdgePredicate edgePred,
+			CallGraph cg) {
+		CallGraphSnapshot snapshot = CallGraphSnapshot.of(cg);
+		List<SootMethod> methods = new ArrayList<>();
+		List<Set<Integer>> succs = new ArrayList<>();
+		this.ids = new HashMap<>();
+		this.sinks = new ArrayList<>();
+
+		ArrayDeque<SootMethod> toVisit = new ArrayDeque<>();
+		for(SootMethod sm : sinkMethods.keySet()) {
+			if(getOrAddId(sm, methods, succs))
+				toVisit.add(sm);
+		}
+		if(nonAPISinkMethods != null) {
+			for(Map.Entry<SootMethod,boolean[]> e : nonAPISinkMethods.entrySet()) {
+				boolean[] a = e.getValue();
+				if(a != null && (a[0] || a[1] || a[2]) && getOrAddId(e.getKey(), methods, succs))
+					toVisit.add(e.getKey());
+			}
+		}
+		while(!toVisit.isEmpty()) {
+			SootMethod cur = toVisit.poll();
+			int curId = ids.get(cur);
+			int snapshotId = snapshot.getId(cur);
+			if(snapshotId < 0)
+				continue;
+			for(int i = snapshot.getInStart(snapshotId); i < snapshot.getInEnd(snapshotId); i++) {
+				int e = snapshot.getInEdge(i);
+				if(!edgePred.want(snapshot.getEdge(e)))
+					continue;
+				SootMethod src = snapshot.getMethod(snapshot.getSource(e));
+				if(getOrAddId(src, methods, succs))
+					toVisit.add(src);
+				succs.get(ids.get(src)).add(curId);
+			}
+		}
+
+		int n = methods.size();
+		int[][] succArr = new int[n][];
+		for(int i = 0; i < n; i++) {
+			Set<Integer> s = succs.get(i);
+			succArr[i] = new int[s.size()];
+			int j = 0;
+			for(Integer w : s)
+				succArr[i][j++] = w;
+		}
+
+		int[] actions = new int[n];
+		BitSet[] ownSinks = new BitSet[n];
+		Map<FileMethod,Integer> sinkIds = new HashMap<>();
+		for(int i = 0; i < n; i++) {
+			SootMethod sm = methods.get(i);
+			FileMethod fm = sinkMethods.get(sm);
+			if(fm != null) {
+				Integer sinkId = sinkIds.get(fm);
+				if(sinkId == null) {
+					sinkId = sinks.size();
+					sinks.add(fm);
+					sinkIds.put(fm, sinkId);
+				}
+				ownSinks[i] = new BitSet();
+				ownSinks[i].set(sinkId);
+				actions[i] |= FOUND | (fm.opens() ? OPENS : 0) | (fm.accesses() ? ACCESSES : 0) | (fm.removes() ? REMOVES : 0);
+			}
+			boolean[] a = nonAPISinkMethods == null ? null : nonAPISinkMethods.get(sm);
+			if(a != null && (a[0] || a[1] || a[2]))
+				actions[i] |= FOUND | (a[0] ? OPENS : 0) | (a[1] ? ACCESSES : 0) | (a[2] ? REMOVES : 0);
+		}
+
+		StronglyConnectedComponents sccs = new StronglyConnectedComponents(succArr, null);
+		this.componentOf = new int[n];
+		this.componentActions = new int[sccs.getComponentCount()];
+		this.componentSinks = new ArrayList<>(sccs.getComponentCount());
+		for(int i = 0; i < n; i++)
+			componentOf[i] = sccs.getComponentOf(i);
+		for(int c = 0; c < sccs.getComponentCount(); c++) {
+			int mask = 0;
+			BitSet ret = emptySinks;
+			boolean owned = false;
+			Set<Integer> seen = new HashSet<>();
+			for(int v : sccs.getMembers(c)) {
+				mask |= actions[v];
+				BitSet own = ownSinks[v];
+				if(own != null && !containsAll(ret, own)) {
+					if(!owned) {
+						ret = (BitSet)ret.clone();
+						owned = true;
+					}
+					ret.or(own);
+				}
+				for(int w : succArr[v]) {
+					int other = componentOf[w];
+					if(other == c || !seen.add(other))
+						continue;
+					mask |= componentActions[other];
+					BitSet otherSinks = componentSinks.get(other);
+					if(otherSinks.isEmpty() || otherSinks == ret || containsAll(ret, otherSinks))
+						continue;
+					if(ret.isEmpty()) {
+						ret = otherSinks;
+					} else {
+						if(!owned) {
+							ret = (BitSet)ret.clone();
+							owned = true;
+						}
+						ret.or(otherSinks);
+					}
+				}
+			}
+			componentActions[c] = mask;
+			componentSinks.add(ret);
+		}
+	}
+
+	private boolean getOrAddId(SootMethod sm, List<SootMethod> methods, List<Set<Integer>> succs) {
+		if(ids.containsKey(sm))
+			return false;
+		ids.put(sm, methods.size());
+		methods.add(sm);
+		succs.add(new LinkedHashSet<Integer>());
+		return true;
+	}
+
+	private static boolean containsAll(BitSet a, BitSet b) {
+		for(int i = b.nextSetBit(0); i >= 0; i = b.nextSetBit(i + 1)) {
+			if(!a.get(i))
+				return false;
+		}
+		return true;
+	}
+
+	/** True if the method is a sink or calls a sink either directly or indirectly. */
+	public boolean reachesSink(SootMethod sm) {
+		Integer id = ids.get(sm);
+		return id != null && (componentActions[componentOf[id]] & FOUND) != 0;
+	}
+
+	/** Returns the open, access, and remove actions of the sinks reachable from the method. */
+	public boolean[] getActions(SootMethod sm) {
+		Integer id = ids.get(sm);
+		int mask = id == null ? 0 : componentActions[componentOf[id]];
+		return new boolean[] {(mask & OPENS) != 0, (mask & ACCESSES) != 0, (mask & REMOVES) != 0};
+	}
+
+	/** Returns the known file methods reachable from the method (i.e. this excludes the non-API sink methods). */
+	public Set<FileMethod> getSinks(SootMethod sm) {
+		Integer id = ids.get(sm);
+		if(id == null)
+			return Collections.emptySet();
+		BitSet reached = componentSinks.get(componentOf[id]);
+		Set<FileMethod> ret = new HashSet<>();
+		for(int i = reached.nextSetBit(0); i >= 0; i = reached.nextSetBit(i + 1))
+			ret.add(sinks.get(i));
+		return ret;
+	}
+
+	public int getMethodCount() {
+		return componentOf.length;
+	}
+
+	public int getComponentCount() {
+		return componentActions.length;
+	}
+
+}
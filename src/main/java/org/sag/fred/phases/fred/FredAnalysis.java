@@ -5,9 +5,9 @@ import java.io.File;
 import java.io.PrintStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -21,7 +21,6 @@ import java.util.regex.Pattern;
 
 import org.sag.acminer.database.acminer.Doublet;
 import org.sag.acminer.database.acminer.IACMinerDatabase;
-import org.sag.acminer.database.excludedelements.IExcludeHandler;
 import org.sag.acminer.phases.entrypoints.EntryPoint;
 import org.sag.fred.phases.fred.Permission;
 import org.sag.fred.phases.fred.SystemAndroidManifest;
@@ -47,12 +46,13 @@ import org.sag.fred.database.filepaths.parts.Part;
 import org.sag.fred.database.ssfiles.FileEntry;
 import org.sag.fred.database.ssfiles.Owner;
 import org.sag.fred.database.ssfiles.SecuritySensitiveFilesDatabase;
+import org.sag.fred.phases.CallGraphSnapshot;
+import org.sag.fred.phases.ExclusionView;
 
 import com.google.common.collect.ImmutableSet;
 import soot.Body;
 import soot.Local;
 import soot.Scene;
-import soot.SootMethod;
 import soot.Unit;
 import soot.Value;
 import soot.jimple.BinopExpr;
@@ -60,8 +60,6 @@ import soot.jimple.DefinitionStmt;
 import soot.jimple.IfStmt;
 import soot.jimple.NewExpr;
 import soot.jimple.Stmt;
-import soot.jimple.toolkits.callgraph.CallGraph;
-import soot.jimple.toolkits.callgraph.Edge;
 import soot.toolkits.graph.BriefUnitGraph;
 import soot.toolkits.graph.UnitGraph;
 import soot.toolkits.scalar.LiveLocals;
@@ -78,11 +76,13 @@ public class FredAnalysis {
 	private SystemAndroidManifest systemAndroidManifest;
 	private Set<String> registeredServices;
 	private Map<String,Pair<Set<String>,Set<String>>> specialCallerContextQueries;
+	private long dnfBudget;
 	
 	public FredAnalysis() {
 		this.logger = new LoggerWrapperSLF4J(this.getClass());;
 		this.cn = getClass().getSimpleName();
 		this.ai = null;
+		this.dnfBudget = PerformMatching.defaultDNFBudget;
 		config = Config.getConfigFromResources(logger);
 		//this.excludeSystemProtectedEps = true;
 	}
@@ -123,6 +123,15 @@ public class FredAnalysis {
 							inPath = inPath.substring(0, inPath.length()-1);
 						config.setFilePathEntry("work-dir", inPath);
 						break;
+					case "--dnf-budget":
+						String budget = args[++i];
+						try {
+							dnfBudget = Long.parseLong(budget);
+						} catch(NumberFormatException e) {
+							logger.fatal("{}: Invalid DNF budget '{}'.",cn,budget);
+							return false;
+						}
+						break;
 					default:
 						logger.fatal("{}: Invalid input '{}'.",cn,args[i]);
 						return false;
@@ -350,7 +359,9 @@ public class FredAnalysis {
 
 	private void removeIfProtectedBySpecialCallerContextQueries(MatchesDatabase thirdPartydDB, MatchesDatabase systemRestrictedDB, 
 			IFredDataAccessor dataAccessor) {
-		CallGraph cg = Scene.v().getCallGraph();
+		CallGraphSnapshot cg = CallGraphSnapshot.of(Scene.v().getCallGraph());
+		BitSet visited = new BitSet(cg.getMethodCount());
+		int[] toVisit = new int[cg.getMethodCount()];
 	
 		for(Iterator<EntryPointNode> it = thirdPartydDB.getData().keySet().iterator(); it.hasNext();) {
 			EntryPointNode deputy = it.next();
@@ -359,23 +370,32 @@ public class FredAnalysis {
 			Pair<Set<String>,Set<String>> p = specialCallerContextQueries.get(deputy.getEntryPoint().getDeclaringClass());
 			if(p != null) {
 				Set<String> specialCallers = p.getFirst();
-				Set<SootMethod> visited = new HashSet<>();
-				ArrayDeque<SootMethod> toVisit = new ArrayDeque<>();
 				EntryPoint ep = deputy.getSootEntryPoint();
 				//Assume 1-1 mapping between method and entry point which should be true because Binder methods have been removed
-				IExcludeHandler excludeHandler = dataAccessor.getExcludedElementsDB().createNewExcludeHandler(ep);
-				toVisit.add(ep.getEntryPoint());
-				while(!toVisit.isEmpty()) {
-					SootMethod cur = toVisit.poll();
-					if(specialCallers.contains(cur.toString())) {
-						hasSpecialCallerContextQuery = true;
-						break;
-					}
-					if(visited.add(cur) && !excludeHandler.isExcludedMethodWithOverride(cur)) {
-						Iterator<Edge> itit = cg.edgesOutOf(cur);
-						while(itit.hasNext()) {
-							Edge e = itit.next();
-							toVisit.add(e.tgt());
+				ExclusionView exclusions = dataAccessor.getExclusionView(ep, cg);
+				if(specialCallers.contains(ep.getEntryPoint().toString())) {
+					hasSpecialCallerContextQuery = true;
+				} else if(cg.getId(ep.getEntryPoint()) >= 0) {
+					//The visited marks and work list are shared by all entry points and cleared before each walk
+					int head = 0;
+					int tail = 0;
+					visited.clear();
+					visited.set(cg.getId(ep.getEntryPoint()));
+					toVisit[tail++] = cg.getId(ep.getEntryPoint());
+					while(head < tail) {
+						int cur = toVisit[head++];
+						if(specialCallers.contains(cg.getMethod(cur).toString())) {
+							hasSpecialCallerContextQuery = true;
+							break;
+						}
+						if(!exclusions.isExcluded(cur)) {
+							for(int e = cg.getOutStart(cur); e < cg.getOutEnd(cur); e++) {
+								int tgt = cg.getTarget(e);
+								if(!visited.get(tgt)) {
+									visited.set(tgt);
+									toVisit[tail++] = tgt;
+								}
+							}
 						}
 					}
 				}
@@ -635,7 +655,7 @@ public class FredAnalysis {
 				noMatchesDB.dump(config.getFilePath("debug_fred-dir"), "no_matches");
 				removedMatchesDB.dump(config.getFilePath("debug_fred-dir"), "removed_matches");
 			} else {
-				PerformMatching pm = new PerformMatching(ssFilesDB, epToOrginalMatchingPaths, logger);
+				PerformMatching pm = new PerformMatching(ssFilesDB, epToOrginalMatchingPaths, dnfBudget, logger);
 				pm.run();
 				madb = pm.getMatchesAllDB();
 				mdb = pm.getMatchesDB();
@@ -11,6 +11,7 @@ import org.sag.common.xstream.XStreamInOut;
 import org.sag.common.xstream.XStreamInOut.XStreamInOutInterface;
 import org.sag.fred.database.filepaths.parts.PHPart;
 import org.sag.fred.database.filepaths.parts.Part;
+import org.sag.fred.database.filepaths.parts.PartInterner;
 
 import com.thoughtworks.xstream.XStream;
 import com.thoughtworks.xstream.annotations.XStreamAlias;
@@ -82,6 +83,13 @@ public final class IntermediateExpression implements XStreamInOutInterface, Comp
 		return originalMatchPath;
 	}
 	
+	/** Replaces the seed and match paths with their canonical instances. */
+	void internParts(PartInterner interner) {
+		seed = interner.internLeaf(seed);
+		simpleMatchPath = interner.intern(simpleMatchPath);
+		originalMatchPath = interner.intern(originalMatchPath);
+	}
+	
 	public String toString() {
 		return toString("");
 	}
@@ -1,8 +1,10 @@
 package org.sag.fred.phases.fred;
 
+import java.io.ObjectStreamException;
 import java.io.PrintStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -10,21 +12,21 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
-import java.util.function.Consumer;
 
 import org.sag.common.io.FileHelpers;
 import org.sag.common.io.PrintStreamUnixEOL;
 import org.sag.common.tools.SortingMethods;
-import org.sag.common.tuple.Pair;
 import org.sag.common.xstream.XStreamInOut;
 import org.sag.common.xstream.XStreamInOut.XStreamInOutInterface;
 import org.sag.fred.database.filepaths.parts.LeafPart;
 import org.sag.fred.database.filepaths.parts.PHPart;
 import org.sag.fred.database.filepaths.parts.Part;
 import org.sag.fred.database.filepaths.parts.Part.Node;
+import org.sag.fred.database.filepaths.parts.PartInterner;
 
 import com.thoughtworks.xstream.XStream;
 import com.thoughtworks.xstream.annotations.XStreamAlias;
@@ -36,8 +38,36 @@ public class MatchesDatabase implements XStreamInOutInterface {
 	@XStreamAlias("Data")
 	private LinkedHashMap<EntryPointNode, LinkedHashSet<RegexContainer>> data;
 	
+	//Lookup indexes over data that are built lazily and rebuilt if found to be out of sync with data
+	@XStreamOmitField
+	private Map<EntryPointNode, Map<String, RegexContainer>> epToRegexToContainer;
+	@XStreamOmitField
+	private Map<String, List<RegexContainer>> regexToContainers;
+	//Shares the equal subtrees of the parts of the intermediate expressions, created lazily
+	@XStreamOmitField
+	private PartInterner interner;
+	
 	public MatchesDatabase() {
 		this.data = new LinkedHashMap<>();
+		this.epToRegexToContainer = null;
+		this.regexToContainers = null;
+		this.interner = null;
+	}
+	
+	protected Object readResolve() throws ObjectStreamException {
+		PartInterner interner = getInterner();
+		for(LinkedHashSet<RegexContainer> regexes : data.values()) {
+			for(RegexContainer r : regexes) {
+				r.internParts(interner);
+			}
+		}
+		return this;
+	}
+	
+	private PartInterner getInterner() {
+		if(interner == null)
+			interner = new PartInterner();
+		return interner;
 	}
 	
 	public MatchesDatabase clone() {
@@ -58,11 +88,13 @@ public class MatchesDatabase implements XStreamInOutInterface {
 			regexes = new LinkedHashSet<>();
 			data.put(ep, regexes);
 		}
-		regexes.add(regex);
+		if(regexes.add(regex))
+			indexAdd(ep, regex);
 	}
 	
 	public void addAll(EntryPointNode ep, LinkedHashSet<RegexContainer> regexes) {
 		data.put(ep, regexes);
+		invalidateIndex();
 	}
 	
 	public void addIntermediateExpression(EntryPointNode ep, PHPart seed, Part simpleMatchPath, Part originalMatchPath) {
@@ -72,17 +104,87 @@ public class MatchesDatabase implements XStreamInOutInterface {
 			data.put(ep, regexes);
 		}
 		String regex = simpleMatchPath.toRegexString();
-		boolean found = false;
-		for(RegexContainer r : regexes) {
-			if(r.getRegex().equals(regex)) {
-				found = true;
-				r.addIE(new IntermediateExpression(seed, simpleMatchPath, originalMatchPath));
+		RegexContainer r = getRegexContainer(ep, regex);
+		if(r == null) {
+			r = new RegexContainer(regex);
+			regexes.add(r);
+			indexAdd(ep, r);
+		}
+		PartInterner interner = getInterner();
+		r.addIE(new IntermediateExpression(interner.internLeaf(seed), interner.intern(simpleMatchPath), 
+				interner.intern(originalMatchPath)));
+	}
+	
+	/** Returns the regex container for the given regex of the given entry point or null if no such container exists. */
+	public RegexContainer getRegexContainer(EntryPointNode ep, String regex) {
+		LinkedHashSet<RegexContainer> regexes = data.get(ep);
+		if(regexes == null)
+			return null;
+		Map<String, RegexContainer> index = getEpIndex(ep, regexes, false);
+		RegexContainer ret = index.get(regex);
+		//Either data was modified directly since the index was built or the container does not exist
+		if((ret == null && index.size() != regexes.size()) || (ret != null && !regexes.contains(ret)))
+			ret = getEpIndex(ep, regexes, true).get(regex);
+		return ret;
+	}
+	
+	/** Returns a map of regex to all the regex containers (i.e. one per entry point) with that regex. The map
+	 * reflects all changes made through this database. Changes made directly to the map returned by 
+	 * {@link #getData()} require a call to {@link #invalidateIndex()} before they are reflected.
+	 */
+	public Map<String, List<RegexContainer>> getRegexToContainers() {
+		if(regexToContainers == null) {
+			Map<String, List<RegexContainer>> temp = new HashMap<>();
+			for(LinkedHashSet<RegexContainer> regexes : data.values()) {
+				for(RegexContainer r : regexes) {
+					List<RegexContainer> containers = temp.get(r.getRegex());
+					if(containers == null) {
+						containers = new ArrayList<>();
+						temp.put(r.getRegex(), containers);
+					}
+					containers.add(r);
+				}
 			}
+			regexToContainers = temp;
 		}
-		if(!found) {
-			RegexContainer r = new RegexContainer(regex);
-			regexes.add(r);
-			r.addIE(new IntermediateExpression(seed, simpleMatchPath, originalMatchPath));
+		return Collections.unmodifiableMap(regexToContainers);
+	}
+	
+	/** Discards the lookup indexes so they are rebuilt from the current data on next use. */
+	public void invalidateIndex() {
+		epToRegexToContainer = null;
+		regexToContainers = null;
+	}
+	
+	private Map<String, RegexContainer> getEpIndex(EntryPointNode ep, LinkedHashSet<RegexContainer> regexes, boolean rebuild) {
+		if(epToRegexToContainer == null)
+			epToRegexToContainer = new HashMap<>();
+		Map<String, RegexContainer> ret = epToRegexToContainer.get(ep);
+		if(ret == null || rebuild) {
+			ret = new HashMap<>();
+			for(RegexContainer r : regexes) {
+				ret.put(r.getRegex(), r);
+			}
+			epToRegexToContainer.put(ep, ret);
+			if(rebuild)
+				regexToContainers = null;
+		}
+		return ret;
+	}
+	
+	private void indexAdd(EntryPointNode ep, RegexContainer r) {
+		if(epToRegexToContainer != null) {
+			Map<String, RegexContainer> index = epToRegexToContainer.get(ep);
+			if(index != null)
+				index.put(r.getRegex(), r);
+		}
+		if(regexToContainers != null) {
+			List<RegexContainer> containers = regexToContainers.get(r.getRegex());
+			if(containers == null) {
+				containers = new ArrayList<>();
+				regexToContainers.put(r.getRegex(), containers);
+			}
+			containers.add(r);
 		}
 	}
 	
@@ -207,10 +309,10 @@ public class MatchesDatabase implements XStreamInOutInterface {
 		Set<LeafPart> leafs = new HashSet<>();
 		for(IntermediateExpression ie : ies) {
 			Part root = ie.getSimpleMatchPath();
-			root.getIterator().forEachRemaining(new Consumer<Pair<Part,Node>>() {
+			root.visitPreOrder(new Part.Visitor() {
 				@Override
-				public void accept(Pair<Part,Node> t) {
-					Part child = t.getSecond().getPart();
+				public void visit(Part parent, Node node, int index) {
+					Part child = node.getPart();
 					if(child instanceof LeafPart)
 						leafs.add((LeafPart)child);
 				}
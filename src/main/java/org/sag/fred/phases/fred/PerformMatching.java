@@ -5,18 +5,21 @@ import java.io.PrintStream;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.function.Predicate;
 
 import org.sag.common.concurrent.CountingThreadExecutor;
 import org.sag.common.concurrent.IgnorableRuntimeException;
@@ -42,6 +45,9 @@ import org.sag.fred.database.filepaths.parts.PHMethodRefValuePart;
 import org.sag.fred.database.filepaths.parts.PHPart;
 import org.sag.fred.database.filepaths.parts.ParentPart;
 import org.sag.fred.database.filepaths.parts.Part;
+import org.sag.fred.database.filepaths.parts.PartInterner;
+import org.sag.fred.database.filepaths.parts.PartRewriter;
+import org.sag.fred.database.filepaths.parts.PartRewriter.Rule;
 import org.sag.fred.database.filepaths.parts.SysVarPart;
 import org.sag.fred.database.filepaths.parts.UnknownPart;
 import org.sag.fred.database.filepaths.parts.AnyPartImpl.AnyAPKInfoPart;
@@ -56,15 +62,24 @@ import org.sag.fred.database.filepaths.parts.ConstantPart.NullConstantPart;
 import org.sag.fred.database.filepaths.parts.ConstantPart.StringConstantPart;
 import org.sag.fred.database.filepaths.parts.Part.Node;
 import org.sag.fred.database.ssfiles.FileEntry;
+import org.sag.fred.database.ssfiles.FilePathTrie;
 import org.sag.fred.database.ssfiles.Owner;
 import org.sag.fred.database.ssfiles.SecuritySensitiveFilesDatabase;
+import org.sag.fred.phases.ChunkedTaskSubmitter;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 
 public class PerformMatching {
 	
+	/** The depth in the path trie at which subtrees are handed off to separate threads when matching. */
+	private static final int matchSplitDepth = 2;
+	
+	/** The default maximum number of parts in the DNF of an intermediate expression. */
+	public static final long defaultDNFBudget = 100000;
+	
 	private final NullConstantPart nullConstant;
 	private final ILogger logger;
 	private final String cn;
@@ -75,8 +90,21 @@ public class PerformMatching {
 	private final MatchesDatabase mdb;
 	private final MatchesDatabase removedMatchesDB;
 	private final MatchesDatabase noMatchesDB;
+	private final PartRewriter preDNFRewriter;
+	private final PartRewriter preDNFRewriterTV;
+	private final PartRewriter postDNFRewriter;
+	private final PartRewriter finalRewriter;
+	private final long dnfBudget;
 	
 	public PerformMatching(SecuritySensitiveFilesDatabase ssdb, Map<EntryPointNode, List<Pair<PHPart,Part>>> epToOrginalMatchingPaths, ILogger logger) {
+		this(ssdb, epToOrginalMatchingPaths, defaultDNFBudget, logger);
+	}
+	
+	/** The DNF of an intermediate expression is limited to dnfBudget parts (see {@link #convertToDNFBounded}). A budget
+	 * of 0 or less is no limit.
+	 */
+	public PerformMatching(SecuritySensitiveFilesDatabase ssdb, Map<EntryPointNode, List<Pair<PHPart,Part>>> epToOrginalMatchingPaths, 
+			long dnfBudget, ILogger logger) {
 		this.cn = getClass().getSimpleName();
 		this.logger = logger;
 		this.nullConstant = new NullConstantPart();
@@ -86,6 +114,23 @@ public class PerformMatching {
 		this.mdb = new MatchesDatabase();
 		this.removedMatchesDB = new MatchesDatabase();
 		this.noMatchesDB = new MatchesDatabase();
+		this.dnfBudget = dnfBudget;
+		//The substitutions may introduce parts the other rules apply to so the rules before DNF run to a fixpoint
+		this.preDNFRewriter = new PartRewriter(ImmutableList.<Rule>of(forceSubFields, forceSubMethods, assumeSingleUser, 
+				simplifyNulls), true);
+		this.preDNFRewriterTV = new PartRewriter(ImmutableList.<Rule>of(forceSubFields, forceSubMethods, fixTVDevice, 
+				assumeSingleUser, simplifyNulls), true);
+		//Each rule after DNF runs once in the order the passes used to run with the environment and system variables
+		//replaced as a whole before anything inside them is rewritten
+		this.postDNFRewriter = new PartRewriter(ImmutableList.<Rule>of(subEnvVarForDefaults, handleParentAndName, 
+				combineConstantsAndNormalize, collapseAnyParts), new Predicate<Part>() {
+			@Override
+			public boolean test(Part t) {
+				return !(t instanceof EnvVarPart || t instanceof SysVarPart);
+			}
+		}, false);
+		//Removing the anys from an OrPart early would let the rules above combine or collapse its parent differently
+		this.finalRewriter = new PartRewriter(ImmutableList.<Rule>of(removeDuplicatesAndRootAnyInOr), false);
 	}
 	
 	public MatchesDatabase getMatchesDB() {
@@ -150,44 +195,28 @@ public class PerformMatching {
 			}
 		}
 		
-		final Map<EntryPointNode,? extends Set<RegexContainer>> data = mdb.getData();
-		Set<String> regexes = new HashSet<>();
-		for(Set<RegexContainer> reg : data.values()) {
-			for(RegexContainer r : reg) {
-				regexes.add(r.getRegex());
-			}
-		}
+		//All regex containers grouped by regex so a match can be recorded for all of them at once
+		final Map<String,List<RegexContainer>> regexToContainers = mdb.getRegexToContainers();
 		
 		boolean successOuter = true;
 		final CountingThreadExecutor exe = new CountingThreadExecutor();
 		final List<Throwable> errs = new ArrayList<>();
 		try {
-			for(String regex : regexes) {
-				final Pattern p = Pattern.compile(regex);
-				Map<FileEntry, Set<Owner>> db = ssdb.getFilesToGroupsOrSystem();
-				for(final FileEntry file : db.keySet()) {
-					Set<Owner> owners = db.get(file);
-					final Set<String> perms = new HashSet<>();
-					for(Owner o : owners) {
-						perms.addAll(o.getPermissions());
-					}
-					exe.execute(new Runnable() {
-						@Override
-						public void run() {
-							Matcher m = p.matcher(file.getFullPath());
-							if(m.matches()) {
-								for(Set<RegexContainer> c : data.values()) {
-									for(RegexContainer r : c) {
-										if(r.getRegex().equals(regex)) {
-											r.addFile(file, perms);
-										}
-									}
-								}
-							}
-						}
-					});
+			//All regexes are combined into a single automaton so each path is only scanned once
+			final RegexSetMatcher matcher = new RegexSetMatcher(regexToContainers.keySet());
+			if(matcher.getFallbackCount() > 0)
+				logger.warn("{}: {} regexes could not be compiled into the combined automaton and will be matched individually.",
+						cn,matcher.getFallbackCount());
+			//Walk the path trie so each common prefix is only evaluated once and subtrees no regex can match are skipped
+			//Nodes above the split depth are walked here and the subtrees below are walked in parallel in chunks
+			List<Pair<FilePathTrie.Node,RegexSetMatcher.State>> subtrees = new ArrayList<>();
+			matchSubtree(ssdb.getPathTrieGroupsOrSystem().getRoot(), matcher.getStartState(), matcher, regexToContainers, subtrees, 0);
+			ChunkedTaskSubmitter.execute(exe, subtrees, new Consumer<Pair<FilePathTrie.Node,RegexSetMatcher.State>>() {
+				@Override
+				public void accept(Pair<FilePathTrie.Node,RegexSetMatcher.State> t) {
+					matchSubtree(t.getFirst(), t.getSecond(), matcher, regexToContainers, null, matchSplitDepth);
 				}
-			}
+			});
 		} catch(IgnorableRuntimeException t) {	
 			successOuter = false;
 		} catch(Throwable t) {
@@ -244,6 +273,8 @@ public class PerformMatching {
 				if(mdb.getData().get(ep).isEmpty())
 					it.remove();
 			}
+			mdb.invalidateIndex();
+			mdb.sort();
 			noMatchesDB.sort();
 			logger.info("{}: Finished removing matches with no matched file paths.",cn);
 		} else {
@@ -253,36 +284,130 @@ public class PerformMatching {
 		
 	}
 
+	/** Records all regexes matching the entries at the given node and then descends into its children. If a 
+	 * list for deferred subtrees is given, nodes at the split depth are added to it instead of being walked.
+	 */
+	private static void matchSubtree(FilePathTrie.Node node, RegexSetMatcher.State state, RegexSetMatcher matcher, 
+			Map<String,List<RegexContainer>> regexToContainers, List<Pair<FilePathTrie.Node,RegexSetMatcher.State>> deferred, int depth) {
+		if(deferred != null && depth == matchSplitDepth) {
+			deferred.add(new Pair<>(node, state));
+			return;
+		}
+		if(!node.getEntries().isEmpty()) {
+			List<String> matches = matcher.getMatches(state, node.getPath());
+			if(!matches.isEmpty()) {
+				for(FileEntry file : node.getEntries().keySet()) {
+					Set<String> perms = new HashSet<>();
+					for(Owner o : node.getEntries().get(file)) {
+						perms.addAll(o.getPermissions());
+					}
+					for(String regex : matches) {
+						for(RegexContainer r : regexToContainers.get(regex)) {
+							r.accumulateFile(file, perms);
+						}
+					}
+				}
+			}
+		}
+		for(FilePathTrie.Node child : node.getChildren()) {
+			RegexSetMatcher.State next = matcher.advance(state, child.getSegment());
+			if(!matcher.isDead(next))
+				matchSubtree(child, next, matcher, regexToContainers, deferred, depth + 1);
+		}
+	}
+	
 	//EP -> [Seed,MatchPart,OrgMatchPart]
 	private Map<EntryPointNode, List<Triple<PHPart,Part,Part>>> simplifyParts(Map<EntryPointNode, List<Pair<PHPart,Part>>> in) {
 		logger.info("{}: Starting to simplify all intermediate expressions.",cn);
+		//The simplified Part only depends on the original Part and on whether the seed is a tv seed so each
+		//distinct pair is simplified once (i.e. the paths of helper methods shared by many eps) and in parallel
+		Set<Pair<Part,Boolean>> keys = new LinkedHashSet<>();
+		int total = 0;
+		for(List<Pair<PHPart,Part>> paths : in.values()) {
+			for(Pair<PHPart,Part> p : paths) {
+				keys.add(new Pair<>(p.getSecond(), isTVSeed(p.getFirst())));
+				total++;
+			}
+		}
+		
+		final Map<Pair<Part,Boolean>,Part> simplified = new ConcurrentHashMap<>();
+		final Set<Pair<Part,Boolean>> overBudget = Collections.newSetFromMap(new ConcurrentHashMap<Pair<Part,Boolean>,Boolean>());
+		final CountingThreadExecutor exe = new CountingThreadExecutor();
+		try {
+			ChunkedTaskSubmitter.execute(exe, keys, new Consumer<Pair<Part,Boolean>>() {
+				@Override
+				public void accept(Pair<Part,Boolean> key) {
+					boolean[] hitBudget = {false};
+					simplified.put(key, simplifyPart(key.getFirst(), key.getSecond(), hitBudget));
+					if(hitBudget[0])
+						overBudget.add(key);
+				}
+			});
+		} finally {
+			boolean success = exe.shutdownWhenFinished();
+			for(Throwable t : exe.getAndClearExceptions()) {
+				logger.fatal("{}: Failed to simplify an intermediate expression in parallel.",t,cn);
+			}
+			if(!success)
+				logger.fatal("{}: Failed to properly close the counting thread executor.",cn);
+		}
+		
+		//Retry any that failed in this thread so failures surface the same way they did before
+		PartInterner interner = new PartInterner();
+		Map<Pair<Part,Boolean>,Part> canonical = new HashMap<>();
+		for(Pair<Part,Boolean> key : keys) {
+			Part newPart = simplified.get(key);
+			if(newPart == null) {
+				boolean[] hitBudget = {false};
+				newPart = simplifyPart(key.getFirst(), key.getSecond(), hitBudget);
+				if(hitBudget[0])
+					overBudget.add(key);
+			}
+			//The simplified parts are only read from here on so share their equal subtrees
+			canonical.put(key, interner.intern(newPart));
+		}
+		
 		Map<EntryPointNode, List<Triple<PHPart,Part,Part>>> ret = new LinkedHashMap<>();
+		int totalOverBudget = 0;
 		for(EntryPointNode ep : in.keySet()) {
 			List<Triple<PHPart,Part,Part>> paths = new ArrayList<>();
 			for(Pair<PHPart,Part> p : in.get(ep)) {
-				Part newPart = p.getSecond().clonePart();
-				newPart = removeLoopsAndNormalize(newPart);
-				newPart = forceSubFields(newPart);
-				newPart = forceSubMethods(newPart);
-				newPart = fixTVDevice(p.getFirst(), newPart);
-				newPart = assumeSingleUser(newPart);
-				newPart = simplifyNulls(newPart);
-				newPart = convertToDNF(newPart);
-				newPart = subEnvVarForDefaults(newPart);
-				newPart = handleParentAndName(newPart);
-				newPart = combineConstantsAndNormalize(newPart);
-				newPart = collapseAnyParts(newPart);
-				newPart = removeDuplicatesAndRootAnyInOr(newPart);
-				if(!testIsDNF(newPart))
-					logger.warn("{}: Failed to convert to DNF.\n  {}\n    {}",cn,p.getSecond().toSimpleString(),newPart.toSimpleString());
-				paths.add(new Triple<>(p.getFirst(),newPart,p.getSecond()));
+				Pair<Part,Boolean> key = new Pair<>(p.getSecond(), isTVSeed(p.getFirst()));
+				if(overBudget.contains(key))
+					totalOverBudget++;
+				paths.add(new Triple<>(p.getFirst(),canonical.get(key),p.getSecond()));
 			}
 			ret.put(ep, paths);
 		}
-		logger.info("{}: Finished simplifying all intermediate expressions.",cn);
+		if(!overBudget.isEmpty())
+			logger.warn("{}: {} intermediate expressions ({} distinct) of {} total exceeded the DNF budget of {} parts and were "
+					+ "left partially factored.",cn,totalOverBudget,overBudget.size(),total,dnfBudget);
+		logger.info("{}: Finished simplifying all intermediate expressions. Simplified {} distinct of {} total and shared {} distinct branch parts.",
+				cn,keys.size(),total,interner.size());
 		return ret;
 	}
 	
+	/** Runs all simplification rules on a clone of the given Part. The rules only modify the clone and otherwise only
+	 * read immutable state so this may be called from multiple threads at once. The first element of hitBudget is set
+	 * to true if the DNF of the Part exceeds the DNF budget.
+	 */
+	private Part simplifyPart(Part org, boolean tvSeed, boolean[] hitBudget) {
+		Part newPart = org.clonePart();
+		newPart = (tvSeed ? preDNFRewriterTV : preDNFRewriter).rewrite(newPart);
+		if(newPart == null)
+			newPart = nullConstant;
+		newPart = convertToDNFBounded(newPart, new IdentityHashMap<Part,long[]>(), hitBudget);
+		newPart = postDNFRewriter.rewrite(newPart);
+		if(newPart == null)
+			newPart = nullConstant;
+		newPart = finalRewriter.rewrite(newPart);
+		if(newPart == null)
+			newPart = nullConstant;
+		if(!hitBudget[0] && !testIsDNF(newPart))
+			logger.warn("{}: Failed to convert to DNF.\n  {}\n    {}",cn,org.toSimpleString(),newPart.toSimpleString());
+		return newPart;
+	}
+	
 	
 	
 	//Assumes the parts have been processed so that those that will match any string have been set to either null or are a single any part
@@ -467,149 +592,120 @@ public class PerformMatching {
 		logger.info("{}: Finished removing filtered intermediate expressions.",cn);
 	}
 	
-	//Needs to be run last after all other simplifying procedures
-	private Part removeDuplicatesAndRootAnyInOr(Part org) {
-		Part[] ret = {org};
-		org.getPostOrderIterator().forEachRemaining(new Consumer<Pair<Part,Node>>() {
-			public void accept(Pair<Part,Node> t) {
-				Part parent = t.getFirst();
-				Node childNode = t.getSecond();
-				Part child = childNode.getPart();
-				if(child instanceof OrPart) {
-					OrPart newOr = new OrPart();
-					//Or uses hashset to keep things unique but since these have been modified so much
-					//the hashset no longer contains unique entries so we must readd everything to a new
-					//set to ensure things are unique
-					for(Part p : ((OrPart)child).getChildren()) {
-						if(!(p instanceof AnyPart || p instanceof UnknownPart || p instanceof PHPart || p instanceof NullConstantPart))
-							newOr.add(p);
-					}
-					if(newOr.isEmpty()) {
-						if(parent == null)
-							ret[0] = nullConstant;
-						else
-							((BranchPart)parent).swapChild(childNode, nullConstant);
-					} else if(newOr.size() == 1) {
-						if(parent == null)
-							ret[0] = newOr.getChildren().get(0);
-						else
-							((BranchPart)parent).swapChild(childNode, newOr.getChildren().get(0));
-					} else {
-						if(parent == null)
-							ret[0] = newOr;
-						else
-							((BranchPart)parent).swapChild(childNode, newOr);
-					}
+	//Needs to be run last in its own traversal after all other simplifying rules
+	private final Rule removeDuplicatesAndRootAnyInOr = new Rule() {
+		@Override
+		public Node apply(Part parent, Node childNode) {
+			Part child = childNode.getPart();
+			if(child instanceof OrPart) {
+				OrPart newOr = new OrPart();
+				//Or uses hashset to keep things unique but since these have been modified so much
+				//the hashset no longer contains unique entries so we must readd everything to a new
+				//set to ensure things are unique
+				for(Part p : ((OrPart)child).getChildren()) {
+					if(!(p instanceof AnyPart || p instanceof UnknownPart || p instanceof PHPart || p instanceof NullConstantPart))
+						newOr.add(p);
 				}
+				if(newOr.isEmpty())
+					return PartRewriter.replace(parent, childNode, nullConstant);
+				else if(newOr.size() == 1)
+					return PartRewriter.replace(parent, childNode, newOr.getChildren().get(0));
+				else
+					return PartRewriter.replace(parent, childNode, newOr);
 			}
-		});
-		return ret[0];
-	}
+			return childNode;
+		}
+	};
 	
 	//Must be run after strings are combined because it assumes any "/" are between two any parts and all others
-	//were combined with other strings in the combination phase
-	private Part collapseAnyParts(Part org) {
-		Part[] ret = {org};
-		org.getPostOrderIterator().forEachRemaining(new Consumer<Pair<Part,Node>>() {
-			public void accept(Pair<Part,Node> t) {
-				Part parent = t.getFirst();
-				Node childNode = t.getSecond();
-				Part child = childNode.getPart();
-				if(child instanceof AppendPart) {
-					List<Node> children = ((AppendPart)child).getChildNodes();
-					List<Node> anys = null;
-					for(Node n : children) {
-						Part p = n.getPart();
-						if((p instanceof AnyPart && !p.toRegexString().equals("\\d+")) || p instanceof UnknownPart || p instanceof PHPart || p instanceof NullConstantPart ||
-								(p instanceof ConstantPart && p.toString().equals("/"))) {
-							if(anys == null)
-								anys = new ArrayList<>();
-							anys.add(n);
-						} else {
-							if(anys != null) {
-								if(anys.size() > 1) {
-									boolean first = true;
-									for(Node con : anys) {
-										if(first) {
-											((AppendPart)child).swapChild(con, new AnyComboPart(anys));
-											first = false;
-										} else {
-											((AppendPart)child).removeChild(con);
-										}
-									}
-								}
-								anys = null;
-							}
-						}
-					}
-					if(anys != null) {
-						if(anys.size() > 1) {
-						boolean first = true;
-							for(Node con : anys) {
-								if(first) {
-									((AppendPart)child).swapChild(con, new AnyComboPart(anys));
-									first = false;
-								} else {
-									((AppendPart)child).removeChild(con);
-								}
-							}
+	//were combined with other strings by the combination rule
+	private final Rule collapseAnyParts = new Rule() {
+		@Override
+		public Node apply(Part parent, Node childNode) {
+			Part child = childNode.getPart();
+			if(child instanceof AppendPart && !isParentOrNamePart(parent)) {
+				List<Node> children = ((AppendPart)child).getChildNodes();
+				List<Node> anys = null;
+				for(Node n : children) {
+					Part p = n.getPart();
+					if((p instanceof AnyPart && !p.toRegexString().equals("\\d+")) || p instanceof UnknownPart || p instanceof PHPart || p instanceof NullConstantPart ||
+							(p instanceof ConstantPart && p.toString().equals("/"))) {
+						if(anys == null)
+							anys = new ArrayList<>();
+						anys.add(n);
+					} else {
+						if(anys != null) {
+							collapseAnyPartsHelper(anys, (AppendPart)child);
+							anys = null;
 						}
-						anys = null;
-					}
-					if(((AppendPart)child).size() == 0) {
-						if(parent == null)
-							ret[0] = nullConstant;
-						else
-							((BranchPart)parent).removeChild(childNode);
-					} else if(((AppendPart)child).size() == 1) {
-						if(parent == null)
-							ret[0] = ((AppendPart)child).getChildren().get(0);
-						else
-							((BranchPart)parent).swapChild(childNode,((AppendPart)child).getChildren().get(0));
 					}
 				}
+				if(anys != null) {
+					collapseAnyPartsHelper(anys, (AppendPart)child);
+					anys = null;
+				}
+				if(((AppendPart)child).size() == 0) {
+					if(parent == null)
+						return PartRewriter.replace(parent, childNode, nullConstant);
+					return ((BranchPart)parent).removeChild(childNode) ? null : childNode;
+				} else if(((AppendPart)child).size() == 1) {
+					return PartRewriter.replace(parent, childNode, ((AppendPart)child).getChildren().get(0));
+				}
 			}
-		});
-		return ret[0];
+			return childNode;
+		}
+	};
+	
+	private void collapseAnyPartsHelper(List<Node> anys, AppendPart child) {
+		if(anys.size() > 1) {
+			boolean first = true;
+			for(Node con : anys) {
+				if(first) {
+					child.swapChild(con, new AnyComboPart(anys));
+					first = false;
+				} else {
+					child.removeChild(con);
+				}
+			}
+		}
 	}
 	
-	private Part combineConstantsAndNormalize(Part org) {
-		Part[] ret = {org};
-		org.getPostOrderIterator().forEachRemaining(new Consumer<Pair<Part,Node>>() {
-			public void accept(Pair<Part,Node> t) {
-				Part parent = t.getFirst();
-				Node childNode = t.getSecond();
-				Part child = childNode.getPart();
-				if(child instanceof AppendPart) {
-					List<Node> children = ((AppendPart)child).getChildNodes();
-					List<Node> consts = null;
-					for(Node n : children) {
-						Part p = n.getPart();
-						if(p instanceof ConstantPart && !(p instanceof NullConstantPart)) {
-							if(consts == null)
-								consts = new ArrayList<>();
-							consts.add(n);
-						} else {
-							if(consts != null) {
-								combineConstantsAndNormalizeHelper(consts, (AppendPart)child);
-								consts = null;
-							}
+	private final Rule combineConstantsAndNormalize = new Rule() {
+		@Override
+		public Node apply(Part parent, Node childNode) {
+			Part child = childNode.getPart();
+			if(child instanceof AppendPart && !isParentOrNamePart(parent)) {
+				List<Node> children = ((AppendPart)child).getChildNodes();
+				List<Node> consts = null;
+				for(Node n : children) {
+					Part p = n.getPart();
+					if(p instanceof ConstantPart && !(p instanceof NullConstantPart)) {
+						if(consts == null)
+							consts = new ArrayList<>();
+						consts.add(n);
+					} else {
+						if(consts != null) {
+							combineConstantsAndNormalizeHelper(consts, (AppendPart)child);
+							consts = null;
 						}
 					}
-					if(consts != null) {
-						combineConstantsAndNormalizeHelper(consts, (AppendPart)child);
-						consts = null;
-					}
-					if(((AppendPart)child).size() == 1) {
-						if(parent == null)
-							ret[0] = ((AppendPart)child).getChildren().get(0);
-						else
-							((BranchPart)parent).swapChild(childNode,((AppendPart)child).getChildren().get(0));
-					}
 				}
+				if(consts != null) {
+					combineConstantsAndNormalizeHelper(consts, (AppendPart)child);
+					consts = null;
+				}
+				if(((AppendPart)child).size() == 1)
+					return PartRewriter.replace(parent, childNode, ((AppendPart)child).getChildren().get(0));
 			}
-		});
-		return ret[0];
+			return childNode;
+		}
+	};
+	
+	/* The constants and any parts of the path of a ParentPart or NamePart are only combined and collapsed once the
+	 * ParentPart or NamePart has been replaced because handleParent and handleName look for the individual slashes.
+	 */
+	private static boolean isParentOrNamePart(Part parent) {
+		return parent instanceof ParentPart || parent instanceof NamePart;
 	}
 	
 	private void combineConstantsAndNormalizeHelper(List<Node> consts, AppendPart child) {
@@ -651,77 +747,66 @@ public class PerformMatching {
         return (index != n) ? new String(normalized, 0, index) : pathname;
     }
 	
-	private Part handleParentAndName(Part org) {
-		Part[] ret = {org};
-		org.getPostOrderIterator().forEachRemaining(new Consumer<Pair<Part,Node>>() {
-			public void accept(Pair<Part,Node> t) {
-				Part parent = t.getFirst();
-				Node childNode = t.getSecond();
-				Part child = childNode.getPart();
-				if(child instanceof ParentPart || child instanceof NamePart) {
-					boolean isParent = child instanceof ParentPart;
-					Part path = isParent ? ((ParentPart)child).getChild() : ((NamePart)child).getChild();
-					Part toSwap = null;
-					if(path instanceof AppendPart) {
-						toSwap = isParent ? handleParent((AppendPart)path) : handleName((AppendPart)path);
-					} else if(path instanceof LeafPart || path instanceof SysVarPart || path instanceof EnvVarPart) { // Single part as child
-						if(path instanceof AnyPart || path instanceof UnknownPart || path instanceof PHPart) // Could be anything so just move any up
-							toSwap = path;
-						else // Is a constant part
-							toSwap = isParent ? handleParent(new AppendPart(path)) : handleName(new AppendPart(path));
-					} else {
-						throw new RuntimeException("Error: Unexpected child part of ParentPart or NamePart.");
-					}
-					if(parent == null) {
-						ret[0] = toSwap;
-					} else {
-						Node n = new Node(toSwap);
-						((BranchPart)parent).swapChild(childNode, n);
-						((BranchPart)parent).mergeChild(n);
-					}
+	private final Rule handleParentAndName = new Rule() {
+		@Override
+		public Node apply(Part parent, Node childNode) {
+			Part child = childNode.getPart();
+			if(child instanceof ParentPart || child instanceof NamePart) {
+				boolean isParent = child instanceof ParentPart;
+				Part path = isParent ? ((ParentPart)child).getChild() : ((NamePart)child).getChild();
+				Part toSwap = null;
+				if(path instanceof AppendPart) {
+					toSwap = isParent ? handleParent((AppendPart)path) : handleName((AppendPart)path);
+				} else if(path instanceof LeafPart || path instanceof SysVarPart || path instanceof EnvVarPart) { // Single part as child
+					if(path instanceof AnyPart || path instanceof UnknownPart || path instanceof PHPart) // Could be anything so just move any up
+						toSwap = path;
+					else // Is a constant part
+						toSwap = isParent ? handleParent(new AppendPart(path)) : handleName(new AppendPart(path));
+				} else {
+					throw new RuntimeException("Error: Unexpected child part of ParentPart or NamePart.");
 				}
+				Node n = PartRewriter.replace(parent, childNode, toSwap);
+				if(n != null && parent != null && ((BranchPart)parent).mergeChild(n))
+					return null;
+				return n;
 			}
-		});
-		return ret[0];
-	}
+			return childNode;
+		}
+	};
 	
-	private Part subEnvVarForDefaults(Part org) {
-		Part[] ret = {org};
-		Map<String,Part> envToDefault = new HashMap<>();
-		envToDefault.put("ANDROID_ROOT",                 new StringConstantPart("/system")); //set to default
-		envToDefault.put("ANDROID_DATA",                 new StringConstantPart("/data")); //set to default
-		envToDefault.put("ANDROID_EXPAND",               new StringConstantPart("/mnt/expand")); //not set
-		envToDefault.put("ANDROID_STORAGE",              new StringConstantPart("/storage")); //set to default
-		envToDefault.put("DOWNLOAD_CACHE",               new StringConstantPart("/data/cache")); //different from default
-		envToDefault.put("OEM_ROOT",                     new StringConstantPart("/oem")); //not set
-		envToDefault.put("ODM_ROOT",                     new StringConstantPart("/odm")); //not set
-		envToDefault.put("VENDOR_ROOT",                  new StringConstantPart("/vendor")); //not set
-		envToDefault.put("PRODUCT_ROOT",                 new StringConstantPart("/product")); //not set
-		envToDefault.put("EXTERNAL_STORAGE",             new StringConstantPart("/sdcard")); //no default
-		envToDefault.put("PRODUCT_SERVICES_ROOT",        new StringConstantPart("/product_services")); //not set
-		envToDefault.put("dalvik.vm.stack-trace-dir",    new StringConstantPart("/data/anr")); //from /system/build.prop
-		envToDefault.put("ro.boot.product.hardware.sku", new StringConstantPart("G020G")); //from adb shell getprop
-		envToDefault.put("dalvik.vm.stack-trace-file",   new AnyInfoPart("SYSVAR")); //not defined in /system/build.prop
-		org.getPostOrderIterator().forEachRemaining(new Consumer<Pair<Part,Node>>() {
-			public void accept(Pair<Part,Node> t) {
-				Part parent = t.getFirst();
-				Node childNode = t.getSecond();
-				Part child = childNode.getPart();
-				if(child instanceof EnvVarPart || child instanceof SysVarPart) {
-					Part name = child instanceof EnvVarPart ? ((EnvVarPart)child).getChild() : ((SysVarPart)child).getChild();
-					Part newChild = null;
-					if(!(name instanceof StringConstantPart && (newChild = envToDefault.get(name.toString())) != null)) {
-						newChild = child instanceof EnvVarPart ? new AnyInfoPart("ENVVAR") : new AnyInfoPart("SYSVAR");
-					}
-					if(parent == null)
-						ret[0] = newChild;
-					else
-						((BranchPart)parent).swapChild(childNode, newChild);
+	private static final Map<String,Part> envToDefault = ImmutableMap.<String,Part>builder()
+			.put("ANDROID_ROOT",                 new StringConstantPart("/system")) //set to default
+			.put("ANDROID_DATA",                 new StringConstantPart("/data")) //set to default
+			.put("ANDROID_EXPAND",               new StringConstantPart("/mnt/expand")) //not set
+			.put("ANDROID_STORAGE",              new StringConstantPart("/storage")) //set to default
+			.put("DOWNLOAD_CACHE",               new StringConstantPart("/data/cache")) //different from default
+			.put("OEM_ROOT",                     new StringConstantPart("/oem")) //not set
+			.put("ODM_ROOT",                     new StringConstantPart("/odm")) //not set
+			.put("VENDOR_ROOT",                  new StringConstantPart("/vendor")) //not set
+			.put("PRODUCT_ROOT",                 new StringConstantPart("/product")) //not set
+			.put("EXTERNAL_STORAGE",             new StringConstantPart("/sdcard")) //no default
+			.put("PRODUCT_SERVICES_ROOT",        new StringConstantPart("/product_services")) //not set
+			.put("dalvik.vm.stack-trace-dir",    new StringConstantPart("/data/anr")) //from /system/build.prop
+			.put("ro.boot.product.hardware.sku", new StringConstantPart("G020G")) //from adb shell getprop
+			.put("dalvik.vm.stack-trace-file",   new AnyInfoPart("SYSVAR")) //not defined in /system/build.prop
+			.build();
+	
+	//The defaults are all leaf parts so they can be shared
+	private final Rule subEnvVarForDefaults = new Rule() {
+		@Override
+		public Node apply(Part parent, Node childNode) {
+			Part child = childNode.getPart();
+			if(child instanceof EnvVarPart || child instanceof SysVarPart) {
+				Part name = child instanceof EnvVarPart ? ((EnvVarPart)child).getChild() : ((SysVarPart)child).getChild();
+				Part newChild = null;
+				if(!(name instanceof StringConstantPart && (newChild = envToDefault.get(name.toString())) != null)) {
+					newChild = child instanceof EnvVarPart ? new AnyInfoPart("ENVVAR") : new AnyInfoPart("SYSVAR");
 				}
+				return PartRewriter.replace(parent, childNode, newChild);
 			}
-		});
-		return ret[0];
-	}
+			return childNode;
+		}
+	};
 	
 	private Part handleName(AppendPart in) {
 		Node lastSlash = null;
@@ -807,11 +892,9 @@ public class PerformMatching {
 	
 	private boolean testIsDNF(Part org) {
 		boolean[] isDNF = {true};
-		org.getIterator().forEachRemaining(new Consumer<Pair<Part,Node>>() {
-			public void accept(Pair<Part,Node> t) {
-				Part parent = t.getFirst();
-				Node childNode = t.getSecond();
-				Part child = childNode.getPart();
+		org.visitPreOrder(new Part.Visitor() {
+			public void visit(Part parent, Node node, int index) {
+				Part child = node.getPart();
 				if(child instanceof OrPart && parent != null) {
 					isDNF[0] = false;
 				} else if(child instanceof AppendPart && !(parent == null || parent instanceof OrPart 
@@ -823,62 +906,64 @@ public class PerformMatching {
 		return isDNF[0];
 	}
 	
-	private Part simplifyNulls(Part org) {
-		Part[] ret = {org};
-		boolean[] changed = {false};
-		
-		do {
-			changed[0] = false;
-			ret[0].getPostOrderIterator().forEachRemaining(new Consumer<Pair<Part,Node>>() {
-				public void accept(Pair<Part,Node> t) {
-					Part parent = t.getFirst();
-					Node childNode = t.getSecond();
-					Part child = childNode.getPart();
-					
-					if(parent == null) {
-						if(child instanceof OrPart || child instanceof AppendPart) {
-							List<Node> children = ((BranchPart)child).getChildNodes();
-							if(children.isEmpty()) {
-								ret[0] = nullConstant;
-								changed[0] = true;
-							} else if(children.size() == 1) {
-								ret[0] = children.get(0).getPart();
-								changed[0] = true;
-							}
-						} else if(child instanceof BranchPart) {
-							if(((BranchPart)child).getChildren().isEmpty()) {
-								ret[0] = nullConstant;
-								changed[0] = true;
-							}
-						}
-					} else if(parent instanceof BranchPart) {
-						if(child instanceof NullConstantPart) {
-							if(((BranchPart)parent).removeChild(childNode))
-								changed[0] = true;
-						} else if(child instanceof AppendPart || child instanceof OrPart) {
-							List<Node> children = ((BranchPart)child).getChildNodes();
-							if(children.isEmpty()) {
-								if(((BranchPart)parent).removeChild(childNode))
-									changed[0] = true;
-							} else if(children.size() == 1) {
-								if(((BranchPart)parent).swapChild(childNode, children.get(0)))
-									changed[0] = true;
-							} else { //If the parent is also an or child then it will merge otherwise nothing happens
-								if(((BranchPart)parent).mergeChild(childNode))
-									changed[0] = true;
-							}
-						} else if(child instanceof BranchPart) {
-							if(((BranchPart)child).getChildren().isEmpty()) {
-								if(((BranchPart)parent).removeChild(childNode))
-									changed[0] = true;
-							}
-						}
+	/* Removes loops, normalize parts, nulls, and empty branch parts and collapses or merges the or and append parts with
+	 * one child or with a parent of the same type. Since the rules before DNF run to a fixpoint, loops and normalize parts
+	 * are removed by the same rule that simplifies the nulls.
+	 */
+	private final Rule simplifyNulls = new Rule() {
+		@Override
+		public Node apply(Part parent, Node childNode) {
+			Part child = childNode.getPart();
+			if(parent == null) {
+				if(child instanceof LoopPart) {
+					return PartRewriter.replace(parent, childNode, nullConstant);
+				} else if(child instanceof OrPart || child instanceof AppendPart) {
+					List<Node> children = ((BranchPart)child).getChildNodes();
+					if(children.isEmpty())
+						return PartRewriter.replace(parent, childNode, nullConstant);
+					else if(children.size() == 1)
+						return PartRewriter.replace(parent, childNode, children.get(0).getPart());
+				} else if(child instanceof NormalizePart) {
+					if(((BranchPart)child).getChildren().isEmpty())
+						return PartRewriter.replace(parent, childNode, nullConstant);
+					else
+						return PartRewriter.replace(parent, childNode, ((NormalizePart)child).getChild());
+				} else if(child instanceof BranchPart) {
+					if(((BranchPart)child).getChildren().isEmpty())
+						return PartRewriter.replace(parent, childNode, nullConstant);
+				}
+			} else if(parent instanceof BranchPart) {
+				if(child instanceof NullConstantPart || child instanceof LoopPart) {
+					if(((BranchPart)parent).removeChild(childNode))
+						return null;
+				} else if(child instanceof AppendPart || child instanceof OrPart) {
+					List<Node> children = ((BranchPart)child).getChildNodes();
+					if(children.isEmpty()) {
+						if(((BranchPart)parent).removeChild(childNode))
+							return null;
+					} else if(children.size() == 1) {
+						return PartRewriter.replace(parent, childNode, children.get(0).getPart());
+					} else { //If the parent is also an or child then it will merge otherwise nothing happens
+						if(((BranchPart)parent).mergeChild(childNode))
+							return null;
+					}
+				} else if(child instanceof NormalizePart) {
+					if(((BranchPart)child).getChildren().isEmpty()) {
+						if(((BranchPart)parent).removeChild(childNode))
+							return null;
+					} else {
+						return PartRewriter.replace(parent, childNode, ((NormalizePart)child).getChild());
+					}
+				} else if(child instanceof BranchPart) {
+					if(((BranchPart)child).getChildren().isEmpty()) {
+						if(((BranchPart)parent).removeChild(childNode))
+							return null;
 					}
 				}
-			});
-		} while(changed[0]);
-		return ret[0];
-	}
+			}
+			return childNode;
+		}
+	};
 	
 	private static final Map<String,Part> fieldToValueMap = ImmutableMap.<String,Part>builder()
 			.put("<com.android.timezone.distro.installer.TimeZoneDistroInstaller: java.io.File systemTzDataFile>", new StringConstantPart("/system/usr/share/zoneinfo/tzdata"))
@@ -1056,55 +1141,37 @@ public class PerformMatching {
 			
 			.build();
 	
-	private Part fixTVDevice(PHPart seed, Part org) {
-		Set<String> tvseeds = ImmutableSet.<String>builder()
-				.add("<com.android.server.tv.TvInputManagerService$BinderService: java.util.List getDvbDeviceList()>")
-				.add("<com.android.server.tv.TvInputManagerService$BinderService: android.os.ParcelFileDescriptor openDvbDevice(android.media.tv.DvbDeviceInfo,int)>")
-				.build();
-		
-		if(seed instanceof PHBaseValuePart && tvseeds.contains(((PHBaseValuePart)seed).getSource().getSource().getSignature())) {
-			Part[] ret = {org};
-			org.getPostOrderIterator().forEachRemaining(new Consumer<Pair<Part,Node>>() {
-				public void accept(Pair<Part,Node> t) {
-					Part parent = t.getFirst();
-					Node childNode = t.getSecond();
-					Part child = childNode.getPart();
-					if(child instanceof StringConstantPart && ((StringConstantPart)child).getValue().equals("/dev")) {
-						Part p = new StringConstantPart("/dev/dvb");
-						if(p != null) {
-							if(parent == null)
-								ret[0] = p;
-							else
-								((BranchPart)parent).swapChild(childNode, p);
-						}
-					}
-				}
-			});
-			return ret[0];
-		}
-		return org;
+	private static final Set<String> tvSeeds = ImmutableSet.<String>builder()
+			.add("<com.android.server.tv.TvInputManagerService$BinderService: java.util.List getDvbDeviceList()>")
+			.add("<com.android.server.tv.TvInputManagerService$BinderService: android.os.ParcelFileDescriptor openDvbDevice(android.media.tv.DvbDeviceInfo,int)>")
+			.build();
+	
+	private static boolean isTVSeed(PHPart seed) {
+		return seed instanceof PHBaseValuePart && tvSeeds.contains(((PHBaseValuePart)seed).getSource().getSource().getSignature());
 	}
+	
+	private final Rule fixTVDevice = new Rule() {
+		@Override
+		public Node apply(Part parent, Node childNode) {
+			Part child = childNode.getPart();
+			if(child instanceof StringConstantPart && ((StringConstantPart)child).getValue().equals("/dev"))
+				return PartRewriter.replace(parent, childNode, new StringConstantPart("/dev/dvb"));
+			return childNode;
+		}
+	};
 			
-	private Part forceSubFields(Part org) {
-		Part[] ret = {org};
-		org.getPostOrderIterator().forEachRemaining(new Consumer<Pair<Part,Node>>() {
-			public void accept(Pair<Part,Node> t) {
-				Part parent = t.getFirst();
-				Node childNode = t.getSecond();
-				Part child = childNode.getPart();
-				if(child instanceof AnyFieldRefPart) {
-					Part p = fieldToValueMap.get(((AnyFieldRefPart)child).getFieldSig());
-					if(p != null) {
-						if(parent == null)
-							ret[0] = p;
-						else
-							((BranchPart)parent).swapChild(childNode, p);
-					}
-				}
+	private final Rule forceSubFields = new Rule() {
+		@Override
+		public Node apply(Part parent, Node childNode) {
+			Part child = childNode.getPart();
+			if(child instanceof AnyFieldRefPart) {
+				Part p = fieldToValueMap.get(((AnyFieldRefPart)child).getFieldSig());
+				if(p != null) //The values of the map are shared and the later rules modify the part
+					return PartRewriter.replace(parent, childNode, p.clonePart());
 			}
-		});
-		return ret[0];
-	}
+			return childNode;
+		}
+	};
 	
 	private static final Map<String,Part> targetMethodToValueMap = ImmutableMap.<String,Part>builder()
 			.put("<android.os.Environment: java.io.File getDataDirectory()>", new StringConstantPart("/data"))
@@ -1134,79 +1201,59 @@ public class PerformMatching {
 			.put("<com.android.server.appop.HistoricalRegistry$Persistence: void handlePersistHistoricalOpsRecursiveDLocked(java.io.File,java.io.File,java.util.List,java.util.Set,int)>", new StringConstantPart("/data/system/appops/history"))
 			.build();
 	
-	private Part forceSubMethods(Part org) {
-		Part[] ret = {org};
-		org.getPostOrderIterator().forEachRemaining(new Consumer<Pair<Part,Node>>() {
-			public void accept(Pair<Part,Node> t) {
-				Part parent = t.getFirst();
-				Node childNode = t.getSecond();
-				Part child = childNode.getPart();
-				if(child instanceof AnyMethodReturnPart) {
-					Part p = targetMethodToValueMap.get(((AnyMethodReturnPart)child).getTargetMethodSig());
-					if(p != null) {
-						if(parent == null)
-							ret[0] = p;
-						else
-							((BranchPart)parent).swapChild(childNode, p);
-					} else {
-						Part p2 = sourceMethodToValueMap.get(((AnyMethodReturnPart)child).getSourceMethodSig());
-						if(p2 != null) {
-							if(parent == null)
-								ret[0] = p2;
-							else
-								((BranchPart)parent).swapChild(childNode, p2);
-						}
-					}
-				}
+	private final Rule forceSubMethods = new Rule() {
+		@Override
+		public Node apply(Part parent, Node childNode) {
+			Part child = childNode.getPart();
+			if(child instanceof AnyMethodReturnPart) {
+				Part p = targetMethodToValueMap.get(((AnyMethodReturnPart)child).getTargetMethodSig());
+				if(p == null)
+					p = sourceMethodToValueMap.get(((AnyMethodReturnPart)child).getSourceMethodSig());
+				if(p != null) //The values of the maps are shared and the later rules modify the part
+					return PartRewriter.replace(parent, childNode, p.clonePart());
 			}
-		});
-		return ret[0];
-	}
+			return childNode;
+		}
+	};
 	
-	private Part assumeSingleUser(Part org) {
-		Part[] ret = {org};
-		Set<String> userIdMethodSigs = ImmutableSet.<String>of(
-				"<android.os.UserHandle: int myUserId()>", 
-				"<android.os.UserHandle: int getCallingUserId()>",
-				"<android.os.UserHandle: int getUserId(int)>",
-				"<android.app.ActivityManager: int getCurrentUser()>",
-				"<com.samsung.android.knox.sdp.SdpUtil: int extractAndroidDefaultUserId(java.lang.String)>"
-				);
-		Set<String> userIdFieldSigs = ImmutableSet.<String>of(
-				"<com.android.server.accounts.AccountManagerService$UserAccounts: int userId>",
-				"<com.android.server.backup.UserBackupManagerService: int mUserId>",
-				"<com.android.server.devicepolicy.Owners: int mDeviceOwnerUserId>",
-				"<com.android.server.inputmethod.InputMethodUtils$InputMethodSettings: int mCurrentUserId>",
-				"<com.android.server.pm.PackageInstallerSession: int userId>",
-				"<com.android.server.tv.TvInputManagerService: int mCurrentUserId>",
-				"<com.android.server.tv.TvInputManagerService$ServiceCallback: int mUserId>",
-				"<com.android.server.tv.TvInputManagerService$SessionState: int userId>",
-				"<com.android.server.wallpaper.WallpaperManagerService$WallpaperData: int userId>",
-				"<com.android.server.wm.WindowManagerService: int mCurrentUserId>",
-				"<com.samsung.android.knox.sdp.core.SdpEngineInfo: int mId>"
-				);
-		org.getPostOrderIterator().forEachRemaining(new Consumer<Pair<Part,Node>>() {
-			public void accept(Pair<Part,Node> t) {
-				Part parent = t.getFirst();
-				Node childNode = t.getSecond();
-				Part child = childNode.getPart();
-				if(child instanceof AnyUserIdPart //Main Indicator
-						|| (child instanceof ConstantPart && isNegativeInt(child.toString())) //Comes from when a userid variable is initilized before being given a valid value
-						|| (child instanceof AnyMethodReturnPart && userIdMethodSigs.contains(((AnyMethodReturnPart)child).getTargetMethodSig()))
-						|| (child instanceof AnyPartImpl && userIdMethodSigs.contains(((AnyPartImpl)child).getSourceMethodSig()))
-						|| (child instanceof AnyFieldRefPart && userIdFieldSigs.contains(((AnyFieldRefPart)child).getFieldSig()))
-						|| (child instanceof AnyNumberPart && userIdMethodSigs.contains(((AnyNumberPart)child).getSourceMethodSig()))
-						) {
-					Part p = new StringConstantPart("0");
-					if(parent == null)
-						ret[0] = p;
-					else
-						((BranchPart)parent).swapChild(childNode, p);
-				}
+	private static final Set<String> userIdMethodSigs = ImmutableSet.<String>of(
+			"<android.os.UserHandle: int myUserId()>", 
+			"<android.os.UserHandle: int getCallingUserId()>",
+			"<android.os.UserHandle: int getUserId(int)>",
+			"<android.app.ActivityManager: int getCurrentUser()>",
+			"<com.samsung.android.knox.sdp.SdpUtil: int extractAndroidDefaultUserId(java.lang.String)>"
+			);
+	
+	private static final Set<String> userIdFieldSigs = ImmutableSet.<String>of(
+			"<com.android.server.accounts.AccountManagerService$UserAccounts: int userId>",
+			"<com.android.server.backup.UserBackupManagerService: int mUserId>",
+			"<com.android.server.devicepolicy.Owners: int mDeviceOwnerUserId>",
+			"<com.android.server.inputmethod.InputMethodUtils$InputMethodSettings: int mCurrentUserId>",
+			"<com.android.server.pm.PackageInstallerSession: int userId>",
+			"<com.android.server.tv.TvInputManagerService: int mCurrentUserId>",
+			"<com.android.server.tv.TvInputManagerService$ServiceCallback: int mUserId>",
+			"<com.android.server.tv.TvInputManagerService$SessionState: int userId>",
+			"<com.android.server.wallpaper.WallpaperManagerService$WallpaperData: int userId>",
+			"<com.android.server.wm.WindowManagerService: int mCurrentUserId>",
+			"<com.samsung.android.knox.sdp.core.SdpEngineInfo: int mId>"
+			);
+	
+	private final Rule assumeSingleUser = new Rule() {
+		@Override
+		public Node apply(Part parent, Node childNode) {
+			Part child = childNode.getPart();
+			if(child instanceof AnyUserIdPart //Main Indicator
+					|| (child instanceof ConstantPart && isNegativeInt(child.toString())) //Comes from when a userid variable is initilized before being given a valid value
+					|| (child instanceof AnyMethodReturnPart && userIdMethodSigs.contains(((AnyMethodReturnPart)child).getTargetMethodSig()))
+					|| (child instanceof AnyPartImpl && userIdMethodSigs.contains(((AnyPartImpl)child).getSourceMethodSig()))
+					|| (child instanceof AnyFieldRefPart && userIdFieldSigs.contains(((AnyFieldRefPart)child).getFieldSig()))
+					|| (child instanceof AnyNumberPart && userIdMethodSigs.contains(((AnyNumberPart)child).getSourceMethodSig()))
+					) {
+				return PartRewriter.replace(parent, childNode, new StringConstantPart("0"));
 			}
-		});
-		return ret[0];
-	}
+			return childNode;
+		}
+	};
 	
 	private boolean isNegativeInt(String strNum) {
 		if (strNum == null)
@@ -1221,74 +1268,94 @@ public class PerformMatching {
 		}
 	}
 	
-	private Part removeLoopsAndNormalize(Part org) {
-		Part[] ret = {org};
-		org.getPostOrderIterator().forEachRemaining(new Consumer<Pair<Part,Node>>() {
-			public void accept(Pair<Part,Node> t) {
-				Part parent = t.getFirst();
-				Node childNode = t.getSecond();
-				Part child = childNode.getPart();
-				if(parent == null) {
-					if(child instanceof LoopPart) {
-						ret[0] = nullConstant;
-					} else if(child instanceof OrPart) {
-						List<Node> children = ((OrPart)child).getChildNodes();
-						if(children.isEmpty())
-							ret[0] = nullConstant;
-						else if(children.size() == 1)
-							ret[0] = children.get(0).getPart();
-					} else if(child instanceof AppendPart) {
-						List<Node> children = ((AppendPart)child).getChildNodes();
-						if(children.isEmpty())
-							ret[0] = nullConstant;
-						else if(children.size() == 1)
-							ret[0] = children.get(0).getPart();
-					} else if(child instanceof NamePart || child instanceof ParentPart 
-							|| child instanceof EnvVarPart || child instanceof SysVarPart) {
-						if(((BranchPart)child).getChildren().isEmpty())
-							ret[0] = nullConstant;
-					} else if(child instanceof NormalizePart) {
-						if(((BranchPart)child).getChildren().isEmpty())
-							ret[0] = nullConstant;
-						else
-							ret[0] = ((NormalizePart)child).getChild();
-					}
-				} else if(parent instanceof BranchPart) {
-					if(child instanceof LoopPart) {
-						((BranchPart)parent).removeChild(childNode);
-					} else if(child instanceof OrPart) {
-						List<Node> children = ((OrPart)child).getChildNodes();
-						if(children.isEmpty())
-							((BranchPart)parent).removeChild(childNode);
-						else if(children.size() == 1)
-							((BranchPart)parent).swapChild(childNode, children.get(0));
-						else //If the parent is also an or child then it will merge otherwise nothing happens
-							((BranchPart)parent).mergeChild(childNode);
-					} else if(child instanceof AppendPart) {
-						List<Node> children = ((AppendPart)child).getChildNodes();
-						if(children.isEmpty())
-							((BranchPart)parent).removeChild(childNode);
-						else if(children.size() == 1)
-							((BranchPart)parent).swapChild(childNode, children.get(0));
-						else //If the parent is also an or child then it will merge otherwise nothing happens
-							((BranchPart)parent).mergeChild(childNode);
-					} else if(child instanceof NamePart || child instanceof ParentPart 
-							|| child instanceof EnvVarPart || child instanceof SysVarPart) {
-						if(((BranchPart)child).getChildren().isEmpty())
-							((BranchPart)parent).removeChild(childNode);
-					} else if(child instanceof NormalizePart) {
-						if(((BranchPart)child).getChildren().isEmpty())
-							((BranchPart)parent).removeChild(childNode);
-						else
-							((BranchPart)parent).swapChild(childNode, ((NormalizePart)child).getChildNode());
-					}
+	/** Converts the given Part to DNF unless its DNF would have more than dnfBudget parts, in which case the first
+	 * element of hitBudget is set to true. An OrPart or AppendPart over the budget is kept factored and each of its
+	 * children is converted on its own, with the children that become OrParts merged into an OrPart so it stays a
+	 * single alternation. The rules for ParentPart and NamePart need their child in DNF so these are replaced by the
+	 * AnyInfoPart the rules use when the parent or name cannot be determined. EnvVarPart and SysVarPart are left as is
+	 * since they are replaced as a whole by the rules after DNF. Must be run after the rules before DNF.
+	 */
+	private Part convertToDNFBounded(Part part, Map<Part,long[]> sizes, boolean[] hitBudget) {
+		if(dnfBudget <= 0 || estimateDNFSize(part, sizes)[1] <= dnfBudget)
+			return convertToDNF(part);
+		hitBudget[0] = true;
+		if(part instanceof ParentPart) {
+			return new AnyInfoPart("PARENTPATH");
+		} else if(part instanceof NamePart) {
+			return new AnyInfoPart("NAMEPATH");
+		} else if(part instanceof OrPart || part instanceof AppendPart) {
+			BranchPart b = (BranchPart)part;
+			for(Node n : b.getChildNodes()) {
+				Part newChild = convertToDNFBounded(n.getPart(), sizes, hitBudget);
+				Node newNode = n;
+				if(newChild != n.getPart()) {
+					newNode = new Node(newChild);
+					if(!b.swapChild(n, newNode))
+						continue; //An equal child already exists in the OrPart
 				}
+				if(part instanceof OrPart && newChild instanceof OrPart)
+					b.mergeChild(newNode);
 			}
-		});
-		return ret[0];
+		}
+		return part;
+	}
+	
+	/* Returns the number of alternatives and the number of parts (i.e. leaves and the wrappers of the variable, parent,
+	 * and name parts) in the DNF of the given Part without computing the DNF. The sizes are upper bounds since the
+	 * conversion may drop duplicate alternatives and saturate at Long.MAX_VALUE. The sizes of the Parts already visited
+	 * are kept in the given map by identity.
+	 */
+	private static long[] estimateDNFSize(Part part, Map<Part,long[]> sizes) {
+		long[] ret = sizes.get(part);
+		if(ret != null)
+			return ret;
+		if(part instanceof OrPart) {
+			long alts = 0;
+			long parts = 0;
+			for(Part child : (OrPart)part) {
+				long[] c = estimateDNFSize(child, sizes);
+				alts = saturatedAdd(alts, c[0]);
+				parts = saturatedAdd(parts, c[1]);
+			}
+			ret = new long[] {alts, parts};
+		} else if(part instanceof AppendPart) {
+			//Each alternative of a child is appended to every combination of the alternatives of the other children
+			long alts = 1;
+			long parts = 0;
+			for(Part child : (AppendPart)part) {
+				long[] c = estimateDNFSize(child, sizes);
+				parts = saturatedAdd(saturatedMultiply(parts, c[0]), saturatedMultiply(alts, c[1]));
+				alts = saturatedMultiply(alts, c[0]);
+			}
+			ret = new long[] {alts, parts};
+		} else if(part instanceof EnvVarPart || part instanceof SysVarPart || part instanceof ParentPart || part instanceof NamePart) {
+			//Each alternative of the child is wrapped on its own
+			BranchPart b = (BranchPart)part;
+			if(b.getChildCount() == 0) {
+				ret = new long[] {1, 1};
+			} else {
+				long[] c = estimateDNFSize(b.getChildNode(0).getPart(), sizes);
+				ret = new long[] {c[0], saturatedAdd(c[1], c[0])};
+			}
+		} else {
+			ret = new long[] {1, 1};
+		}
+		sizes.put(part, ret);
+		return ret;
+	}
+	
+	private static long saturatedAdd(long a, long b) {
+		long ret = a + b;
+		return ret < 0 ? Long.MAX_VALUE : ret;
+	}
+	
+	private static long saturatedMultiply(long a, long b) {
+		if(a == 0 || b == 0)
+			return 0;
+		return a > Long.MAX_VALUE / b ? Long.MAX_VALUE : a * b;
 	}
 	
-	//Must be run after loops and normalization have been removed
+	//Must be run after loops and normalization have been removed (i.e. after the rules before DNF)
 	private Part convertToDNF(Part orgPart) {
 		Deque<Node> queue = new ArrayDeque<>();
 		Map<Node,List<List<Node>>> data = new HashMap<>();
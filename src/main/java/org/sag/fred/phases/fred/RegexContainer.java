@@ -1,15 +1,21 @@
 package org.sag.fred.phases.fred;
 
+import java.io.ObjectStreamException;
 import java.nio.file.Path;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.sag.common.tools.SortingMethods;
 import org.sag.common.xstream.NamedCollectionConverterWithSize;
 import org.sag.common.xstream.XStreamInOut;
 import org.sag.common.xstream.XStreamInOut.XStreamInOutInterface;
+import org.sag.fred.database.filepaths.parts.PartInterner;
 import org.sag.fred.database.ssfiles.FileEntry;
 
 import com.thoughtworks.xstream.XStream;
@@ -29,6 +35,10 @@ public final class RegexContainer implements XStreamInOutInterface, Comparable<R
 	@XStreamConverter(value=NamedCollectionConverterWithSize.class,strings={"FileContainer"},types={FileContainer.class})
 	private LinkedHashSet<FileContainer> files;
 	
+	//Files recorded by accumulateFile that have yet to be merged into files
+	@XStreamOmitField
+	private volatile ConcurrentHashMap<FileEntry,Set<String>> pendingFiles;
+	
 	private RegexContainer() {}
 	
 	public RegexContainer(String regex) {
@@ -36,11 +46,22 @@ public final class RegexContainer implements XStreamInOutInterface, Comparable<R
 		this.regex = regex;
 		this.ies = new LinkedHashSet<>();
 		this.files = new LinkedHashSet<>();
+		this.pendingFiles = new ConcurrentHashMap<>();
+	}
+	
+	protected Object readResolve() throws ObjectStreamException {
+		pendingFiles = new ConcurrentHashMap<>();
+		return this;
+	}
+	
+	protected Object writeReplace() throws ObjectStreamException {
+		mergePendingFiles();
+		return this;
 	}
 	
 	public RegexContainer clone() {
 		RegexContainer r = new RegexContainer(regex);
-		for(FileContainer f : files) {
+		for(FileContainer f : getFiles()) {
 			r.files.add(f.clone());
 		}
 		for(IntermediateExpression i : ies) {
@@ -54,12 +75,20 @@ public final class RegexContainer implements XStreamInOutInterface, Comparable<R
 		ies.add(ie);
 	}
 	
+	/** Replaces the parts of all intermediate expressions with their canonical instances. */
+	synchronized void internParts(PartInterner interner) {
+		for(IntermediateExpression ie : ies) {
+			ie.internParts(interner);
+		}
+	}
+	
 	public synchronized FileContainer addFile(FileEntry fileEntry, Set<String> permissions) {
 		return addFile(fileEntry, permissions, null);
 	}
 	
 	public synchronized FileContainer addFile(FileEntry fileEntry, Set<String> permissions, Set<String> missingPermissions) {
 		Objects.requireNonNull(fileEntry);
+		mergePendingFiles();
 		if(permissions == null)
 			permissions = Collections.emptySet();
 		for(FileContainer f : files) {
@@ -82,6 +111,51 @@ public final class RegexContainer implements XStreamInOutInterface, Comparable<R
 		return ret;
 	}
 	
+	/** Records a match of the given file without locking. Matches of the same file are merged by
+	 * file entry and their permissions combined. The accumulated files are merged into the files
+	 * of this container the next time the files are accessed or the container is sorted, so all
+	 * accumulation should be complete before then. Sorting of the permissions is deferred until the merge.
+	 */
+	public void accumulateFile(FileEntry fileEntry, Set<String> permissions) {
+		Objects.requireNonNull(fileEntry);
+		Set<String> perms = pendingFiles.get(fileEntry);
+		if(perms == null) {
+			Set<String> temp = ConcurrentHashMap.newKeySet();
+			perms = pendingFiles.putIfAbsent(fileEntry, temp);
+			if(perms == null)
+				perms = temp;
+		}
+		if(permissions != null)
+			perms.addAll(permissions);
+	}
+	
+	private void mergePendingFiles() {
+		if(!pendingFiles.isEmpty()) {
+			synchronized(this) {
+				if(!pendingFiles.isEmpty()) {
+					Map<FileEntry,FileContainer> existing = new HashMap<>();
+					for(FileContainer f : files) {
+						existing.put(f.getFileEntry(), f);
+					}
+					for(Iterator<FileEntry> it = pendingFiles.keySet().iterator(); it.hasNext();) {
+						FileEntry fileEntry = it.next();
+						Set<String> perms = pendingFiles.get(fileEntry);
+						it.remove();
+						FileContainer f = existing.get(fileEntry);
+						if(f == null) {
+							f = new FileContainer(fileEntry, perms);
+							existing.put(fileEntry, f);
+							files.add(f);
+						} else {
+							f.getPermissions().addAll(perms);
+							f.sort();
+						}
+					}
+				}
+			}
+		}
+	}
+	
 	@Override
 	public boolean equals(Object o) {
 		if(this == o)
@@ -112,7 +186,7 @@ public final class RegexContainer implements XStreamInOutInterface, Comparable<R
 	public String toString(String spacer) {
 		StringBuilder sb = new StringBuilder();
 		sb.append(spacer).append(regex).append("\n");
-		if(!files.isEmpty()) {
+		if(!getFiles().isEmpty()) {
 			sb.append(spacer).append("  Files: \n");
 			for(FileContainer f : files) {
 				sb.append(spacer).append("    ").append(f.toString()).append(" - User: ").append(f.getFileEntry().getUser())
@@ -141,10 +215,12 @@ public final class RegexContainer implements XStreamInOutInterface, Comparable<R
 	}
 
 	public Set<FileContainer> getFiles() {
+		mergePendingFiles();
 		return files;
 	}
 	
 	public synchronized void sort() {
+		mergePendingFiles();
 		ies = SortingMethods.sortSet(ies);
 		files = SortingMethods.sortSet(files);
 	}
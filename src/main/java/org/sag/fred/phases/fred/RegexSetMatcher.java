@@ -0,0 +1,349 @@
+package org.sag.fred.phases.fred;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/** Matches a string against a whole set of regular expressions in a single scan. The regexes
+ * produced by {@link org.sag.fred.database.filepaths.parts.Part#toRegexString()} only ever contain
+ * quoted literals (i.e. \Q..\E), .*, \d+, non-capturing alternation groups (?:a|b), and the empty
+ * string. All regexes made up of these constructs are compiled into a single combined NFA which is
+ * lazily converted into a DFA as input is scanned so the cost of matching one string is linear in
+ * its length regardless of the number of regexes. Any regex outside of this subset falls back to
+ * {@link Pattern}. The matcher is thread safe.
+ */
+public final class RegexSetMatcher {
+	
+	/** Limit on the estimated memory in bytes of the cached DFA states. Past this the NFA is simulated directly. */
+	private static final long maxCachedBytes = 64L << 20;
+	/** Estimated bytes of a cached state not counting its NFA state set and accepts (i.e. the object headers, the
+	 * transition map, and the entry in the DFA map).
+	 */
+	private static final int stateOverhead = 160;
+	
+	private static final int CHAR = 0;
+	private static final int ANY = 1;
+	private static final int DIGIT = 2;
+	private static final int SPLIT = 3;
+	private static final int ACCEPT = 4;
+	
+	private final List<String> regexes;
+	private final List<NState> nfa;
+	private final List<Integer> fallbackIndexes;
+	private final List<Pattern> fallbackPatterns;
+	private final Map<BitSet,State> dfa;
+	private final AtomicLong dfaBytes;
+	private final State start;
+	
+	public RegexSetMatcher(Collection<String> regexes) {
+		this.regexes = Collections.unmodifiableList(new ArrayList<>(new LinkedHashSet<>(regexes)));
+		this.nfa = new ArrayList<>();
+		this.fallbackIndexes = new ArrayList<>();
+		this.fallbackPatterns = new ArrayList<>();
+		this.dfa = new ConcurrentHashMap<>();
+		this.dfaBytes = new AtomicLong();
+		
+		List<NState> starts = new ArrayList<>();
+		for(int i = 0; i < this.regexes.size(); i++) {
+			String regex = this.regexes.get(i);
+			List<Elem> seq = new Parser(regex).parse();
+			if(seq == null) {
+				fallbackIndexes.add(i);
+				fallbackPatterns.add(Pattern.compile(regex));
+			} else {
+				NState accept = newState(ACCEPT);
+				accept.c = i;
+				starts.add(compileSeq(seq, accept));
+			}
+		}
+		
+		BitSet startSet = new BitSet(nfa.size());
+		for(NState s : starts) {
+			closure(s, startSet);
+		}
+		this.start = intern(startSet);
+	}
+	
+	public List<String> getRegexes() {
+		return regexes;
+	}
+	
+	public int getFallbackCount() {
+		return fallbackPatterns.size();
+	}
+	
+	/** Returns all regexes in the set that match the entire input string. */
+	public List<String> match(CharSequence input) {
+		return getMatches(advance(start, input), input);
+	}
+	
+	/** The state before any input has been consumed. */
+	public State getStartState() {
+		return start;
+	}
+	
+	/** Returns the state reached by consuming the given input starting from the given state. */
+	public State advance(State cur, CharSequence input) {
+		for(int i = 0; i < input.length() && !cur.isDead(); i++) {
+			cur = step(cur, input.charAt(i));
+		}
+		return cur;
+	}
+	
+	/** Returns true if no input consumed after reaching the given state can produce a match. */
+	public boolean isDead(State cur) {
+		return cur.isDead() && fallbackPatterns.isEmpty();
+	}
+	
+	/** Returns all regexes that match the input given the state reached after consuming all of the input.
+	 * The input is only needed for those regexes that could not be compiled into the automaton.
+	 */
+	public List<String> getMatches(State cur, CharSequence input) {
+		List<String> ret = new ArrayList<>();
+		for(int i : cur.accepts) {
+			ret.add(regexes.get(i));
+		}
+		for(int i = 0; i < fallbackPatterns.size(); i++) {
+			if(fallbackPatterns.get(i).matcher(input).matches())
+				ret.add(regexes.get(fallbackIndexes.get(i)));
+		}
+		return ret;
+	}
+	
+	private State step(State cur, char c) {
+		State ret = cur.next.get(c);
+		if(ret == null) {
+			BitSet nextSet = new BitSet(nfa.size());
+			for(int i = cur.states.nextSetBit(0); i >= 0; i = cur.states.nextSetBit(i + 1)) {
+				NState s = nfa.get(i);
+				if((s.kind == CHAR && s.c == c) || (s.kind == ANY && !isLineTerminator(c))
+						|| (s.kind == DIGIT && c >= '0' && c <= '9')) {
+					closure(s.out, nextSet);
+				}
+			}
+			ret = intern(nextSet);
+			if(ret.cached)
+				cur.next.putIfAbsent(c, ret);
+		}
+		return ret;
+	}
+	
+	private State intern(BitSet states) {
+		State ret = dfa.get(states);
+		if(ret == null) {
+			if(dfaBytes.get() >= maxCachedBytes)
+				return new State(states, false);
+			//The sets are allocated for the whole NFA so only the words actually in use are kept
+			State temp = new State(BitSet.valueOf(states.toLongArray()), true);
+			ret = dfa.putIfAbsent(temp.states, temp);
+			if(ret == null) {
+				ret = temp;
+				dfaBytes.addAndGet(temp.getEstimatedBytes());
+			}
+		}
+		return ret;
+	}
+	
+	/** Java's . does not match line terminators unless DOTALL is set. */
+	private static boolean isLineTerminator(char c) {
+		return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+	}
+	
+	private void closure(NState s, BitSet set) {
+		List<NState> stack = new ArrayList<>();
+		stack.add(s);
+		while(!stack.isEmpty()) {
+			NState cur = stack.remove(stack.size() - 1);
+			if(!set.get(cur.id)) {
+				set.set(cur.id);
+				if(cur.kind == SPLIT) {
+					for(NState o : cur.eps)
+						stack.add(o);
+				}
+			}
+		}
+	}
+	
+	private NState newState(int kind) {
+		NState ret = new NState(nfa.size(), kind);
+		nfa.add(ret);
+		return ret;
+	}
+	
+	/** Thompson construction working backwards from the state that follows the sequence. */
+	private NState compileSeq(List<Elem> seq, NState next) {
+		for(int i = seq.size() - 1; i >= 0; i--) {
+			Elem e = seq.get(i);
+			if(e.kind == Elem.LIT) {
+				for(int j = e.lit.length() - 1; j >= 0; j--) {
+					NState s = newState(CHAR);
+					s.c = e.lit.charAt(j);
+					s.out = next;
+					next = s;
+				}
+			} else if(e.kind == Elem.STAR) {
+				NState split = newState(SPLIT);
+				NState any = newState(ANY);
+				any.out = split;
+				split.eps = new NState[] {any, next};
+				next = split;
+			} else if(e.kind == Elem.DIGITS) {
+				NState split = newState(SPLIT);
+				NState digit = newState(DIGIT);
+				digit.out = split;
+				split.eps = new NState[] {digit, next};
+				next = digit;
+			} else {
+				NState split = newState(SPLIT);
+				split.eps = new NState[e.alts.size()];
+				for(int j = 0; j < e.alts.size(); j++) {
+					split.eps[j] = compileSeq(e.alts.get(j), next);
+				}
+				next = split;
+			}
+		}
+		return next;
+	}
+	
+	private static final class NState {
+		final int id;
+		final int kind;
+		int c;
+		NState out;
+		NState[] eps;
+		NState(int id, int kind) {
+			this.id = id;
+			this.kind = kind;
+		}
+	}
+	
+	/** A position in the combined automaton reached after consuming some prefix of an input. */
+	public final class State {
+		final BitSet states;
+		final int[] accepts;
+		final boolean cached;
+		final Map<Character,State> next;
+		State(BitSet states, boolean cached) {
+			this.states = states;
+			this.cached = cached;
+			this.next = new ConcurrentHashMap<>();
+			List<Integer> acc = new ArrayList<>();
+			for(int i = states.nextSetBit(0); i >= 0; i = states.nextSetBit(i + 1)) {
+				NState s = nfa.get(i);
+				if(s.kind == ACCEPT)
+					acc.add(s.c);
+			}
+			this.accepts = new int[acc.size()];
+			for(int i = 0; i < acc.size(); i++)
+				this.accepts[i] = acc.get(i);
+		}
+		boolean isDead() {
+			return states.isEmpty();
+		}
+		long getEstimatedBytes() {
+			return states.size() / 8 + 4L * accepts.length + stateOverhead;
+		}
+	}
+	
+	private static final class Elem {
+		static final int LIT = 0;
+		static final int STAR = 1;
+		static final int DIGITS = 2;
+		static final int ALT = 3;
+		final int kind;
+		final String lit;
+		final List<List<Elem>> alts;
+		Elem(int kind, String lit, List<List<Elem>> alts) {
+			this.kind = kind;
+			this.lit = lit;
+			this.alts = alts;
+		}
+	}
+	
+	/** Parses the supported regex subset. Returns null for anything else so the regex falls back to a {@link Pattern}. */
+	private static final class Parser {
+		private final String regex;
+		private int pos;
+		Parser(String regex) {
+			this.regex = regex;
+			this.pos = 0;
+		}
+		List<Elem> parse() {
+			List<Elem> ret = parseSeq();
+			if(ret == null || pos != regex.length())
+				return null;
+			return ret;
+		}
+		private List<Elem> parseSeq() {
+			List<Elem> ret = new ArrayList<>();
+			StringBuilder lit = new StringBuilder();
+			while(pos < regex.length()) {
+				char c = regex.charAt(pos);
+				if(c == '|' || c == ')') {
+					break;
+				} else if(regex.startsWith("\\Q", pos)) {
+					int end = regex.indexOf("\\E", pos + 2);
+					if(end < 0) {
+						lit.append(regex, pos + 2, regex.length());
+						pos = regex.length();
+					} else {
+						lit.append(regex, pos + 2, end);
+						pos = end + 2;
+					}
+				} else if(regex.startsWith("\\\\", pos)) {
+					lit.append('\\');
+					pos += 2;
+				} else if(regex.startsWith("\\d+", pos)) {
+					flushLit(lit, ret);
+					ret.add(new Elem(Elem.DIGITS, null, null));
+					pos += 3;
+				} else if(regex.startsWith(".*", pos)) {
+					flushLit(lit, ret);
+					ret.add(new Elem(Elem.STAR, null, null));
+					pos += 2;
+				} else if(regex.startsWith("(?:", pos)) {
+					flushLit(lit, ret);
+					pos += 3;
+					List<List<Elem>> alts = new ArrayList<>();
+					List<Elem> alt = parseSeq();
+					if(alt == null)
+						return null;
+					alts.add(alt);
+					while(pos < regex.length() && regex.charAt(pos) == '|') {
+						pos++;
+						alt = parseSeq();
+						if(alt == null)
+							return null;
+						alts.add(alt);
+					}
+					if(pos >= regex.length() || regex.charAt(pos) != ')')
+						return null;
+					pos++;
+					ret.add(new Elem(Elem.ALT, null, alts));
+				} else if(Character.isLetterOrDigit(c) || c == '/' || c == '_' || c == '-' || c == ',' || c == ':' || c == '@'
+						|| c == '=' || c == '%' || c == '#' || c == '~' || c == '!') {
+					lit.append(c);
+					pos++;
+				} else {
+					return null;
+				}
+			}
+			flushLit(lit, ret);
+			return ret;
+		}
+		private static void flushLit(StringBuilder lit, List<Elem> seq) {
+			if(lit.length() > 0) {
+				seq.add(new Elem(Elem.LIT, lit.toString(), null));
+				lit.setLength(0);
+			}
+		}
+	}
+
+}
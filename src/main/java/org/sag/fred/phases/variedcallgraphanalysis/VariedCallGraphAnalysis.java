@@ -5,17 +5,15 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.Map;
-import java.util.Queue;
 import java.util.Set;
 
-import org.sag.acminer.IACMinerDataAccessor;
-import org.sag.acminer.database.excludedelements.IExcludeHandler;
 import org.sag.acminer.phases.entrypoints.EntryPoint;
 import org.sag.common.concurrent.CountingThreadExecutor;
 import org.sag.common.concurrent.IgnorableRuntimeException;
@@ -30,24 +28,25 @@ import org.sag.main.config.Config;
 import org.sag.main.phase.IPhaseHandler;
 import org.sag.main.phase.IPhaseOption;
 import org.sag.soot.SootSort;
-import org.sag.soot.callgraph.JimpleICFG.BasicEdgePredicate;
 import org.sag.soot.graphtools.TGFSootEdgeTranslator;
 import org.sag.soot.graphtools.TGFSootNodeTranslator;
+import org.sag.fred.IFredDataAccessor;
+import org.sag.fred.phases.CallGraphSnapshot;
+import org.sag.fred.phases.ExclusionView;
 
 import soot.Scene;
 import soot.SootMethod;
-import soot.jimple.toolkits.callgraph.CallGraph;
 import soot.jimple.toolkits.callgraph.Edge;
 
 public class VariedCallGraphAnalysis {
 	
 	private final IPhaseHandler handler;
 	private final ILogger mainLogger;
-	private final IACMinerDataAccessor dataAccessor;
+	private final IFredDataAccessor dataAccessor;
 	private final String cn;
 	private final Config config;
 	
-	public VariedCallGraphAnalysis(IACMinerDataAccessor dataAccessor, IPhaseHandler handler, ILogger mainLogger){
+	public VariedCallGraphAnalysis(IFredDataAccessor dataAccessor, IPhaseHandler handler, ILogger mainLogger){
 		this.dataAccessor = dataAccessor;
 		this.handler = handler;
 		this.mainLogger = mainLogger;
@@ -136,7 +135,7 @@ public class VariedCallGraphAnalysis {
 	}
 	
 	private boolean dumpNative(Path outputPath, Path outputPath2) {
-		CallGraph cg = Scene.v().getCallGraph();
+		final CallGraphSnapshot cg = CallGraphSnapshot.of(Scene.v().getCallGraph());
 		Set<EntryPoint> eps = dataAccessor.getEntryPoints();
 		CountingThreadExecutor exe = new CountingThreadExecutor();
 		final Map<EntryPoint,Set<SootMethod>> epsToNativeMethods = new HashMap<>();
@@ -150,25 +149,35 @@ public class VariedCallGraphAnalysis {
 					public void run() {
 						try {
 							SootMethod entryPoint = ep.getEntryPoint();
-							Set<SootMethod> visited = new HashSet<>();
-							Queue<SootMethod> toVisit = new ArrayDeque<>();
-							IExcludeHandler excludeHandler = dataAccessor.getExcludedElementsDB().createNewExcludeHandler(ep);
-							BasicEdgePredicate edgePred = new BasicEdgePredicate(false);//Omit reflective calls 
-							Set<Edge> allowedEdges = new HashSet<>();
+							ExclusionView exclusions = dataAccessor.getExclusionView(ep, cg);
 							Set<SootMethod> nativeMethods = new HashSet<>();
-							toVisit.add(entryPoint);
-							while(!toVisit.isEmpty()) {
-								SootMethod cur = toVisit.poll();
-								if(!excludeHandler.isExcludedMethodWithOverride(cur)) { //Omit excluded native methods and don't traverse excluded methods
-									if(cur.isNative())
-										nativeMethods.add(cur);
-									if(visited.add(cur)) {
-										Iterator<Edge> it = cg.edgesOutOf(cur);
-										while(it.hasNext()) {
-											Edge e = it.next();
-											if(edgePred.want(e)) {
-												allowedEdges.add(e);
-												toVisit.add(e.tgt());
+							int epId = cg.getId(entryPoint);
+							if(epId < 0) {
+								//The entry point has no edges
+								if(!exclusions.isExcludedMethod(entryPoint) && entryPoint.isNative())
+									nativeMethods.add(entryPoint);
+							} else {
+								//Each method is checked once when first reached as the exclusion and native checks do not depend on the path
+								//Both the visited set and the work list grow with the reached set instead of the whole call graph
+								BitSet visited = new BitSet();
+								int[] toVisit = new int[16];
+								int head = 0;
+								int tail = 0;
+								visited.set(epId);
+								toVisit[tail++] = epId;
+								while(head < tail) {
+									int cur = toVisit[head++];
+									SootMethod curMethod = cg.getMethod(cur);
+									if(!exclusions.isExcluded(cur)) { //Omit excluded native methods and don't traverse excluded methods
+										if(curMethod.isNative())
+											nativeMethods.add(curMethod);
+										for(int e = cg.getOutStart(cur); e < cg.getOutEnd(cur); e++) {
+											int tgt = cg.getTarget(e);
+											if(!visited.get(tgt) && cg.isNonReflective(e)) { //Omit reflective calls
+												visited.set(tgt);
+												if(tail == toVisit.length)
+													toVisit = Arrays.copyOf(toVisit, tail * 2);
+												toVisit[tail++] = tgt;
 											}
 										}
 									}
@@ -234,7 +243,7 @@ public class VariedCallGraphAnalysis {
 	}
 	
 	private boolean reachingAnalysis(Path inputPath) {
-		CallGraph cg = Scene.v().getCallGraph();
+		final CallGraphSnapshot cg = CallGraphSnapshot.of(Scene.v().getCallGraph());
 		Set<EntryPoint> eps = dataAccessor.getEntryPoints();
 		CountingThreadExecutor exe = new CountingThreadExecutor();
 		final Map<EntryPoint,Triple<Set<SootMethod>,Integer,Integer>> epsToSinkSubGraph = new HashMap<>();
@@ -273,6 +282,13 @@ public class VariedCallGraphAnalysis {
 		}
 		
 		if(successOuter && !sinks.isEmpty()) {
+			//Sinks without any edges can only be found when they are the entry point itself
+			final BitSet sinkIds = new BitSet(cg.getMethodCount());
+			for(SootMethod sink : sinks) {
+				int id = cg.getId(sink);
+				if(id >= 0)
+					sinkIds.set(id);
+			}
 			try {
 				int i = 0;
 				for(final EntryPoint ep : eps) {
@@ -281,60 +297,84 @@ public class VariedCallGraphAnalysis {
 						public void run() {
 							try {
 								SootMethod entryPoint = ep.getEntryPoint();
-								Set<SootMethod> visited = new HashSet<>();
-								Queue<SootMethod> toVisit = new ArrayDeque<>();
-								IExcludeHandler excludeHandler = dataAccessor.getExcludedElementsDB().createNewExcludeHandler(ep);
-								BasicEdgePredicate edgePred = new BasicEdgePredicate(false);//Omit reflective calls 
-								Set<Edge> allowedEdges = new HashSet<>();
-								Set<SootMethod> foundSinks = new HashSet<>();
-								toVisit.add(entryPoint);
-								while(!toVisit.isEmpty()) {
-									SootMethod cur = toVisit.poll();
-									if(sinks.contains(cur))
-										foundSinks.add(cur);
-									if(visited.add(cur) && !excludeHandler.isExcludedMethodWithOverride(cur)) {
-										Iterator<Edge> it = cg.edgesOutOf(cur);
-										while(it.hasNext()) {
-											Edge e = it.next();
-											if(edgePred.want(e)) {
-												allowedEdges.add(e);
-												toVisit.add(e.tgt());
-											}
+								int epId = cg.getId(entryPoint);
+								if(epId < 0) {
+									if(sinks.contains(entryPoint)) {
+										synchronized(epsToSinkSubGraph) {
+											epsToSinkSubGraph.put(ep, new Triple<>(Collections.singleton(entryPoint),1,0));
 										}
+										writeTGF(getOutputFilePath(outputDir, entryPoint, uniq+"", ".tgf"), Collections.singleton(entryPoint),
+												Collections.<Edge>emptySet());
 									}
-								}
-								
-								if(!foundSinks.isEmpty()) {
-									visited = new HashSet<>();
-									toVisit = new ArrayDeque<>();
-									Set<Edge> toSinks = new HashSet<>();
-									toVisit.addAll(foundSinks);
-									while(!toVisit.isEmpty()) {
-										SootMethod cur = toVisit.poll();
-										visited.add(cur);
-										Iterator<Edge> it = cg.edgesInto(cur);
-										while(it.hasNext()) {
-											Edge e = it.next();
-											if(allowedEdges.contains(e)) {
-												SootMethod src = e.src();
-												toSinks.add(e);
-												if(!visited.contains(src) && !toVisit.contains(src)) {
-													toVisit.add(src);
+								} else {
+									ExclusionView exclusions = dataAccessor.getExclusionView(ep, cg);
+									//The marks and the work list grow with the reached sub graph instead of the whole call graph
+									int[] toVisit = new int[16];
+									int head = 0;
+									int tail = 0;
+									
+									//Forward mark the methods reachable from the entry point and the edges allowed to be traversed
+									BitSet reached = new BitSet();
+									BitSet allowedEdges = new BitSet();
+									BitSet foundSinks = new BitSet();
+									reached.set(epId);
+									if(sinkIds.get(epId))
+										foundSinks.set(epId);
+									toVisit[tail++] = epId;
+									while(head < tail) {
+										int cur = toVisit[head++];
+										if(!exclusions.isExcluded(cur)) {
+											for(int e = cg.getOutStart(cur); e < cg.getOutEnd(cur); e++) {
+												if(cg.isNonReflective(e)) { //Omit reflective calls
+													allowedEdges.set(e);
+													int tgt = cg.getTarget(e);
+													if(!reached.get(tgt)) {
+														reached.set(tgt);
+														if(sinkIds.get(tgt))
+															foundSinks.set(tgt);
+														if(tail == toVisit.length)
+															toVisit = Arrays.copyOf(toVisit, tail * 2);
+														toVisit[tail++] = tgt;
+													}
 												}
 											}
 										}
 									}
 									
-									synchronized(epsToSinkSubGraph) {
-										epsToSinkSubGraph.put(ep, new Triple<>(SortingMethods.sortSet(foundSinks,SootSort.smComp),
-												visited.size(),toSinks.size()));
+									if(!foundSinks.isEmpty()) {
+										//Backward mark the methods and allowed edges that lead to one of the found sinks
+										//The backward marks are a subset of the forward ones so the work list is already large enough
+										BitSet visited = new BitSet();
+										BitSet toSinks = new BitSet();
+										head = 0;
+										tail = 0;
+										for(int sink = foundSinks.nextSetBit(0); sink >= 0; sink = foundSinks.nextSetBit(sink + 1)) {
+											visited.set(sink);
+											toVisit[tail++] = sink;
+										}
+										while(head < tail) {
+											int cur = toVisit[head++];
+											for(int pos = cg.getInStart(cur); pos < cg.getInEnd(cur); pos++) {
+												int e = cg.getInEdge(pos);
+												if(allowedEdges.get(e)) {
+													toSinks.set(e);
+													int src = cg.getSource(e);
+													if(!visited.get(src)) {
+														visited.set(src);
+														toVisit[tail++] = src;
+													}
+												}
+											}
+										}
+										
+										synchronized(epsToSinkSubGraph) {
+											epsToSinkSubGraph.put(ep, new Triple<>(SortingMethods.sortSet(cg.getMethods(foundSinks),SootSort.smComp),
+													visited.cardinality(),toSinks.cardinality()));
+										}
+										
+										writeTGF(getOutputFilePath(outputDir, entryPoint, uniq+"", ".tgf"), cg.getMethods(visited), 
+												cg.getEdges(toSinks));
 									}
-									
-									Path output = getOutputFilePath(outputDir, entryPoint, uniq+"", ".tgf");
-									TGFGraphWriter<SootMethod,Edge> graphWriter = new TGFGraphWriter<>(SortingMethods.sortSet(visited,SootSort.smComp),
-											SortingMethods.sortSet(toSinks,SootSort.edgeComp), new TGFSootNodeTranslator(), 
-											new TGFSootEdgeTranslator());
-									graphWriter.writeToFile(output);
 								}
 								
 								mainLogger.info("{}: Successfully completed the reaching analysis for '{}'.",cn,entryPoint);
@@ -416,6 +456,13 @@ public class VariedCallGraphAnalysis {
 		return successOuter;
 	}
 
+	/** Writes the sub graph using the same sorted node and edge order as the full graph dumps. */
+	private static void writeTGF(Path output, Set<SootMethod> nodes, Set<Edge> edges) throws Exception {
+		TGFGraphWriter<SootMethod,Edge> graphWriter = new TGFGraphWriter<>(SortingMethods.sortSet(nodes,SootSort.smComp),
+				SortingMethods.sortSet(edges,SootSort.edgeComp), new TGFSootNodeTranslator(), new TGFSootEdgeTranslator());
+		graphWriter.writeToFile(output);
+	}
+
 	public static void main(String[] args) throws IOException {
 		BufferedReader br = Files.newBufferedReader(FileHelpers.getPath("C:\\CS\\Documents\\Work\\Research\\fred\\aosp-10.0.0\\debug\\2020-05-30_11-59-26\\fred_eps_to_native_methods_dump.txt"));
 		String ln;
@@ -12,6 +12,7 @@ import org.sag.main.config.PhaseConfig;
 import org.sag.main.phase.AbstractPhaseHandler;
 import org.sag.main.phase.IPhaseHandler;
 import org.sag.main.phase.IPhaseOption;
+import org.sag.fred.IFredDataAccessor;
 
 public class VariedCallGraphAnalysisHandler extends AbstractPhaseHandler {
 	
@@ -65,7 +66,7 @@ public class VariedCallGraphAnalysisHandler extends AbstractPhaseHandler {
 	@Override
 	protected boolean doWork() {
 		try{
-			VariedCallGraphAnalysis sg = new VariedCallGraphAnalysis((IACMinerDataAccessor)dataAccessor,this,logger);
+			VariedCallGraphAnalysis sg = new VariedCallGraphAnalysis((IFredDataAccessor)dataAccessor,this,logger);
 			if(!sg.run()){
 				logger.fatal("{}: Encountered errors during executation.", cn);
 				return false;